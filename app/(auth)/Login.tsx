@@ -20,6 +20,7 @@ import * as WebBrowser from 'expo-web-browser';
 import * as Google from 'expo-auth-session/providers/google';
 
 import { makeRedirectUri } from 'expo-auth-session';
+import { saveSessionToken } from '../utils/session';
 
 import {
   useFonts,
@@ -122,6 +123,7 @@ export default function LoginScreen() {
         throw new Error(responseData.message || 'Google login failed');
       }
 
+      await saveSessionToken(responseData.token);
       router.replace('/home/Home');
     } catch (error: any) {
       console.error('Google login error:', error);
@@ -171,6 +173,7 @@ export default function LoginScreen() {
         throw new Error(data.message || 'Login failed');
       }
   
+      await saveSessionToken(data.token);
       router.replace('/home/Home');
     } catch (error: any) {
       console.error('Full error:', error);
@@ -15,6 +15,7 @@ import {
 } from 'react-native';
 import { useNavigation } from '@react-navigation/native';
 import { router } from 'expo-router';
+import { authHeaders, clearSessionToken } from '../utils/session';
 
 const API_CONFIG = {
   baseUrl: Platform.select({
@@ -60,19 +61,35 @@ export default function ProfileScreen() {
   const [showEdit, setShowEdit] = useState(false);
   const slideAnim = useRef(new Animated.Value(0)).current;
 
+  // Le backend identifie l'utilisateur par le jeton de session reçu à la connexion
+  const loadProfile = async () => {
+    try {
+      const res = await fetch(`${API_CONFIG.baseUrl}/profile`, {
+        method: 'GET',
+        headers: await authHeaders(),
+      });
+      if (res.status === 401) {
+        // Jeton absent ou expiré : il faut se reconnecter
+        await clearSessionToken();
+        router.replace('/(auth)/Login');
+        return;
+      }
+      if (!res.ok) {
+        throw new Error(`Server error: ${res.status}`);
+      }
+      setUser(await res.json());
+    } catch (err) {
+      console.error('Erreur profil:', err);
+      setUser(null);
+    } finally {
+      setLoading(false);
+    }
+  };
+
   useEffect(() => {
     navigation.setOptions?.({ headerShown: false });
     // Appelle ton backend Java pour récupérer le profil
-    fetch(`${API_CONFIG.baseUrl}/profile`, {
-      method: 'GET',
-    })
-      .then(res => res.json())
-      .then(data => setUser(data))
-      .catch(err => {
-        console.error('Erreur profil:', err);
-        setUser(null);
-      })
-      .finally(() => setLoading(false));
+    loadProfile();
   }, []);
 
   const handleEditPress = () => {
@@ -96,9 +113,15 @@ export default function ProfileScreen() {
         method: 'PUT',
         headers: {
           'Content-Type': 'application/json',
+          ...(await authHeaders()),
         },
         body: JSON.stringify(updatedData),
       });
+      if (response.status === 401) {
+        await clearSessionToken();
+        router.replace('/(auth)/Login');
+        return;
+      }
 
       const result = await response.json();
       if (result.success) {
@@ -137,16 +160,7 @@ export default function ProfileScreen() {
           onPress={() => {
             setLoading(true);
             // Re-attempt loading the profile
-            fetch(`${API_CONFIG.baseUrl}/profile`, {
-              method: 'GET',
-            })
-              .then(res => res.json())
-              .then(data => setUser(data))
-              .catch(err => {
-                console.error('Erreur profil:', err);
-                setUser(null);
-              })
-              .finally(() => setLoading(false));
+            loadProfile();
           }}
         >
           <Text style={styles.retryButtonText}>Réessayer</Text>
@@ -0,0 +1,29 @@
+import AsyncStorage from '@react-native-async-storage/async-storage';
+
+// Session token returned by /login and /google-login; /profile answers 401 without it
+const SESSION_TOKEN_KEY = 'sessionToken';
+
+export const saveSessionToken = async (token?: string) => {
+  if (token) {
+    await AsyncStorage.setItem(SESSION_TOKEN_KEY, token);
+  }
+};
+
+export const clearSessionToken = async () => {
+  await AsyncStorage.removeItem(SESSION_TOKEN_KEY);
+};
+
+// Headers to spread into a fetch() for an endpoint that needs the logged-in user
+export const authHeaders = async (): Promise<Record<string, string>> => {
+  const token = await AsyncStorage.getItem(SESSION_TOKEN_KEY);
+  return token ? { Authorization: `Bearer ${token}` } : {};
+};
+
+// Export default object to satisfy Expo Router
+const sessionUtils = {
+  saveSessionToken,
+  clearSessionToken,
+  authHeaders,
+};
+
+export default sessionUtils;
@@ -0,0 +1,82 @@
+-- Partitions screenshot_analysis on owner_key (PostgreSQL 11+), so that listing or syncing one user's
+-- analyses (GET /analyze with a session token) only ever reads one partition and its idx_analysis_key_time
+-- or idx_analysis_key_sync. Optional: the application works the same on the plain table that
+-- hibernate.hbm2ddl.auto creates. Migrate the schema to version 3 first (Config.SchemaMigration, which
+-- adds and fills owner_key), then run this with the server stopped:
+--
+--   psql -d blinkodb -v ON_ERROR_STOP=1 -f db/partition_screenshot_analysis.sql
+--
+-- and from then on start the server with startup.mode=fast or hibernate.hbm2ddl.auto=none: the JDBC
+-- metadata Hibernate's schema update reads does not list partitioned tables, and it would try to create
+-- the table again.
+--
+-- Layout:
+--  * screenshot_analysis_owned holds every analysis with an owner (owner_key >= 1), in 16 hash partitions
+--    on owner_key: one user's analyses are always in one partition.
+--  * screenshot_analysis_anon holds the analyses posted without a session token (owner_key = 0, the
+--    ScreenshotAnalysis.NO_OWNER key), in 16 hash partitions on image_uri. Hashed on owner_key they would
+--    all land in a single partition.
+--  * uk_analysis_owner_uri stays a real unique constraint on (owner_key, image_uri): at each level the
+--    partition key is one of its columns, which is all PostgreSQL asks of a unique index on a partitioned
+--    table. INSERT ... ON CONFLICT DO NOTHING, the natural id lookups and the duplicate check on POST
+--    behave as on the plain table.
+--  * ids come from a sequence default instead of an identity column, which partitioned tables only
+--    support from PostgreSQL 17 on. Existing ids are kept. There is no primary key, as it would have to
+--    include owner_key; idx_analysis_id serves lookups by id, one probe per partition.
+
+BEGIN;
+
+ALTER TABLE screenshot_analysis RENAME TO screenshot_analysis_unpartitioned;
+ALTER TABLE screenshot_analysis_unpartitioned RENAME CONSTRAINT uk_analysis_owner_uri TO uk_analysis_owner_uri_unpartitioned;
+ALTER INDEX idx_analysis_key_time RENAME TO idx_analysis_key_time_unpartitioned;
+ALTER INDEX idx_analysis_key_sync RENAME TO idx_analysis_key_sync_unpartitioned;
+
+CREATE SEQUENCE screenshot_analysis_part_id_seq;
+
+CREATE TABLE screenshot_analysis (
+    id             bigint NOT NULL DEFAULT nextval('screenshot_analysis_part_id_seq'),
+    image_uri      varchar(255) NOT NULL,
+    description    text,
+    description_en text,
+    tags           text,
+    tags_en        text,
+    creation_time  bigint,
+    owner_id       bigint CONSTRAINT fk_analysis_owner REFERENCES users (id),
+    owner_key      bigint NOT NULL DEFAULT 0,
+    CONSTRAINT uk_analysis_owner_uri UNIQUE (owner_key, image_uri)
+) PARTITION BY RANGE (owner_key);
+
+ALTER SEQUENCE screenshot_analysis_part_id_seq OWNED BY screenshot_analysis.id;
+
+CREATE TABLE screenshot_analysis_anon PARTITION OF screenshot_analysis
+    FOR VALUES FROM (MINVALUE) TO (1) PARTITION BY HASH (image_uri);
+CREATE TABLE screenshot_analysis_owned PARTITION OF screenshot_analysis
+    FOR VALUES FROM (1) TO (MAXVALUE) PARTITION BY HASH (owner_key);
+
+DO $$
+BEGIN
+    FOR r IN 0..15 LOOP
+        EXECUTE format('CREATE TABLE screenshot_analysis_anon_p%s PARTITION OF screenshot_analysis_anon '
+                       'FOR VALUES WITH (MODULUS 16, REMAINDER %s)', r, r);
+        EXECUTE format('CREATE TABLE screenshot_analysis_owned_p%s PARTITION OF screenshot_analysis_owned '
+                       'FOR VALUES WITH (MODULUS 16, REMAINDER %s)', r, r);
+    END LOOP;
+END $$;
+
+CREATE INDEX idx_analysis_key_time ON screenshot_analysis (owner_key, creation_time, id);
+CREATE INDEX idx_analysis_key_sync ON screenshot_analysis (owner_key, id);
+CREATE INDEX idx_analysis_id ON screenshot_analysis (id);
+
+INSERT INTO screenshot_analysis (id, image_uri, description, description_en, tags, tags_en, creation_time,
+                                 owner_id, owner_key)
+SELECT id, image_uri, description, description_en, tags, tags_en, creation_time, owner_id, owner_key
+FROM screenshot_analysis_unpartitioned;
+
+SELECT setval('screenshot_analysis_part_id_seq', COALESCE((SELECT MAX(id) FROM screenshot_analysis), 0) + 1, false);
+
+-- Kept for a rollback; drop it once the partitioned table has been checked:
+--   DROP TABLE screenshot_analysis_unpartitioned;
+
+COMMIT;
+
+ANALYZE screenshot_analysis;
@@ -0,0 +1,80 @@
+package Bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import Config.DatabaseConfig;
+import Entity.ScreenshotAnalysis;
+import Servlets.ScreenshotAnalysisServlet;
+
+// Per-URI "GET /analyze?imageUri=" queries versus the chunked "/analyze/lookup" query for one gallery sync
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalysisLookupBenchmark {
+
+    @Param({"10000"})
+    public int storedAnalyses;
+
+    @Param({"100", "1000"})
+    public int urisPerSync;
+
+    private List<String> uris;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchDatabase.start("lookup");
+        BenchDatabase.seedAnalyses(storedAnalyses);
+        // Half of the gallery is already analyzed, half is new
+        uris = new ArrayList<>(urisPerSync);
+        for (int i = 0; i < urisPerSync; i++) {
+            uris.add(BenchDatabase.imageUri(i % 2 == 0 ? i : storedAnalyses + i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchDatabase.stop();
+    }
+
+    @Benchmark
+    public void perUri(Blackhole bh) {
+        for (String uri : uris) {
+            try (Session session = DatabaseConfig.getSessionFactory().openSession()) {
+                bh.consume(session.createQuery(
+                        "FROM ScreenshotAnalysis WHERE ownerKey = :owner AND imageUri = :uri", ScreenshotAnalysis.class)
+                        .setParameter("owner", ScreenshotAnalysis.NO_OWNER)
+                        .setParameter("uri", uri)
+                        .uniqueResult());
+            }
+        }
+    }
+
+    @Benchmark
+    public Map<String, ScreenshotAnalysis> batched() {
+        try (Session session = DatabaseConfig.getSessionFactory().openSession()) {
+            return ScreenshotAnalysisServlet.findByImageUris(session, ScreenshotAnalysis.NO_OWNER, uris);
+        }
+    }
+}
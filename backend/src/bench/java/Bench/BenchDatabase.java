@@ -0,0 +1,114 @@
+package Bench;
+
+import java.util.Properties;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import Config.DatabaseConfig;
+import Entity.Profile;
+import Entity.ScreenshotAnalysis;
+import Entity.User;
+
+// Boots DatabaseConfig against an in-memory H2 database in PostgreSQL mode
+public final class BenchDatabase {
+
+    private BenchDatabase() {}
+
+    public static void start(String name) {
+        start(name, new Properties());
+    }
+
+    // Extra settings (cache.enabled, db.pool.*, ...) win over the H2 defaults below
+    public static void start(String name, Properties extra) {
+        Properties overrides = new Properties();
+        overrides.setProperty("db.driver", "org.h2.Driver");
+        overrides.setProperty("db.url",
+                "jdbc:h2:mem:" + name + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+        overrides.setProperty("db.user", "sa");
+        overrides.setProperty("db.password", "");
+        overrides.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        overrides.setProperty("hibernate.hbm2ddl.auto", "create-drop");
+        overrides.setProperty("hibernate.jdbc.batch_size", "500");
+        overrides.putAll(extra);
+        DatabaseConfig.initialize(overrides);
+    }
+
+    public static void stop() {
+        DatabaseConfig.shutdown();
+    }
+
+    public static String imageUri(int i) {
+        return "file:///storage/emulated/0/DCIM/Screenshots/Screenshot_" + i + ".png";
+    }
+
+    public static void seedAnalyses(int count) {
+        try (Session session = DatabaseConfig.getSessionFactory().openSession()) {
+            Transaction tx = session.beginTransaction();
+            for (int i = 0; i < count; i++) {
+                session.persist(new ScreenshotAnalysis(imageUri(i),
+                        "Capture d'écran d'une conversation numéro " + i,
+                        "Screenshot of a conversation number " + i,
+                        "texte,conversation,capture",
+                        "text,conversation,screenshot",
+                        1700000000000L + i));
+                if (i % 500 == 499) {
+                    session.flush();
+                    session.clear();
+                }
+            }
+            tx.commit();
+        }
+    }
+
+    public static String email(int i) {
+        return "user" + i + "@example.com";
+    }
+
+    // Email/password accounts; the password hash is a fixed placeholder since lookups never check it
+    public static void seedUsers(int count) {
+        seedUsers(count, "$2a$10$abcdefghijklmnopqrstuuWXQfBHbTQk1zGmlgh2EXdbl3PJuNoTi");
+    }
+
+    // Every account shares one BCrypt hash, so seeding does not pay the hashing cost per user.
+    // Each gets an empty profile, as /register creates.
+    public static void seedUsers(int count, String passwordHash) {
+        try (Session session = DatabaseConfig.getSessionFactory().openSession()) {
+            Transaction tx = session.beginTransaction();
+            for (int i = 0; i < count; i++) {
+                User user = new User();
+                user.setUsername("user" + i);
+                user.setEmail(email(i));
+                user.setPassword(passwordHash);
+                user.setAuthMethod("email");
+                session.persist(user);
+                Profile profile = new Profile();
+                profile.setUser(user);
+                profile.setPhone("");
+                profile.setAdresse("");
+                session.persist(profile);
+                if (i % 500 == 499) {
+                    session.flush();
+                    session.clear();
+                }
+            }
+            tx.commit();
+        }
+    }
+
+    // User with a profile; seeded first, it gets id 1
+    public static void seedProfile(String email) {
+        try (Session session = DatabaseConfig.getSessionFactory().openSession()) {
+            Transaction tx = session.beginTransaction();
+            User user = new User(email, email.substring(0, email.indexOf('@')), null);
+            user.setPassword("unused");
+            Profile profile = new Profile();
+            profile.setPhone("0600000000");
+            profile.setAdresse("1 rue de la Paix");
+            profile.setUser(user);
+            session.persist(user);
+            session.persist(profile);
+            tx.commit();
+        }
+    }
+}
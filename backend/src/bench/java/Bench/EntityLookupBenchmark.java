@@ -0,0 +1,101 @@
+package Bench;
+
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Config.DatabaseConfig;
+import Entity.ScreenshotAnalysis;
+import Entity.User;
+
+// One lookup per session, as the servlets do it: by imageUri (GET /analyze?imageUri=) and by email
+// (POST /login), through the natural-id API and through a plain HQL query, with and without the
+// second-level cache
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntityLookupBenchmark {
+
+    @Param({"10000"})
+    public int rows;
+
+    @Param({"true", "false"})
+    public boolean cache;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Properties settings = new Properties();
+        settings.setProperty("cache.enabled", String.valueOf(cache));
+        BenchDatabase.start("entities", settings);
+        BenchDatabase.seedAnalyses(rows);
+        BenchDatabase.seedUsers(rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchDatabase.stop();
+    }
+
+    @Benchmark
+    public ScreenshotAnalysis analysisByNaturalId() {
+        try (Session session = DatabaseConfig.getSessionFactory().openSession()) {
+            return session.byNaturalId(ScreenshotAnalysis.class)
+                    .using("ownerKey", ScreenshotAnalysis.NO_OWNER)
+                    .using("imageUri", randomImageUri())
+                    .load();
+        }
+    }
+
+    @Benchmark
+    public ScreenshotAnalysis analysisByQuery() {
+        try (Session session = DatabaseConfig.getSessionFactory().openSession()) {
+            return session.createQuery("FROM ScreenshotAnalysis WHERE ownerKey = :owner AND imageUri = :uri",
+                    ScreenshotAnalysis.class)
+                    .setParameter("owner", ScreenshotAnalysis.NO_OWNER)
+                    .setParameter("uri", randomImageUri())
+                    .uniqueResult();
+        }
+    }
+
+    @Benchmark
+    public User userByNaturalId() {
+        try (Session session = DatabaseConfig.getSessionFactory().openSession()) {
+            return session.bySimpleNaturalId(User.class).load(randomEmail());
+        }
+    }
+
+    @Benchmark
+    public User userByQuery() {
+        try (Session session = DatabaseConfig.getSessionFactory().openSession()) {
+            return session.createQuery("FROM User WHERE email = :email", User.class)
+                    .setParameter("email", randomEmail())
+                    .uniqueResult();
+        }
+    }
+
+    private String randomImageUri() {
+        return BenchDatabase.imageUri(ThreadLocalRandom.current().nextInt(rows));
+    }
+
+    private String randomEmail() {
+        return BenchDatabase.email(ThreadLocalRandom.current().nextInt(rows));
+    }
+}
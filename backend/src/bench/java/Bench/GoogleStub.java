@@ -0,0 +1,111 @@
+package Bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpServer;
+
+// Local stand-in for Google sign-in: serves a JSON Web Key Set on 127.0.0.1 and mints ID tokens signed
+// with its key. Point google.certsUrl, google.issuers and google.clientId at it with configure().
+public final class GoogleStub implements AutoCloseable {
+
+    public static final String ISSUER = "https://accounts.google.com";
+    public static final String CLIENT_ID = "load-test.apps.googleusercontent.com";
+    private static final String KEY_ID = "load-test-key";
+
+    private final KeyPair keys;
+    private final HttpServer server;
+    private final AtomicLong keyFetches = new AtomicLong();
+
+    private GoogleStub(KeyPair keys, HttpServer server) {
+        this.keys = keys;
+        this.server = server;
+    }
+
+    public static GoogleStub start() throws IOException, GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keys = generator.generateKeyPair();
+        RSAPublicKey publicKey = (RSAPublicKey) keys.getPublic();
+        byte[] jwks = ("{\"keys\":[{\"kty\":\"RSA\",\"alg\":\"RS256\",\"use\":\"sig\",\"kid\":\"" + KEY_ID + "\","
+                + "\"n\":\"" + base64(unsigned(publicKey.getModulus())) + "\","
+                + "\"e\":\"" + base64(unsigned(publicKey.getPublicExponent())) + "\"}]}")
+                .getBytes(StandardCharsets.UTF_8);
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        GoogleStub stub = new GoogleStub(keys, server);
+        server.createContext("/certs", exchange -> {
+            stub.keyFetches.incrementAndGet();
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.getResponseHeaders().add("Cache-Control", "public, max-age=21600");
+            exchange.sendResponseHeaders(200, jwks.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(jwks);
+            }
+        });
+        server.start();
+        return stub;
+    }
+
+    // Must run before anything reads Settings
+    public void configure() {
+        System.setProperty("google.certsUrl", certsUrl());
+        System.setProperty("google.issuers", ISSUER);
+        System.setProperty("google.clientId", CLIENT_ID);
+    }
+
+    public String certsUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/certs";
+    }
+
+    public long keyFetches() {
+        return keyFetches.get();
+    }
+
+    // An ID token as the app gets it from Google, valid for an hour
+    public String token(String subject, String email, String name) {
+        long now = System.currentTimeMillis() / 1000;
+        String header = base64("{\"alg\":\"RS256\",\"kid\":\"" + KEY_ID + "\",\"typ\":\"JWT\"}");
+        String payload = base64("{\"iss\":\"" + ISSUER + "\",\"aud\":\"" + CLIENT_ID + "\",\"azp\":\"" + CLIENT_ID
+                + "\",\"sub\":\"" + subject + "\",\"email\":\"" + email + "\",\"email_verified\":true,"
+                + "\"name\":\"" + name + "\",\"iat\":" + now + ",\"exp\":" + (now + 3600) + "}");
+        try {
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initSign(keys.getPrivate());
+            signature.update((header + "." + payload).getBytes(StandardCharsets.US_ASCII));
+            return header + "." + payload + "." + base64(signature.sign());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private static String base64(String json) {
+        return base64(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String base64(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    // JWK integers are big-endian without the sign byte BigInteger may add
+    private static byte[] unsigned(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        return bytes[0] == 0 ? Arrays.copyOfRange(bytes, 1, bytes.length) : bytes;
+    }
+}
@@ -0,0 +1,144 @@
+package Bench;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Entity.ScreenshotAnalysis;
+import Servlets.Json;
+import Servlets.LoginServlet;
+import Servlets.RegisterServlet;
+
+// The request/response paths the servlets used to run (org.json over a line-joined String, a fresh
+// ObjectMapper per request) against the shared codec, and the codec's parse/write steps on their own
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonCodecBenchmark {
+
+    private static final Json.Outcome LOGIN_OK = new Json.Outcome(true, "Login successful");
+
+    private byte[] loginBody;
+    private byte[] registerBody;
+    private byte[] analysisBody;
+    // Stands in for the servlet output stream; reset before each response
+    private ScreenshotAnalysis analysis;
+    private final ByteArrayOutputStream sink = new ByteArrayOutputStream(4096);
+
+    @Setup
+    public void setUp() throws IOException {
+        loginBody = "{\"email\":\"someone@example.com\",\"password\":\"correct horse battery staple\"}"
+                .getBytes(StandardCharsets.UTF_8);
+
+        registerBody = ("{\"username\":\"someone\",\"email\":\"someone@example.com\","
+                + "\"password\":\"correct horse battery staple\"}").getBytes(StandardCharsets.UTF_8);
+
+        analysis = new ScreenshotAnalysis();
+        analysis.setImageUri(BenchDatabase.imageUri(42));
+        analysis.setDescription("Capture d'écran d'une conversation avec un rendez-vous chez le médecin à 14h");
+        analysis.setDescription_en("Screenshot of a conversation with a doctor's appointment at 2pm");
+        analysis.setTags("conversation,rendez-vous,médecin,santé");
+        analysis.setTags_en("conversation,appointment,doctor,health");
+        analysis.setCreationTime(1700000000000L);
+        analysisBody = new ObjectMapper().writeValueAsBytes(analysis);
+    }
+
+    @Benchmark
+    public byte[] loginOrgJson() throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(loginBody), StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            sb.append(line);
+        }
+        JSONObject json = new JSONObject(sb.toString());
+        if (json.getString("email").isEmpty() || json.getString("password").isEmpty()) {
+            throw new IllegalStateException();
+        }
+
+        sink.reset();
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(sink, StandardCharsets.UTF_8));
+        out.print("{\"success\":true,\"message\":\"Login successful\"}");
+        out.flush();
+        return sink.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] loginCodec() throws IOException {
+        LoginServlet.LoginRequest json = Json.reader(LoginServlet.LoginRequest.class)
+                .readValue(new ByteArrayInputStream(loginBody));
+        if (json.email.isEmpty() || json.password.isEmpty()) {
+            throw new IllegalStateException();
+        }
+
+        sink.reset();
+        Json.writer(Json.Outcome.class).writeValue(sink, LOGIN_OK);
+        return sink.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] analysisMapperPerRequest() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        ScreenshotAnalysis analysis = mapper.readValue(
+                new InputStreamReader(new ByteArrayInputStream(analysisBody), StandardCharsets.UTF_8),
+                ScreenshotAnalysis.class);
+
+        sink.reset();
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(sink, StandardCharsets.UTF_8));
+        mapper.writeValue(out, analysis);
+        return sink.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] analysisCodec() throws IOException {
+        ScreenshotAnalysis analysis = Json.reader(ScreenshotAnalysis.class)
+                .readValue(new ByteArrayInputStream(analysisBody));
+
+        sink.reset();
+        Json.writer(ScreenshotAnalysis.class).writeValue(sink, analysis);
+        return sink.toByteArray();
+    }
+
+    @Benchmark
+    public RegisterServlet.RegisterRequest registerParse() throws IOException {
+        return Json.reader(RegisterServlet.RegisterRequest.class).readValue(new ByteArrayInputStream(registerBody));
+    }
+
+    // Body of POST /analyze
+    @Benchmark
+    public ScreenshotAnalysis analysisParse() throws IOException {
+        return Json.reader(ScreenshotAnalysis.class).readValue(new ByteArrayInputStream(analysisBody));
+    }
+
+    // Row of GET /analyze responses
+    @Benchmark
+    public byte[] analysisWrite() throws IOException {
+        sink.reset();
+        Json.writer(ScreenshotAnalysis.class).writeValue(sink, analysis);
+        return sink.toByteArray();
+    }
+}
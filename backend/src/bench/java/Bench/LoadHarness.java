@@ -0,0 +1,388 @@
+package Bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.catalina.startup.Tomcat;
+import org.mindrot.jbcrypt.BCrypt;
+
+import Admission.AdmissionControl;
+import Admission.ConcurrencyLimit;
+import Config.DatabaseConfig;
+import Config.ServerConfig;
+import Config.Settings;
+import Config.Startup;
+import Index.AnalysisIndexes;
+import Ingest.TagBackfill;
+import Ingest.WriteBehindIngest;
+import Metrics.LatencyHistogram;
+import Security.GoogleTokenVerifier;
+
+// End-to-end load test: the real server wiring (ServerConfig) on an in-memory H2 database, Google sign-in
+// against a local key server (GoogleStub), and simulated app users replaying what the mobile app does:
+//   sign in (password or Google; a few register first) -> read the profile, sometimes edit it ->
+//   sync new screenshots one by one (GET /analyze?imageUri=, then POST /analyze if not analyzed yet) ->
+//   browse a tag
+// Needs nothing but a JDK; prints throughput and latency percentiles per endpoint.
+//   mvn -Pbench package exec:exec -Dbench.main=Bench.LoadHarness -Dbench.args="users=100 seconds=60"
+// Arguments (key=value): users=50 warmup=10 seconds=30 accounts=500 analyses=10000 screenshots=5
+// newScreenshots=0.3 googleShare=0.3 registerShare=0.05 profileEdits=0.1 thinkMs=0 abusers=0.
+// Every user sends from an address of its own (X-Forwarded-For, see admission.clientIpHeader); abusers are
+// extra clients sharing one address that loop over imageUri checks and wrong-password logins without pause,
+// reported apart as "abuser ...": with admission control they should be the only ones slowed down.
+// Server settings apply as usual: -Dbench.jvmArgs="-Dserver.threads=virtual -Dsecurity.bcrypt.cost=8"
+public class LoadHarness {
+
+    static final String PASSWORD = "correct horse battery staple";
+
+    private static final String[] TAGS = {"conversation", "screenshot", "text", "receipt", "map", "recipe"};
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put("users", "50");
+        options.put("warmup", "10");
+        options.put("seconds", "30");
+        options.put("accounts", "500");
+        options.put("analyses", "10000");
+        options.put("screenshots", "5");
+        options.put("newScreenshots", "0.3");
+        options.put("googleShare", "0.3");
+        options.put("registerShare", "0.05");
+        options.put("profileEdits", "0.1");
+        options.put("thinkMs", "0");
+        options.put("abusers", "0");
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        int users = Integer.parseInt(options.get("users"));
+        int accounts = Integer.parseInt(options.get("accounts"));
+        int analyses = Integer.parseInt(options.get("analyses"));
+        if (System.getProperty("server.port") == null) {
+            System.setProperty("server.port", "18280");
+        }
+        if (System.getProperty("server.baseDir") == null) {
+            System.setProperty("server.baseDir", System.getProperty("java.io.tmpdir"));
+        }
+        int abusers = Integer.parseInt(options.get("abusers"));
+        System.setProperty("http.maxConnections", String.valueOf(Math.max(5, users + abusers)));
+        // Users are told apart by the address they send, as they would be behind the load balancer
+        if (System.getProperty("admission.clientIpHeader") == null) {
+            System.setProperty("admission.clientIpHeader", "X-Forwarded-For");
+        }
+
+        try (GoogleStub google = GoogleStub.start()) {
+            google.configure();
+            Settings settings = Settings.get();
+
+            System.out.println("Seeding " + analyses + " analyses and " + accounts + " accounts...");
+            BenchDatabase.start("harness");
+            BenchDatabase.seedProfile("profile@example.com");
+            BenchDatabase.seedAnalyses(analyses);
+            BenchDatabase.seedUsers(accounts,
+                    BCrypt.hashpw(PASSWORD, BCrypt.gensalt(settings.getInt("security.bcrypt.cost", 10))));
+            // Same startup sequence as ServerMain
+            AnalysisIndexes.rebuild(DatabaseConfig.getSessionFactory());
+            TagBackfill.start(DatabaseConfig.getSessionFactory(), settings);
+            WriteBehindIngest.start(DatabaseConfig.getSessionFactory(), settings);
+            GoogleTokenVerifier.get().start();
+            Tomcat tomcat = ServerConfig.create(settings);
+            tomcat.start();
+            Startup.markReady();
+
+            Traffic traffic = new Traffic("http://localhost:" + tomcat.getConnector().getLocalPort(), google,
+                    options, accounts, analyses);
+            try {
+                traffic.run(users, abusers, Integer.parseInt(options.get("warmup")),
+                        Integer.parseInt(options.get("seconds")));
+            } finally {
+                tomcat.stop();
+                tomcat.destroy();
+                BenchDatabase.stop();
+            }
+            traffic.report(users);
+            System.out.println("Google key fetches: " + google.keyFetches());
+            AdmissionControl admission = AdmissionControl.getIfStarted();
+            if (admission != null) {
+                ConcurrencyLimit limit = admission.concurrency();
+                System.out.println("Admission: concurrency limit " + limit.getLimit() + ", slowdown "
+                        + String.format("%.2f", limit.getSlowdown()) + ", refused over rate (login/analyze/profile) "
+                        + admission.getRateLimited(AdmissionControl.Group.LOGIN) + "/"
+                        + admission.getRateLimited(AdmissionControl.Group.ANALYZE) + "/"
+                        + admission.getRateLimited(AdmissionControl.Group.PROFILE)
+                        + ", over the concurrency limit " + limit.getRejected());
+            }
+        }
+    }
+
+    // Per-endpoint latency and failures (anything but 2xx, or no response)
+    static final class Endpoint {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder failures = new LongAdder();
+    }
+
+    static final class Traffic {
+        private final String base;
+        private final GoogleStub google;
+        private final int accounts;
+        private final int analyses;
+        private final int screenshots;
+        private final double newScreenshots;
+        private final double googleShare;
+        private final double registerShare;
+        private final double profileEdits;
+        private final long thinkMs;
+
+        private final AtomicInteger registrations = new AtomicInteger();
+        private final ThreadLocal<String> clientAddress = new ThreadLocal<>();
+        private final AtomicInteger newImages = new AtomicInteger();
+        private volatile Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+        private volatile boolean running = true;
+        private long measuredNanos;
+
+        Traffic(String base, GoogleStub google, Map<String, String> options, int accounts, int analyses) {
+            this.base = base;
+            this.google = google;
+            this.accounts = accounts;
+            this.analyses = analyses;
+            this.screenshots = Integer.parseInt(options.get("screenshots"));
+            this.newScreenshots = Double.parseDouble(options.get("newScreenshots"));
+            this.googleShare = Double.parseDouble(options.get("googleShare"));
+            this.registerShare = Double.parseDouble(options.get("registerShare"));
+            this.profileEdits = Double.parseDouble(options.get("profileEdits"));
+            this.thinkMs = Long.parseLong(options.get("thinkMs"));
+        }
+
+        void run(int users, int abusers, int warmupSeconds, int seconds) throws InterruptedException {
+            CountDownLatch done = new CountDownLatch(users + abusers);
+            for (int i = 0; i < users; i++) {
+                long seed = i;
+                String address = "10." + (i >> 16 & 255) + "." + (i >> 8 & 255) + "." + (i & 255);
+                Thread user = new Thread(() -> {
+                    Random random = new Random(seed);
+                    clientAddress.set(address);
+                    try {
+                        while (running) {
+                            appSession(random);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }, "app-user-" + i);
+                user.setDaemon(true);
+                user.start();
+            }
+            for (int i = 0; i < abusers; i++) {
+                long seed = -1 - i;
+                // One in four guesses passwords, the others check imageUris
+                boolean stuffing = i % 4 == 3;
+                Thread abuser = new Thread(() -> {
+                    Random random = new Random(seed);
+                    clientAddress.set("192.0.2.1");
+                    try {
+                        while (running) {
+                            abuse(random, stuffing);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }, "abuser-" + i);
+                abuser.setDaemon(true);
+                abuser.start();
+            }
+            System.out.println("Warming up for " + warmupSeconds + " s with " + users + " users...");
+            Thread.sleep(warmupSeconds * 1000L);
+            endpoints = new ConcurrentHashMap<>();
+            long start = System.nanoTime();
+            System.out.println("Measuring for " + seconds + " s...");
+            Thread.sleep(seconds * 1000L);
+            Map<String, Endpoint> measured = endpoints;
+            measuredNanos = System.nanoTime() - start;
+            endpoints = new ConcurrentHashMap<>();
+            running = false;
+            done.await();
+            endpoints = measured;
+        }
+
+        void report(int users) {
+            double seconds = measuredNanos / 1e9;
+            long total = 0;
+            System.out.println();
+            System.out.println(String.format("%d users, %.0f s measured", users, seconds));
+            System.out.println(String.format("%-26s %9s %9s %9s %9s %9s %9s",
+                    "endpoint", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "failed"));
+            for (Map.Entry<String, Endpoint> e : new TreeMap<>(endpoints).entrySet()) {
+                LatencyHistogram.Snapshot s = e.getValue().latency.snapshot();
+                total += s.count();
+                System.out.println(String.format("%-26s %9.1f %9.2f %9.2f %9.2f %9.2f %9d",
+                        e.getKey(), s.count() / seconds,
+                        s.percentileMicros(0.50) / 1000.0, s.percentileMicros(0.90) / 1000.0,
+                        s.percentileMicros(0.99) / 1000.0, s.percentileMicros(1.0) / 1000.0,
+                        e.getValue().failures.sum()));
+            }
+            System.out.println(String.format("%-26s %9.1f", "total", total / seconds));
+            System.out.println("(latencies are bucketed to powers of two)");
+        }
+
+        // One app launch by one user
+        private void appSession(Random random) {
+            String login;
+            if (random.nextDouble() < registerShare) {
+                int n = registrations.incrementAndGet();
+                String email = "new" + n + "@example.com";
+                call("POST /register", "POST", "/register",
+                        "{\"username\":\"new" + n + "\",\"email\":\"" + email + "\",\"password\":\"" + PASSWORD + "\"}");
+                login = call("POST /login (password)", "POST", "/login",
+                        "{\"email\":\"" + email + "\",\"password\":\"" + PASSWORD + "\"}");
+            } else if (random.nextDouble() < googleShare) {
+                int n = random.nextInt(accounts);
+                String token = google.token("google-" + n, "google" + n + "@example.com", "Google User " + n);
+                login = call("POST /google-login", "POST", "/google-login", "{\"googleToken\":\"" + token + "\"}");
+            } else {
+                login = call("POST /login (password)", "POST", "/login",
+                        "{\"email\":\"" + BenchDatabase.email(random.nextInt(accounts)) + "\",\"password\":\""
+                                + PASSWORD + "\"}");
+            }
+            think();
+
+            // The session token from the login identifies the user to /profile
+            String session = sessionToken(login);
+            call("GET /profile", "GET", "/profile", null, session);
+            if (random.nextDouble() < profileEdits) {
+                call("PUT /profile", "PUT", "/profile",
+                        "{\"phone\":\"06" + (10000000 + random.nextInt(89999999)) + "\",\"adresse\":\"1 rue de la Paix\"}",
+                        session);
+            }
+            think();
+
+            // The app checks each screenshot before analyzing it on the device and uploading the result
+            for (int i = 0; i < screenshots && running; i++) {
+                String imageUri = random.nextDouble() < newScreenshots
+                        ? "file:///storage/emulated/0/Pictures/Screenshots/new_" + newImages.incrementAndGet() + ".png"
+                        : BenchDatabase.imageUri(random.nextInt(analyses));
+                String answer = call("GET /analyze?imageUri", "GET", "/analyze?imageUri=" + encode(imageUri), null);
+                if (answer != null && answer.contains("\"alreadyAnalyzed\":false")) {
+                    call("POST /analyze", "POST", "/analyze",
+                            "{\"imageUri\":\"" + imageUri + "\",\"description\":\"Capture d'écran d'une conversation\","
+                                    + "\"description_en\":\"Screenshot of a conversation\","
+                                    + "\"tags\":\"capture,conversation,texte\",\"tags_en\":\"screenshot,conversation,text\","
+                                    + "\"creationTime\":" + System.currentTimeMillis() + "}");
+                }
+            }
+            think();
+
+            call("GET /analyze?tag", "GET", "/analyze?tag=" + TAGS[random.nextInt(TAGS.length)] + "&limit=20", null);
+            think();
+        }
+
+        // A broken gallery-sync loop and a credential-stuffing script behind one address
+        private void abuse(Random random, boolean stuffing) {
+            if (!stuffing) {
+                call("abuser GET /analyze?imageUri", "GET", "/analyze?imageUri="
+                        + encode(BenchDatabase.imageUri(random.nextInt(analyses))), null);
+            } else {
+                call("abuser POST /login", "POST", "/login",
+                        "{\"email\":\"" + BenchDatabase.email(random.nextInt(accounts)) + "\",\"password\":\"guess"
+                                + random.nextInt(1000000) + "\"}");
+            }
+        }
+
+        private void think() {
+            if (thinkMs > 0) {
+                try {
+                    Thread.sleep(thinkMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private static String sessionToken(String loginResponse) {
+            if (loginResponse == null) {
+                return null;
+            }
+            int at = loginResponse.indexOf("\"token\":\"");
+            return at < 0 ? null : loginResponse.substring(at + 9, loginResponse.indexOf('"', at + 9));
+        }
+
+        private String call(String endpoint, String method, String path, String body) {
+            return call(endpoint, method, path, body, null);
+        }
+
+        // Body of a 2xx response, else null
+        private String call(String endpoint, String method, String path, String body, String session) {
+            long start = System.nanoTime();
+            String answer = null;
+            boolean ok = false;
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(base + path).openConnection();
+                connection.setRequestMethod(method);
+                connection.setConnectTimeout(30000);
+                connection.setReadTimeout(60000);
+                connection.setRequestProperty("X-Forwarded-For", clientAddress.get());
+                if (session != null) {
+                    connection.setRequestProperty("Authorization", "Bearer " + session);
+                }
+                if (body != null) {
+                    connection.setDoOutput(true);
+                    connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+                    try (OutputStream out = connection.getOutputStream()) {
+                        out.write(body.getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+                int status = connection.getResponseCode();
+                ok = status >= 200 && status < 300;
+                String text = readFully(ok ? connection.getInputStream() : connection.getErrorStream());
+                answer = ok ? text : null;
+            } catch (IOException e) {
+                // counted as a failure below
+            }
+            Endpoint stats = endpoints.computeIfAbsent(endpoint, k -> new Endpoint());
+            stats.latency.recordNanos(System.nanoTime() - start);
+            if (!ok) {
+                stats.failures.increment();
+            }
+            return answer;
+        }
+
+        // Reading to the end lets the connection go back to the keep-alive pool
+        private static String readFully(InputStream in) throws IOException {
+            if (in == null) {
+                return "";
+            }
+            try (InputStream body = in) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = body.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+                return new String(out.toByteArray(), StandardCharsets.UTF_8);
+            }
+        }
+
+        private static String encode(String value) {
+            try {
+                return URLEncoder.encode(value, "UTF-8");
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package Bench;
+
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.stat.Statistics;
+
+import Config.DatabaseConfig;
+import Servlets.UserProfileServlet;
+
+// What a read that fails half-way leaves in the second-level cache, against an H2 database with a pool of one
+// connection that is held while the read runs, so the read times out after db.pool.acquireTimeoutMs:
+//   mvn -Pbench package exec:exec -Dbench.main=Bench.QueryCacheFailureCheck
+// First a cacheable query, as GET /profile used to run: the read after the failure answers "no row" from the
+// query region. Then UserProfileServlet.find, which must still find the profile after the same failure,
+// serve repeated reads without a statement, and see a bulk UPDATE of the profile. Exits with 1 otherwise.
+public class QueryCacheFailureCheck {
+
+    private static final String VIEW_QUERY = "SELECT u.id, u.username, u.email, p.phone, p.birthday, p.adresse "
+            + "FROM Profile p JOIN p.user u WHERE u.id = :userId";
+    private static final long USER_ID = 1;
+    private static final int READS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        Properties pool = new Properties();
+        pool.setProperty("db.pool.maxSize", "1");
+        pool.setProperty("db.pool.minIdle", "1");
+        pool.setProperty("db.pool.acquireTimeoutMs", "300");
+        BenchDatabase.start("querycache", pool);
+        BenchDatabase.seedProfile("load@example.com");
+        SessionFactory sessionFactory = DatabaseConfig.getSessionFactory();
+        boolean ok = true;
+
+        whilePoolExhausted("cached query", () -> cachedQuery(sessionFactory));
+        Object[] row = cachedQuery(sessionFactory);
+        System.out.println("cached query after the failure: "
+                + (row == null ? "no row (poisoned)" : Arrays.toString(row)));
+
+        sessionFactory.getCache().evictAllRegions();
+        whilePoolExhausted("find", () -> find(sessionFactory));
+        UserProfileServlet.ProfileView view = find(sessionFactory);
+        System.out.println("find after the failure: " + (view == null ? "no row" : view.username));
+        ok &= view != null;
+
+        Statistics statistics = sessionFactory.getStatistics();
+        long statements = statistics.getPrepareStatementCount();
+        for (int i = 0; i < READS; i++) {
+            find(sessionFactory);
+        }
+        statements = statistics.getPrepareStatementCount() - statements;
+        System.out.println(READS + " more finds: " + statements + " statements");
+        ok &= statements == 0;
+
+        try (Session session = sessionFactory.openSession()) {
+            Transaction tx = session.beginTransaction();
+            session.createMutationQuery("UPDATE Profile SET phone = :phone WHERE user.id = :userId")
+                    .setParameter("phone", "0611111111")
+                    .setParameter("userId", USER_ID)
+                    .executeUpdate();
+            tx.commit();
+        }
+        view = find(sessionFactory);
+        System.out.println("find after an UPDATE of the phone: " + (view == null ? "no row" : view.phone));
+        ok &= view != null && "0611111111".equals(view.phone);
+
+        BenchDatabase.stop();
+        System.out.println(ok ? "OK" : "FAILED");
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static Object[] cachedQuery(SessionFactory sessionFactory) {
+        try (Session session = sessionFactory.openSession()) {
+            return session.createQuery(VIEW_QUERY, Object[].class)
+                    .setParameter("userId", USER_ID)
+                    .setCacheable(true)
+                    .uniqueResult();
+        }
+    }
+
+    private static UserProfileServlet.ProfileView find(SessionFactory sessionFactory) {
+        try (Session session = sessionFactory.openSession()) {
+            return UserProfileServlet.find(session, USER_ID);
+        }
+    }
+
+    // Runs the read with the pool's only connection taken; it is expected to fail
+    private static void whilePoolExhausted(String name, Runnable read) throws Exception {
+        try (Connection held = DatabaseConfig.getDataSource().getConnection()) {
+            read.run();
+            System.out.println(name + " while the pool is exhausted: answered");
+        } catch (RuntimeException e) {
+            System.out.println(name + " while the pool is exhausted: " + e.getClass().getSimpleName());
+        }
+    }
+}
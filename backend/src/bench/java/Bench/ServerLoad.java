@@ -0,0 +1,290 @@
+package Bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.catalina.startup.Tomcat;
+
+import Config.DatabaseConfig;
+import Config.ServerConfig;
+import Config.Settings;
+import Config.Startup;
+import Index.AnalysisIndexes;
+import Metrics.LatencyHistogram;
+import Security.SessionTokens;
+
+// Closed-loop HTTP load test of each request execution mode (server.threads), each in its own server JVM:
+//   mvn -Pbench package exec:exec -Dbench.main=Bench.ServerLoad -Dbench.args="clients=2000 seconds=30"
+// Arguments (key=value): modes=platform,async,virtual clients=1000 warmup=10 seconds=20 rows=10000.
+// -Dserver.*, -Ddb.*, -Dsecurity.* and -Dadmission.* given to this JVM (-Dbench.jvmArgs=...) are passed on to the servers. "virtual" needs
+// Java 21+: on an older JVM it is left out of the default modes, and reported as skipped when asked for. All clients
+// share one address, so admission control is off unless -Dadmission.enabled=true is given.
+public class ServerLoad {
+
+    private static final int BASE_PORT = 18180;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put("modes", virtualThreadsAvailable() ? "platform,async,virtual" : "platform,async");
+        options.put("clients", "1000");
+        options.put("warmup", "10");
+        options.put("seconds", "20");
+        options.put("rows", "10000");
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        if (options.containsKey("serve")) {
+            serve(Integer.parseInt(options.get("rows")));
+            return;
+        }
+
+        int clients = Integer.parseInt(options.get("clients"));
+        int rows = Integer.parseInt(options.get("rows"));
+        // Keep-alive connections per host; the default of 5 would make most clients reconnect on every request
+        System.setProperty("http.maxConnections", String.valueOf(clients));
+        // The servers share this secret, so a token minted here identifies the seeded profile user (id 1)
+        if (System.getProperty("security.session.secret") == null) {
+            System.setProperty("security.session.secret", "server-load-" + System.nanoTime());
+        }
+        String session = SessionTokens.get().issue(1L).token;
+
+        List<String> report = new ArrayList<>();
+        int port = BASE_PORT;
+        for (String mode : options.get("modes").split(",")) {
+            if ("virtual".equals(mode.trim()) && !virtualThreadsAvailable()) {
+                report.add(String.format("%-9s skipped: needs Java 21+, this JVM is %s", "virtual",
+                        System.getProperty("java.version")));
+                continue;
+            }
+            Process server = startServer(mode.trim(), port, rows);
+            try {
+                Load load = new Load("http://localhost:" + port, clients, rows, session);
+                load.run(Integer.parseInt(options.get("warmup")), Integer.parseInt(options.get("seconds")));
+                report.add(String.format("%-9s %8d clients %10.0f req/s   p50 %7.2f ms   p99 %8.2f ms   p99.9 %8.2f ms   errors %d %s",
+                        mode.trim(), clients, load.throughput(),
+                        load.latency.percentileMicros(0.50) / 1000.0,
+                        load.latency.percentileMicros(0.99) / 1000.0,
+                        load.latency.percentileMicros(0.999) / 1000.0,
+                        load.errors.sum(), load.errorKinds()));
+            } finally {
+                server.destroy();
+                server.waitFor();
+            }
+            port++;
+        }
+        System.out.println();
+        for (String line : report) {
+            System.out.println(line);
+        }
+    }
+
+    // The servers run on this JVM's java
+    private static boolean virtualThreadsAvailable() {
+        ExecutorService executor = ServerConfig.newVirtualThreadExecutor();
+        if (executor == null) {
+            return false;
+        }
+        executor.shutdown();
+        return true;
+    }
+
+    // Child JVM: seeded in-memory database plus the real server wiring
+    private static void serve(int rows) throws Exception {
+        BenchDatabase.start("load");
+        BenchDatabase.seedAnalyses(rows);
+        BenchDatabase.seedProfile("load@example.com");
+        AnalysisIndexes.rebuild(DatabaseConfig.getSessionFactory());
+        Tomcat tomcat = ServerConfig.create(Settings.get());
+        tomcat.start();
+        Startup.markReady();
+        System.out.println("READY");
+        // Exits when the parent closes our stdin or destroys us
+        while (System.in.read() != -1) {
+            // keep serving
+        }
+        tomcat.stop();
+        BenchDatabase.stop();
+    }
+
+    private static Process startServer(String mode, int port, int rows) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith("server.") || key.startsWith("db.") || key.startsWith("security.")
+                    || key.startsWith("admission.")) {
+                command.add("-D" + key + "=" + System.getProperty(key));
+            }
+        }
+        if (System.getProperty("admission.enabled") == null) {
+            command.add("-Dadmission.enabled=false");
+        }
+        command.add("-Dserver.threads=" + mode);
+        command.add("-Dserver.port=" + port);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ServerLoad.class.getName());
+        command.add("serve=true");
+        command.add("rows=" + rows);
+        // Tomcat creates its work directory under the working directory; keep it out of the source tree
+        Process process = new ProcessBuilder(command)
+                .directory(new File(System.getProperty("java.io.tmpdir")))
+                .redirectErrorStream(true)
+                .start();
+
+        BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = out.readLine()) != null) {
+            System.out.println("[" + mode + "] " + line);
+            if (line.equals("READY")) {
+                // Keep draining the server's output so it never blocks on a full pipe
+                Thread drain = new Thread(() -> {
+                    try {
+                        String l;
+                        while ((l = out.readLine()) != null) {
+                            System.out.println("[" + mode + "] " + l);
+                        }
+                    } catch (IOException ignored) {
+                        // server stopped
+                    }
+                }, "drain-" + mode);
+                drain.setDaemon(true);
+                drain.start();
+                return process;
+            }
+        }
+        throw new IOException("Server for mode " + mode + " exited before it was ready");
+    }
+
+    // Clients send their next request as soon as the previous answer is read
+    private static final class Load {
+        private final String base;
+        private final int clients;
+        private final int rows;
+        private final String session;
+        private final LongAdder errors = new LongAdder();
+        // "HTTP 503", "SocketTimeoutException", ... -> count, to tell shed load from failures
+        private final ConcurrentHashMap<String, LongAdder> errorsByKind = new ConcurrentHashMap<>();
+        private volatile LatencyHistogram recording = new LatencyHistogram();
+        private volatile boolean running = true;
+        private LatencyHistogram.Snapshot latency;
+        private long measuredNanos;
+
+        Load(String base, int clients, int rows, String session) {
+            this.base = base;
+            this.clients = clients;
+            this.rows = rows;
+            this.session = session;
+        }
+
+        void run(int warmupSeconds, int seconds) throws InterruptedException {
+            CountDownLatch done = new CountDownLatch(clients);
+            for (int i = 0; i < clients; i++) {
+                Thread client = new Thread(() -> {
+                    try {
+                        while (running) {
+                            request();
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }, "client-" + i);
+                client.setDaemon(true);
+                client.start();
+            }
+            Thread.sleep(warmupSeconds * 1000L);
+            errors.reset();
+            errorsByKind.clear();
+            recording = new LatencyHistogram();
+            long start = System.nanoTime();
+            Thread.sleep(seconds * 1000L);
+            LatencyHistogram measured = recording;
+            measuredNanos = System.nanoTime() - start;
+            latency = measured.snapshot();
+            running = false;
+            done.await();
+        }
+
+        String errorKinds() {
+            return errorsByKind.isEmpty() ? "" : new TreeMap<>(errorsByKind).toString();
+        }
+
+        private void error(String kind) {
+            errors.increment();
+            errorsByKind.computeIfAbsent(kind, k -> new LongAdder()).increment();
+        }
+
+        double throughput() {
+            return latency.count() * 1e9 / measuredNanos;
+        }
+
+        // 50% already-analyzed lookups, 20% never-analyzed lookups, 20% tag listings, 10% profile reads
+        private void request() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int pick = random.nextInt(10);
+            String path;
+            if (pick < 5) {
+                path = "/analyze?imageUri=" + encode(BenchDatabase.imageUri(random.nextInt(rows)));
+            } else if (pick < 7) {
+                path = "/analyze?imageUri=" + encode(BenchDatabase.imageUri(rows + random.nextInt(rows)));
+            } else if (pick < 9) {
+                path = "/analyze?tag=conversation&limit=20";
+            } else {
+                path = "/profile";
+            }
+            long start = System.nanoTime();
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(base + path).openConnection();
+                connection.setConnectTimeout(30000);
+                connection.setReadTimeout(60000);
+                if (pick == 9) {
+                    // The seeded analyses have no owner: only the profile read carries the session token
+                    connection.setRequestProperty("Authorization", "Bearer " + session);
+                }
+                int status = connection.getResponseCode();
+                InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+                if (body != null) {
+                    // Reading to the end lets the connection go back to the keep-alive pool
+                    byte[] buffer = new byte[8192];
+                    while (body.read(buffer) != -1) {
+                        // discard
+                    }
+                    body.close();
+                }
+                if (status != HttpURLConnection.HTTP_OK) {
+                    error("HTTP " + status);
+                }
+            } catch (IOException e) {
+                error(e.getClass().getSimpleName());
+            }
+            recording.recordNanos(System.nanoTime() - start);
+        }
+
+        private static String encode(String value) {
+            try {
+                return URLEncoder.encode(value, "UTF-8");
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package Bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Security.SessionTokens;
+
+// What SessionTokenFilter adds to every per-user request (verify), and what a login spends on its token (issue)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionTokenBenchmark {
+
+    private SessionTokens tokens;
+    private String token;
+    private String forged;
+
+    @Setup
+    public void setUp() {
+        tokens = new SessionTokens("benchmark-secret-benchmark-secret".getBytes(StandardCharsets.UTF_8), null, 3600);
+        token = tokens.issue(42L).token;
+        forged = token.substring(0, token.length() - 2) + (token.endsWith("A") ? "BB" : "AA");
+    }
+
+    @Benchmark
+    public String issue() {
+        return tokens.issue(42L).token;
+    }
+
+    @Benchmark
+    public Long verify() {
+        return tokens.verify(token);
+    }
+
+    @Benchmark
+    public Long verifyForged() {
+        return tokens.verify(forged);
+    }
+}
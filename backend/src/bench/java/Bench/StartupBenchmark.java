@@ -0,0 +1,185 @@
+package Bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import Config.DatabaseConfig;
+import Config.SchemaMigration;
+
+// Cold start of the real ServerMain, every start in a fresh JVM against one seeded H2 file database:
+//   mvn -Pbench package exec:exec -Dbench.main=Bench.StartupBenchmark -Dbench.args="runs=5 rows=50000"
+// Arguments (key=value): modes=classic,fast runs=5 rows=20000 jvmArgs=... (for the servers, space separated)
+// cds=target/backend.jsa adds a run of each mode on the class-data-sharing archive made by mvn -Pcds
+// package, from target/backend.jar. Reports, per mode, the time from launching the JVM until the port
+// answers /health/live and until /health/ready answers 200.
+public class StartupBenchmark {
+
+    private static final int PORT = 18480;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put("modes", "classic,fast");
+        options.put("runs", "5");
+        options.put("rows", "20000");
+        options.put("jvmArgs", "");
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        int runs = Integer.parseInt(options.get("runs"));
+        int rows = Integer.parseInt(options.get("rows"));
+
+        Path dir = Files.createTempDirectory("blinko-startup");
+        String url = "jdbc:h2:file:" + dir.resolve("db") + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE";
+        System.out.println("Seeding " + rows + " analyses in " + dir + "...");
+        Properties database = new Properties();
+        database.setProperty("db.url", url);
+        database.setProperty("hibernate.hbm2ddl.auto", "create");
+        BenchDatabase.start("startup", database);
+        BenchDatabase.seedAnalyses(rows);
+        // Migrated as a deploy would, so that fast starts find their schema version
+        SchemaMigration.record(DatabaseConfig.getSessionFactory());
+        BenchDatabase.stop();
+
+        List<String> variants = new ArrayList<>();
+        for (String mode : options.get("modes").split(",")) {
+            variants.add(mode.trim());
+            if (options.containsKey("cds")) {
+                variants.add(mode.trim() + "+cds");
+            }
+        }
+
+        List<String> report = new ArrayList<>();
+        for (String variant : variants) {
+            long[] live = new long[runs];
+            long[] ready = new long[runs];
+            for (int run = 0; run < runs; run++) {
+                long[] times = start(variant, url, dir, options);
+                live[run] = times[0];
+                ready[run] = times[1];
+                System.out.println(variant + " run " + (run + 1) + ": live " + times[0] + " ms, ready " + times[1] + " ms");
+            }
+            report.add(String.format("%-12s live  median %6d ms  min %6d ms   ready  median %6d ms  min %6d ms",
+                    variant, median(live), min(live), median(ready), min(ready)));
+        }
+        System.out.println();
+        System.out.println(rows + " analyses, " + runs + " starts each");
+        for (String line : report) {
+            System.out.println(line);
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    // {ms until /health/live answers, ms until /health/ready answers 200}
+    private static long[] start(String variant, String url, Path dir, Map<String, String> options)
+            throws IOException, InterruptedException {
+        boolean cds = variant.endsWith("+cds");
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        if (cds) {
+            command.add("-XX:SharedArchiveFile=" + options.get("cds"));
+        }
+        for (String arg : options.get("jvmArgs").trim().split("\\s+")) {
+            if (!arg.isEmpty()) {
+                command.add(arg);
+            }
+        }
+        command.add("-Dstartup.mode=" + variant.replace("+cds", ""));
+        command.add("-Ddb.url=" + url);
+        command.add("-Ddb.driver=org.h2.Driver");
+        command.add("-Ddb.user=sa");
+        command.add("-Ddb.password=");
+        command.add("-Dhibernate.dialect=org.hibernate.dialect.H2Dialect");
+        // Every start should find the database as the previous one left it
+        command.add("-Dtags.backfill.enabled=false");
+        command.add("-Dserver.port=" + PORT);
+        command.add("-Dserver.baseDir=" + dir.resolve("tomcat"));
+        command.add("-cp");
+        // The archive only covers classes from the jars it was made with; H2 is appended after them
+        command.add(cds ? new File(options.get("cds")).getParentFile() + File.separator + "backend.jar"
+                + File.pathSeparator + h2Jar() : System.getProperty("java.class.path"));
+        command.add("ServerMain");
+
+        long launched = System.nanoTime();
+        Process server = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(dir.resolve("server.log").toFile())
+                .start();
+        try {
+            long live = -1;
+            while (true) {
+                if (!server.isAlive()) {
+                    throw new IOException(variant + " server exited, see " + dir.resolve("server.log"));
+                }
+                int status = status("/health/" + (live < 0 ? "live" : "ready"));
+                if (live < 0 && status == 200) {
+                    live = (System.nanoTime() - launched) / 1_000_000;
+                } else if (live >= 0 && status == 200) {
+                    return new long[] {live, (System.nanoTime() - launched) / 1_000_000};
+                } else {
+                    Thread.sleep(5);
+                }
+            }
+        } finally {
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    private static int status(String path) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + PORT + path).openConnection();
+            connection.setConnectTimeout(1000);
+            connection.setReadTimeout(5000);
+            int status = connection.getResponseCode();
+            InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (body != null) {
+                body.close();
+            }
+            return status;
+        } catch (IOException e) {
+            // Not listening yet
+            return -1;
+        }
+    }
+
+    private static String h2Jar() {
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (new File(entry).getName().startsWith("h2-")) {
+                return entry;
+            }
+        }
+        throw new IllegalStateException("H2 is not on the class path");
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static long min(long[] values) {
+        long min = Long.MAX_VALUE;
+        for (long value : values) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+}
@@ -0,0 +1,92 @@
+package Bench;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Index.TagIndex;
+
+// The tag=, tags=&match=any|all and prefix= listings served from the in-memory tag index,
+// plus parsing of a stored tags column
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class TagMatchBenchmark {
+
+    // Ordered from common to rare; each analysis draws its tags with a skew towards the front
+    private static final String[] TAGS = {"screenshot", "text", "conversation", "message", "phone", "photo",
+            "person", "receipt", "ticket", "map", "recipe", "email", "chart", "invoice", "flight", "menu",
+            "restaurant", "game", "meme", "cat", "dog", "beach", "sunset", "code", "terminal", "error",
+            "calendar", "meeting", "shopping", "boarding pass", "médecin", "rendez-vous", "santé", "écran"};
+
+    @Param({"100000"})
+    public int analyses;
+
+    private TagIndex index;
+    private final List<String> commonPair = Arrays.asList("conversation", "message");
+    private final List<String> rarePair = Arrays.asList("screenshot", "santé");
+    private final List<String> anyThree = Arrays.asList("cat", "dog", "meme");
+    private final String tagsColumn = "Capture d'écran,Conversation, rendez-vous ,Médecin,santé";
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        index = new TagIndex();
+        StringBuilder tags = new StringBuilder();
+        for (int i = 0; i < analyses; i++) {
+            tags.setLength(0);
+            int count = 2 + random.nextInt(5);
+            for (int t = 0; t < count; t++) {
+                double skew = random.nextDouble();
+                tags.append(t == 0 ? "" : ",").append(TAGS[(int) (skew * skew * TAGS.length)]);
+            }
+            index.add(i + 1, 1700000000000L + i, null, tags.toString());
+        }
+    }
+
+    @Benchmark
+    public int exact() {
+        return index.exact("conversation").size();
+    }
+
+    @Benchmark
+    public int allCommon() {
+        return index.all(commonPair).size();
+    }
+
+    @Benchmark
+    public int allRare() {
+        return index.all(rarePair).size();
+    }
+
+    @Benchmark
+    public int any() {
+        return index.any(anyThree).size();
+    }
+
+    @Benchmark
+    public int prefix() {
+        return index.prefix("me").size();
+    }
+
+    @Benchmark
+    public List<String> tokens() {
+        return TagIndex.tokens(tagsColumn);
+    }
+}
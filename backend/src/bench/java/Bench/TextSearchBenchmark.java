@@ -0,0 +1,85 @@
+package Bench;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Index.TextIndex;
+
+// Ranked search latency on synthetic bilingual captions at 100k and 1M analyses
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class TextSearchBenchmark {
+
+    private static final String[] EN = {"screenshot", "conversation", "message", "phone", "screen", "text",
+            "receipt", "ticket", "map", "recipe", "email", "photo", "person", "sitting", "table", "computer",
+            "chart", "invoice", "flight", "boarding", "pass", "menu", "restaurant", "game", "score", "meme",
+            "cat", "dog", "beach", "sunset", "code", "terminal", "error", "calendar", "meeting", "shopping"};
+    private static final String[] FR = {"capture", "écran", "conversation", "message", "téléphone", "texte",
+            "reçu", "billet", "carte", "recette", "courriel", "photo", "personne", "assise", "table", "ordinateur",
+            "graphique", "facture", "vol", "embarquement", "menu", "restaurant", "jeu", "chat", "chien", "plage",
+            "coucher", "soleil", "code", "terminal", "erreur", "calendrier", "réunion", "achats"};
+
+    @Param({"100000", "1000000"})
+    public int documents;
+
+    private TextIndex index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        index = new TextIndex();
+        for (int i = 0; i < documents; i++) {
+            index.add(i + 1, caption(random, FR, "une ", "d'une "), caption(random, EN, "a ", "of a "),
+                    FR[skewed(random, FR.length)] + "," + FR[skewed(random, FR.length)],
+                    EN[skewed(random, EN.length)] + "," + EN[skewed(random, EN.length)]);
+        }
+    }
+
+    private static String caption(Random random, String[] words, String article, String linker) {
+        StringBuilder sb = new StringBuilder(article);
+        int length = 6 + random.nextInt(10);
+        for (int w = 0; w < length; w++) {
+            sb.append(w % 3 == 2 ? linker : " ").append(words[skewed(random, words.length)]);
+        }
+        return sb.toString();
+    }
+
+    // Popular words much more often than rare ones, like real captions
+    private static int skewed(Random random, int bound) {
+        double u = random.nextDouble();
+        return (int) (bound * u * u * u);
+    }
+
+    @Benchmark
+    public List<TextIndex.Hit> commonTerm() {
+        return index.search("screenshot", 20, null);
+    }
+
+    @Benchmark
+    public List<TextIndex.Hit> rareTerm() {
+        return index.search("achats", 20, null);
+    }
+
+    @Benchmark
+    public List<TextIndex.Hit> bilingualPhrase() {
+        return index.search("réunion calendrier meeting", 20, null);
+    }
+}
@@ -0,0 +1,97 @@
+package Admission;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import Config.Settings;
+
+// Who gets in (admission.* settings): per client address and endpoint group a token bucket, then a global,
+// latency-driven cap on requests in progress. See AdmissionFilter for where it sits.
+public class AdmissionControl {
+
+    // Endpoints sharing one bucket per client
+    public enum Group {
+        // /login, /google-login and /register: each costs a BCrypt hash
+        LOGIN("login"),
+        // /analyze and everything under it
+        ANALYZE("analyze"),
+        PROFILE("profile");
+
+        public final String name;
+
+        Group(String name) {
+            this.name = name;
+        }
+    }
+
+    private static volatile AdmissionControl instance;
+
+    private final RateLimitSketch[] buckets = new RateLimitSketch[Group.values().length];
+    private final LongAdder[] rateLimited = new LongAdder[Group.values().length];
+    private final ConcurrencyLimit concurrency;
+    private final String clientIpHeader;
+
+    public AdmissionControl(Settings settings) {
+        int width = settings.getInt("admission.sketchWidth", 16384);
+        for (Group group : Group.values()) {
+            String prefix = "admission." + group.name + ".";
+            buckets[group.ordinal()] = new RateLimitSketch(
+                    Double.parseDouble(settings.get(prefix + "ratePerSecond", "10")),
+                    settings.getInt(prefix + "burst", 20), width);
+            rateLimited[group.ordinal()] = new LongAdder();
+        }
+        concurrency = new ConcurrencyLimit(settings.getInt("admission.concurrency.initial", 50),
+                settings.getInt("admission.concurrency.min", 8),
+                settings.getInt("admission.concurrency.max", 400),
+                Double.parseDouble(settings.get("admission.concurrency.tolerance", "2.0")));
+        clientIpHeader = settings.get("admission.clientIpHeader", "");
+    }
+
+    public static AdmissionControl get() {
+        AdmissionControl control = instance;
+        if (control == null) {
+            synchronized (AdmissionControl.class) {
+                if (instance == null) {
+                    instance = new AdmissionControl(Settings.get());
+                }
+                control = instance;
+            }
+        }
+        return control;
+    }
+
+    // Null unless admission control is in use
+    public static AdmissionControl getIfStarted() {
+        return instance;
+    }
+
+    // As RateLimitSketch.acquire: the thousandths of its burst the client has used, or minus the nanoseconds
+    // until it may send another request to the group
+    public long rateLimit(Group group, String client) {
+        long used = buckets[group.ordinal()].acquire(client);
+        if (used < 0) {
+            rateLimited[group.ordinal()].increment();
+        }
+        return used;
+    }
+
+    public ConcurrencyLimit concurrency() {
+        return concurrency;
+    }
+
+    // Empty: the address of the connection
+    public String getClientIpHeader() {
+        return clientIpHeader;
+    }
+
+    public long getRateLimited(Group group) {
+        return rateLimited[group.ordinal()].sum();
+    }
+
+    public long getSketchBytes() {
+        long bytes = 0;
+        for (RateLimitSketch sketch : buckets) {
+            bytes += sketch.sizeBytes();
+        }
+        return bytes;
+    }
+}
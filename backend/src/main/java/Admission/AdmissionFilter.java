@@ -0,0 +1,148 @@
+package Admission;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletMapping;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import Config.Warmup;
+import Servlets.Json;
+
+// In front of the API endpoints, before any session token check or database work:
+// - a client over its rate for the endpoint group gets 429 with Retry-After (one looping client, or a
+//   credential-stuffing burst on /login, only slows itself down)
+// - past the concurrency limit the server answers 503 with Retry-After: 1 at once, instead of letting requests
+//   wait in a queue until their latency is gone anyway. Clients that have used less than half of their
+//   burst may go half as far again past the limit, so the heavy ones are turned away first.
+// Requests that go async hold their place until their AsyncContext completes. CORS preflights and warm-up
+// requests pass untouched.
+public class AdmissionFilter implements Filter {
+
+    private final AdmissionControl control;
+
+    public AdmissionFilter(AdmissionControl control) {
+        this.control = control;
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) res;
+        if ("OPTIONS".equals(request.getMethod()) || Warmup.handles(req)) {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        AdmissionControl.Group group = group(request.getServletPath());
+        long used = control.rateLimit(group, client(request));
+        if (used < 0) {
+            refuse(response, group, 429, Math.max(1, TimeUnit.NANOSECONDS.toSeconds(-used + 999_999_999L)),
+                    "Too many requests, please slow down");
+            return;
+        }
+        ConcurrencyLimit limit = control.concurrency();
+        if (!limit.tryAcquire(used < 500)) {
+            refuse(response, group, HttpServletResponse.SC_SERVICE_UNAVAILABLE, 1, "Server busy, please retry");
+            return;
+        }
+
+        long start = System.nanoTime();
+        String endpoint = endpoint(request);
+        boolean async = false;
+        try {
+            chain.doFilter(req, res);
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new Completion(limit, endpoint, start), req, res);
+                async = true;
+            }
+        } finally {
+            if (!async) {
+                limit.release(endpoint, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static AdmissionControl.Group group(String servletPath) {
+        switch (servletPath) {
+            case "/login":
+            case "/google-login":
+            case "/register":
+                return AdmissionControl.Group.LOGIN;
+            case "/profile":
+                return AdmissionControl.Group.PROFILE;
+            default:
+                return AdmissionControl.Group.ANALYZE;
+        }
+    }
+
+    // Behind a proxy, its last entry in the configured header: the address the proxy itself saw
+    private String client(HttpServletRequest request) {
+        String header = control.getClientIpHeader();
+        String forwarded = header.isEmpty() ? null : request.getHeader(header);
+        if (forwarded == null || forwarded.trim().isEmpty()) {
+            return request.getRemoteAddr();
+        }
+        return forwarded.substring(forwarded.lastIndexOf(',') + 1).trim();
+    }
+
+    private static String endpoint(HttpServletRequest request) {
+        HttpServletMapping mapping = request.getHttpServletMapping();
+        String pattern = mapping == null ? null : mapping.getPattern();
+        return (pattern == null || pattern.isEmpty() ? "unmatched" : pattern) + " " + request.getMethod();
+    }
+
+    // In the failure shape of the endpoint: {"error"} for the analysis endpoints, {"success", "message"} for
+    // the account ones
+    private static void refuse(HttpServletResponse response, AdmissionControl.Group group, int status,
+                               long retryAfterSeconds, String message) throws IOException {
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setHeader("Retry-After", Long.toString(retryAfterSeconds));
+        if (group == AdmissionControl.Group.ANALYZE) {
+            Json.error(response, status, message);
+        } else {
+            Json.failure(response, status, message);
+        }
+    }
+
+    private static final class Completion implements AsyncListener {
+        private final ConcurrencyLimit limit;
+        private final String endpoint;
+        private final long start;
+
+        Completion(ConcurrencyLimit limit, String endpoint, long start) {
+            this.limit = limit;
+            this.endpoint = endpoint;
+            this.start = start;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            limit.release(endpoint, System.nanoTime() - start);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            // onComplete follows once the container has answered
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            // onComplete follows
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this, event.getSuppliedRequest(), event.getSuppliedResponse());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package Admission;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleUnaryOperator;
+
+// A cap on requests in progress that follows latency, so that overload is turned away at the door instead
+// of queueing in front of the worker threads, the BCrypt pool and the connection pool. Every completed
+// request is compared with the usual time of its endpoint (a slow moving average per endpoint, which
+// evens out the mix of cheap and expensive calls); a fast moving average of that ratio says how much
+// slower than usual the server is right now. Within tolerance times usual the limit grows by about its
+// square root per request while at least half of it is in use; beyond, it shrinks in proportion. Samples
+// feed an endpoint's usual time at most at twice its value, so sustained overload cannot quickly become the
+// new usual. Lock-free: the numbers are CAS-updated doubles.
+public class ConcurrencyLimit {
+
+    // Weight of each new sample in the usual time per endpoint, and in the current slowdown
+    private static final double BASELINE_WEIGHT = 0.002;
+    private static final double SLOWDOWN_WEIGHT = 0.05;
+    private static final double LIMIT_SMOOTHING = 0.1;
+
+    private final int min;
+    private final int max;
+    private final double tolerance;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong limit;
+    private final AtomicLong slowdown = new AtomicLong(Double.doubleToRawLongBits(1.0));
+    // endpoint -> usual nanoseconds; endpoints are servlet mappings, so the map stays small
+    private final ConcurrentHashMap<String, AtomicLong> baselines = new ConcurrentHashMap<>();
+    private final LongAdder rejected = new LongAdder();
+
+    public ConcurrencyLimit(int initial, int min, int max, double tolerance) {
+        this.min = Math.max(1, min);
+        this.max = Math.max(this.min, max);
+        this.tolerance = tolerance;
+        this.limit = new AtomicLong(Double.doubleToRawLongBits(Math.max(this.min, Math.min(this.max, initial))));
+    }
+
+    // True when the request may go ahead; it must then be released exactly once. Priority requests may go
+    // half as far again past the limit.
+    public boolean tryAcquire(boolean priority) {
+        int cap = priority ? getLimit() * 3 / 2 : getLimit();
+        while (true) {
+            int current = inFlight.get();
+            if (current >= cap) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release(String endpoint, long nanos) {
+        int busy = inFlight.getAndDecrement();
+        AtomicLong baseline = baselines.get(endpoint);
+        if (baseline == null) {
+            baseline = baselines.computeIfAbsent(endpoint, e -> new AtomicLong(Double.doubleToRawLongBits(nanos)));
+        }
+        double usual = Math.max(1.0, Double.longBitsToDouble(baseline.get()));
+        update(baseline, b -> b + BASELINE_WEIGHT * (Math.min(nanos, 2 * b) - b));
+        double ratio = nanos / usual;
+        double now = update(slowdown, s -> s + SLOWDOWN_WEIGHT * (ratio - s));
+
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance / now));
+        update(limit, l -> {
+            if (gradient >= 1.0 && busy < l / 2) {
+                // Not using the limit: no evidence that more would be fine
+                return l;
+            }
+            double target = l * gradient + (gradient >= 1.0 ? Math.sqrt(l) : 0);
+            return Math.max(min, Math.min(max, l + LIMIT_SMOOTHING * (target - l)));
+        });
+    }
+
+    private static double update(AtomicLong bits, DoubleUnaryOperator f) {
+        while (true) {
+            long current = bits.get();
+            double next = f.applyAsDouble(Double.longBitsToDouble(current));
+            if (bits.compareAndSet(current, Double.doubleToRawLongBits(next))) {
+                return next;
+            }
+        }
+    }
+
+    public int getLimit() {
+        return (int) Double.longBitsToDouble(limit.get());
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    // Current latency relative to usual, smoothed; 1 is usual
+    public double getSlowdown() {
+        return Double.longBitsToDouble(slowdown.get());
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,81 @@
+package Admission;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Token buckets for any number of clients in fixed memory: ROWS rows of width slots, each slot one bucket
+// kept as a GCRA "theoretical arrival time" (when the bucket will be full again, in nanoseconds), updated
+// with a single compare-and-set. A client hashes to one slot per row with a per-process seed, so clients
+// cannot pick their neighbours. Like a count-min sketch, a client is only limited when every one of its
+// slots is empty: sharing a slot with a busy client costs nothing unless the other slot is shared too.
+// Buckets expire by themselves: a slot nobody used for burst / rate seconds is full again.
+public class RateLimitSketch {
+
+    private static final int ROWS = 2;
+
+    private final AtomicLongArray slots;
+    private final int width;
+    private final long seed = ThreadLocalRandom.current().nextLong();
+    private final long origin = System.nanoTime();
+    // Nanoseconds per token, and how far ahead of schedule a bucket may run (burst - 1 tokens)
+    private final long interval;
+    private final long tolerance;
+
+    public RateLimitSketch(double ratePerSecond, int burst, int width) {
+        int slotsPerRow = 64;
+        while (slotsPerRow < width) {
+            slotsPerRow <<= 1;
+        }
+        this.width = slotsPerRow;
+        this.slots = new AtomicLongArray(ROWS * this.width);
+        this.interval = Math.max(1, (long) (1e9 / ratePerSecond));
+        this.tolerance = interval * (Math.max(1, burst) - 1);
+    }
+
+    // Takes a token for the client. When there was one: how much of its burst the client has used now, in
+    // thousandths (0 to 1000). When there was none: minus the nanoseconds until there will be.
+    public long acquire(String client) {
+        long hash = hash(client);
+        long now = System.nanoTime() - origin;
+        long wait = Long.MAX_VALUE;
+        long used = Long.MAX_VALUE;
+        for (int row = 0; row < ROWS; row++) {
+            int index = row * width + (int) (mix(hash + row * 0x9E3779B97F4A7C15L) & (width - 1));
+            while (true) {
+                long full = slots.get(index);
+                long start = Math.max(full, now);
+                long ahead = start - now;
+                if (ahead > tolerance) {
+                    wait = Math.min(wait, ahead - tolerance);
+                    break;
+                }
+                // Only the rows that had a token pay for it
+                if (slots.compareAndSet(index, full, start + interval)) {
+                    used = Math.min(used, Math.min(1000, (ahead + interval) * 1000 / (tolerance + interval)));
+                    break;
+                }
+            }
+        }
+        return used != Long.MAX_VALUE ? used : -wait;
+    }
+
+    public int sizeBytes() {
+        return slots.length() * 8;
+    }
+
+    // FNV-1a over the characters, seeded
+    private long hash(String client) {
+        long h = 0xcbf29ce484222325L ^ seed;
+        for (int i = 0; i < client.length(); i++) {
+            h = (h ^ client.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // MurmurHash3 finalizer
+    private static long mix(long h) {
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+}
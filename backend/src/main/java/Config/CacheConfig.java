@@ -0,0 +1,85 @@
+package Config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+
+// Hibernate second-level cache on in-process Caffeine caches, one per region.
+// Each region is bounded by cache.<region>.maxEntries and cache.<region>.ttlSeconds; regions are created
+// up front and Hibernate is told to fail on any other, so an unconfigured (unbounded) cache cannot sneak in.
+public final class CacheConfig {
+
+    // Region names used by the @Cache / @NaturalIdCache annotations on the entities
+    public static final String USERS = "users";
+    public static final String USER_EMAILS = "userEmails";
+    public static final String PROFILES = "profiles";
+    public static final String PROFILE_USERS = "profileUsers";
+    public static final String ANALYSES = "analyses";
+    public static final String ANALYSIS_URIS = "analysisUris";
+    public static final String QUERIES = "default-query-results-region";
+    // Last write time per table, which query results are checked against; must never be evicted
+    public static final String TIMESTAMPS = "default-update-timestamps-region";
+
+    private static final String PROVIDER = "com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider";
+
+    private CacheConfig() {}
+
+    // Settings key for each region, so the query region can be tuned as cache.queries.*
+    public static Map<String, String> regions() {
+        Map<String, String> regions = new LinkedHashMap<>();
+        regions.put(USERS, "cache.users");
+        regions.put(USER_EMAILS, "cache.userEmails");
+        regions.put(PROFILES, "cache.profiles");
+        regions.put(PROFILE_USERS, "cache.profileUsers");
+        regions.put(ANALYSES, "cache.analyses");
+        regions.put(ANALYSIS_URIS, "cache.analysisUris");
+        regions.put(QUERIES, "cache.queries");
+        return regions;
+    }
+
+    // Creates the regions and points Hibernate at them; returns null when cache.enabled=false
+    static CacheManager apply(Configuration config, Settings settings) {
+        if (!settings.getBoolean("cache.enabled", true)) {
+            config.setProperty(AvailableSettings.USE_SECOND_LEVEL_CACHE, "false");
+            config.setProperty(AvailableSettings.USE_QUERY_CACHE, "false");
+            return null;
+        }
+
+        CacheManager manager = Caching.getCachingProvider(PROVIDER).getCacheManager();
+        for (Map.Entry<String, String> region : regions().entrySet()) {
+            String key = region.getValue();
+            create(manager, region.getKey(),
+                    OptionalLong.of(settings.getLong(key + ".maxEntries", 10000)),
+                    OptionalLong.of(TimeUnit.SECONDS.toNanos(settings.getLong(key + ".ttlSeconds", 3600))));
+        }
+        create(manager, TIMESTAMPS, OptionalLong.empty(), OptionalLong.empty());
+
+        config.setProperty(AvailableSettings.USE_SECOND_LEVEL_CACHE, "true");
+        config.setProperty(AvailableSettings.USE_QUERY_CACHE, "true");
+        config.setProperty(AvailableSettings.CACHE_REGION_FACTORY, "jcache");
+        config.setProperty("hibernate.javax.cache.missing_cache_strategy", "fail");
+        config.getProperties().put("hibernate.javax.cache.cache_manager", manager);
+        return manager;
+    }
+
+    private static void create(CacheManager manager, String name, OptionalLong maxEntries, OptionalLong ttlNanos) {
+        // DatabaseConfig may be initialized again in the same JVM (benchmarks); start from empty regions
+        if (manager.getCache(name) != null) {
+            manager.destroyCache(name);
+        }
+        CaffeineConfiguration<Object, Object> region = new CaffeineConfiguration<>();
+        region.setMaximumSize(maxEntries);
+        region.setExpireAfterWrite(ttlNanos);
+        region.setStoreByValue(false);
+        manager.createCache(name, region);
+    }
+}
@@ -1,47 +1,128 @@
 package Config;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Properties;
+
+import javax.cache.CacheManager;
 
 import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AvailableSettings;
 import org.hibernate.cfg.Configuration;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import Metrics.CacheMetrics;
+import Metrics.PoolMetrics;
+
 public class DatabaseConfig {
     private static SessionFactory sessionFactory;
-    
+    private static HikariDataSource dataSource;
+    private static PoolMetrics poolMetrics;
+    private static CacheManager cacheManager;
+    private static CacheMetrics cacheMetrics;
+
     public static void initialize() {
+        initialize(new Properties());
+    }
+
+    // Overrides are applied last, so benchmarks and tools can point Hibernate at another database
+    public static void initialize(Properties overrides) {
+        Settings settings = Settings.get().with(overrides);
+        poolMetrics = new PoolMetrics();
+        dataSource = createDataSource(settings, poolMetrics);
+        poolMetrics.registerMBean();
+
         Configuration config = new Configuration();
-        config.setProperty("hibernate.connection.driver_class", "org.postgresql.Driver");
-        config.setProperty("hibernate.connection.url", "jdbc:postgresql://localhost:5432/blinkodb");
-        config.setProperty("hibernate.connection.username", "blinkouser");
-        config.setProperty("hibernate.connection.password", "yourpassword");
-        config.setProperty("hibernate.dialect", "org.hibernate.dialect.PostgreSQLDialect");
-        config.setProperty("hibernate.hbm2ddl.auto", "update"); 
-        
+        config.addProperties(settings.withPrefix("hibernate.", true));
+        // Hibernate uses the pool instead of its built-in, non-production connection handling
+        config.getProperties().put(AvailableSettings.JAKARTA_NON_JTA_DATASOURCE, dataSource);
+        // Pad IN lists to powers of two so batched lookups reuse a handful of query plans
+        config.setProperty("hibernate.query.in_clause_parameter_padding", "true");
+        // Bounded in-process second-level cache; regions and limits come from the cache.* settings
+        cacheManager = CacheConfig.apply(config, settings);
+
         // Add all entity classes
         config.addAnnotatedClass(Entity.User.class);
         config.addAnnotatedClass(Entity.ScreenshotAnalysis.class);
         config.addAnnotatedClass(Entity.Profile.class);
+        config.addAnnotatedClass(Entity.Tag.class);
+        config.addAnnotatedClass(Entity.AnalysisTag.class);
+        config.addAnnotatedClass(Entity.BackfillProgress.class);
+
 
 
-        
         sessionFactory = config.buildSessionFactory();
+        cacheMetrics = new CacheMetrics(sessionFactory, cacheManager);
+        cacheMetrics.registerMBean();
+    }
+
+    private static HikariDataSource createDataSource(Settings settings, PoolMetrics metrics) {
+        HikariConfig pool = new HikariConfig();
+        pool.setPoolName("blinko");
+        pool.setJdbcUrl(settings.get("db.url", null));
+        pool.setUsername(settings.get("db.user", null));
+        pool.setPassword(settings.get("db.password", null));
+        pool.setDriverClassName(settings.get("db.driver", null));
+        pool.setMinimumIdle(settings.getInt("db.pool.minIdle", 2));
+        pool.setMaximumPoolSize(settings.getInt("db.pool.maxSize", 10));
+        pool.setConnectionTimeout(settings.getLong("db.pool.acquireTimeoutMs", 5000));
+        pool.setIdleTimeout(settings.getLong("db.pool.idleTimeoutMs", 300000));
+        pool.setMaxLifetime(settings.getLong("db.pool.maxLifetimeMs", 1800000));
+        pool.setLeakDetectionThreshold(settings.getLong("db.pool.leakDetectionMs", 0));
+        pool.setRegisterMbeans(true);
+        pool.setMetricsTrackerFactory(metrics);
+
+        // Statement caching lives in the PostgreSQL driver; other drivers reject these properties
+        if (pool.getJdbcUrl() != null && pool.getJdbcUrl().startsWith("jdbc:postgresql:")) {
+            Properties pg = settings.withPrefix("db.pg.", false);
+            for (String key : pg.stringPropertyNames()) {
+                pool.addDataSourceProperty(key, pg.getProperty(key));
+            }
+        }
+        return new HikariDataSource(pool);
     }
-    
+
     public static SessionFactory getSessionFactory() {
         return sessionFactory;
     }
+
+    public static HikariDataSource getDataSource() {
+        return dataSource;
+    }
+
+    public static PoolMetrics getPoolMetrics() {
+        return poolMetrics;
+    }
+
+    public static CacheMetrics getCacheMetrics() {
+        return cacheMetrics;
+    }
+
+    public static void shutdown() {
+        if (sessionFactory != null) {
+            sessionFactory.close();
+        }
+        if (cacheManager != null) {
+            cacheManager.close();
+        }
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    // Borrows from the pool, so a successful check also proves the pool is healthy
     public static void testConnection() {
-    try (Connection conn = DriverManager.getConnection(
-        "jdbc:postgresql://localhost:5432/blinkodb", 
-        "blinkouser", 
-        "yourpassword")) {
+    try (Connection conn = dataSource.getConnection()) {
+        if (!conn.isValid(2)) {
+            throw new SQLException("Connection is not valid");
+        }
         System.out.println("✅ Database connection successful!");
     } catch (SQLException e) {
         System.err.println("❌ Database connection failed:");
         e.printStackTrace();
     }
 }
-    
-}
\ No newline at end of file
+
+}
@@ -0,0 +1,30 @@
+package Config;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import Servlets.Json;
+
+// With startup.mode=fast the port opens before the database side is up: until Startup is ready, the
+// endpoints that need it answer 503 with Retry-After instead of failing or answering from empty indexes.
+// Warm-up requests (Warmup) come in on their own loopback connector and pass.
+public class ReadinessFilter implements Filter {
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+        if (Startup.isReady() || Warmup.handles(req)) {
+            chain.doFilter(req, res);
+            return;
+        }
+        HttpServletResponse response = (HttpServletResponse) res;
+        response.setHeader("Retry-After", "1");
+        Json.failure(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Server starting, please retry");
+    }
+}
@@ -0,0 +1,117 @@
+package Config;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+// Schema changes as a deploy step, so that a server started with startup.mode=fast does no schema work:
+//   java -cp <backend classpath> Config.SchemaMigration
+// brings the tables and indexes in line with the entity mappings (hibernate.hbm2ddl.auto=update, as a
+// classic start does), makes the changes update cannot make (upgrade()) and records VERSION in
+// schema_version. A fast start only reads that one row.
+public final class SchemaMigration {
+
+    // Bump whenever an entity mapping changes: tables, columns or indexes
+    public static final int VERSION = 3;
+
+    private SchemaMigration() {
+    }
+
+    public static void main(String[] args) {
+        Properties overrides = new Properties();
+        overrides.setProperty("hibernate.hbm2ddl.auto", "update");
+        DatabaseConfig.initialize(overrides);
+        try {
+            upgrade(DatabaseConfig.getSessionFactory());
+            record(DatabaseConfig.getSessionFactory());
+            System.out.println("Schema is at version " + VERSION);
+        } finally {
+            DatabaseConfig.shutdown();
+        }
+    }
+
+    // After hbm2ddl update, which adds tables, columns and indexes but neither fills a new column nor drops
+    // anything. Every step finds nothing left to do once it has run.
+    //  3: analyses are keyed by (owner_key, image_uri) instead of image_uri alone; owner_key is added as 0,
+    //     so owned rows get their owner_id, and the old unique constraint and owner_id indexes go
+    public static void upgrade(SessionFactory sessionFactory) {
+        try (Session session = sessionFactory.openSession()) {
+            session.doWork(connection -> {
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeUpdate("UPDATE screenshot_analysis SET owner_key = owner_id"
+                            + " WHERE owner_id IS NOT NULL AND owner_key <> owner_id");
+                    List<String> imageUriKeys = new ArrayList<>();
+                    try (ResultSet rs = statement.executeQuery("SELECT tc.constraint_name"
+                            + " FROM information_schema.table_constraints tc"
+                            + " JOIN information_schema.key_column_usage k ON k.constraint_schema = tc.constraint_schema"
+                            + " AND k.constraint_name = tc.constraint_name"
+                            + " WHERE tc.table_schema = CURRENT_SCHEMA AND tc.table_name = 'screenshot_analysis'"
+                            + " AND tc.constraint_type = 'UNIQUE'"
+                            + " GROUP BY tc.constraint_name HAVING COUNT(*) = 1 AND MAX(k.column_name) = 'image_uri'")) {
+                        while (rs.next()) {
+                            imageUriKeys.add(rs.getString(1));
+                        }
+                    }
+                    for (String name : imageUriKeys) {
+                        statement.executeUpdate("ALTER TABLE screenshot_analysis DROP CONSTRAINT \""
+                                + name.replace("\"", "\"\"") + "\"");
+                    }
+                    statement.executeUpdate("DROP INDEX IF EXISTS idx_analysis_owner_time");
+                    statement.executeUpdate("DROP INDEX IF EXISTS idx_analysis_owner_sync");
+                }
+                if (!connection.getAutoCommit()) {
+                    connection.commit();
+                }
+            });
+        }
+    }
+
+    // Marks the schema as migrated to VERSION
+    public static void record(SessionFactory sessionFactory) {
+        try (Session session = sessionFactory.openSession()) {
+            session.doWork(connection -> {
+                try (Statement create = connection.createStatement()) {
+                    create.executeUpdate("CREATE TABLE IF NOT EXISTS schema_version "
+                            + "(version INTEGER PRIMARY KEY, applied_at BIGINT NOT NULL)");
+                }
+                try (PreparedStatement insert = connection.prepareStatement(
+                        "INSERT INTO schema_version (version, applied_at) VALUES (?, ?) ON CONFLICT DO NOTHING")) {
+                    insert.setInt(1, VERSION);
+                    insert.setLong(2, System.currentTimeMillis());
+                    insert.executeUpdate();
+                }
+                if (!connection.getAutoCommit()) {
+                    connection.commit();
+                }
+            });
+        }
+    }
+
+    // Fails unless the schema has been migrated to at least VERSION. A newer schema is fine: during a
+    // rolling deploy the previous build keeps running against the migrated tables.
+    public static void check(SessionFactory sessionFactory) {
+        int version;
+        try (Session session = sessionFactory.openSession()) {
+            version = session.doReturningWork(connection -> {
+                try (Statement select = connection.createStatement();
+                     ResultSet rs = select.executeQuery("SELECT MAX(version) FROM schema_version")) {
+                    return rs.next() ? rs.getInt(1) : 0;
+                } catch (SQLException e) {
+                    // No schema_version table: never migrated
+                    return 0;
+                }
+            });
+        }
+        if (version < VERSION) {
+            throw new IllegalStateException("Schema is at version " + version + ", this build needs " + VERSION
+                    + ": run Config.SchemaMigration before starting with startup.mode=fast");
+        }
+    }
+}
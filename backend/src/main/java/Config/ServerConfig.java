@@ -0,0 +1,176 @@
+package Config;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.Filter;
+import javax.servlet.http.HttpServlet;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+
+import Admission.AdmissionControl;
+import Admission.AdmissionFilter;
+import Metrics.RequestMetrics;
+import Metrics.RequestMetricsFilter;
+import Security.SessionTokenFilter;
+import Security.SessionTokens;
+
+import Servlets.AsyncDispatchServlet;
+import Servlets.HealthServlet;
+import Servlets.LoginServlet;
+import Servlets.MetricsServlet;
+import Servlets.RegisterServlet;
+import Servlets.ScreenshotAnalysisServlet;
+import Servlets.UserProfileServlet;
+
+// Builds the embedded Tomcat with every servlet mapped, in one of three execution modes (server.threads):
+// - platform: Tomcat's worker pool runs each request start to finish (server.maxThreads workers)
+// - virtual: the connector runs each request on its own virtual thread (Java 21+; refuses to start on older JVMs)
+// - async: workers only accept; servlets run on a separate bounded executor (server.async.*)
+public final class ServerConfig {
+
+    private ServerConfig() {}
+
+    public static Tomcat create(Settings settings) {
+        Tomcat tomcat = new Tomcat();
+        String baseDir = settings.get("server.baseDir", "");
+        if (!baseDir.isEmpty()) {
+            tomcat.setBaseDir(baseDir);
+        }
+        tomcat.setPort(settings.getInt("server.port", 8080));
+        Connector connector = tomcat.getConnector();
+        connector.setProperty("maxConnections", settings.get("server.maxConnections", "8192"));
+        connector.setProperty("acceptCount", settings.get("server.acceptCount", "100"));
+        // Mobile clients reuse one connection for a whole sync instead of reconnecting (and redoing TLS
+        // at the proxy) every few requests
+        connector.setProperty("keepAliveTimeout", settings.get("server.keepAliveTimeoutMs", "60000"));
+        connector.setProperty("maxKeepAliveRequests", settings.get("server.maxKeepAliveRequests", "1000"));
+        // gzip for clients that accept it; bodies below minSize are not worth the CPU
+        connector.setProperty("compression", settings.get("server.compression", "on"));
+        connector.setProperty("compressionMinSize", settings.get("server.compression.minSize", "1024"));
+        connector.setProperty("compressibleMimeType", settings.get("server.compression.mimeTypes",
+                "application/json,application/x-ndjson,text/plain"));
+
+        String mode = settings.get("server.threads", "platform");
+        ThreadPoolExecutor asyncExecutor = null;
+        if ("virtual".equals(mode)) {
+            ExecutorService virtual = newVirtualThreadExecutor();
+            if (virtual == null) {
+                // Not silently another mode: load figures taken in one would be reported as the other's
+                throw new IllegalStateException("server.threads=virtual needs Java 21+, this JVM is "
+                        + System.getProperty("java.version") + ": set server.threads to platform or async");
+            }
+            connector.getProtocolHandler().setExecutor(virtual);
+        } else {
+            connector.setProperty("maxThreads", settings.get("server.maxThreads", "200"));
+        }
+        if ("async".equals(mode)) {
+            asyncExecutor = newRequestExecutor(settings.getInt("server.async.threads", 200),
+                    settings.getInt("server.async.queueSize", 10000));
+        }
+        long asyncTimeoutMs = settings.getLong("server.async.timeoutMs", 30000);
+        System.out.println("Request execution mode: " + mode);
+
+        Context context = tomcat.addContext("", null);
+        // Login and register hand BCrypt work to PasswordHasher and finish asynchronously
+        addServlet(context, "loginServlet", new LoginServlet(), asyncExecutor, asyncTimeoutMs);
+        addServlet(context, "registerServlet", new RegisterServlet(), asyncExecutor, asyncTimeoutMs);
+        addServlet(context, "analyzeServlet", new ScreenshotAnalysisServlet(), asyncExecutor, asyncTimeoutMs);
+        addServlet(context, "profileServlet", new UserProfileServlet(), asyncExecutor, asyncTimeoutMs);
+        boolean metrics = settings.getBoolean("metrics.enabled", true);
+        if (metrics) {
+            // Times every request; see GET /metrics
+            addFilter(context, "requestMetrics", new RequestMetricsFilter(RequestMetrics.get()), "/*");
+            // Not wrapped: a scrape must still be answered when the request executor is saturated
+            Tomcat.addServlet(context, "metricsServlet", new MetricsServlet(connector, asyncExecutor,
+                    settings.getInt("metrics.slowestQueries", 10)));
+        }
+        // Answered from the first moment the port is open, also under load
+        Tomcat.addServlet(context, "healthServlet", new HealthServlet());
+        // 503 until the database side is up (startup.mode=fast starts the two in parallel)
+        addFilter(context, "readiness", new ReadinessFilter(),
+                "/login", "/google-login", "/register", "/analyze", "/analyze/*", "/profile");
+        if (settings.getBoolean("admission.enabled", true)) {
+            // Per-client rate limits, then the adaptive concurrency limit; refused requests still show in
+            // the request metrics, with their 429 or 503
+            addFilter(context, "admission", new AdmissionFilter(AdmissionControl.get()),
+                    "/login", "/google-login", "/register", "/analyze", "/analyze/*", "/profile");
+        }
+
+        // Map servlets to endpoints
+        context.addServletMappingDecoded("/login", "loginServlet");
+        context.addServletMappingDecoded("/google-login", "loginServlet");
+        context.addServletMappingDecoded("/register", "registerServlet");
+        context.addServletMappingDecoded("/analyze", "analyzeServlet");
+        context.addServletMappingDecoded("/analyze/lookup", "analyzeServlet");
+        context.addServletMappingDecoded("/analyze/bulk", "analyzeServlet");
+        context.addServletMappingDecoded("/analyze/tags", "analyzeServlet");
+        context.addServletMappingDecoded("/profile", "profileServlet");
+        if (metrics) {
+            context.addServletMappingDecoded("/metrics", "metricsServlet");
+        }
+        context.addServletMappingDecoded("/health/live", "healthServlet");
+        context.addServletMappingDecoded("/health/ready", "healthServlet");
+
+        // Per-user endpoints: the caller is the user of the bearer token, checked without any lookup.
+        // On the analysis endpoints a token is optional; it makes the caller the owner of what they post,
+        // and every read only sees the caller's analyses (without a token, the ones posted without one).
+        addFilter(context, "sessionTokens", new SessionTokenFilter(SessionTokens.get(), true), "/profile");
+        addFilter(context, "optionalSessionTokens", new SessionTokenFilter(SessionTokens.get(), false),
+                "/analyze", "/analyze/lookup", "/analyze/bulk");
+        return tomcat;
+    }
+
+    // Filters run in the order they are added
+    private static void addFilter(Context context, String name, Filter filter, String... urlPatterns) {
+        FilterDef def = new FilterDef();
+        def.setFilterName(name);
+        def.setFilter(filter);
+        def.setAsyncSupported("true");
+        context.addFilterDef(def);
+        FilterMap map = new FilterMap();
+        map.setFilterName(name);
+        for (String pattern : urlPatterns) {
+            map.addURLPattern(pattern);
+        }
+        context.addFilterMap(map);
+    }
+
+    private static void addServlet(Context context, String name, HttpServlet servlet,
+                                   ExecutorService asyncExecutor, long asyncTimeoutMs) {
+        HttpServlet wrapped = asyncExecutor == null
+                ? servlet
+                : new AsyncDispatchServlet(servlet, asyncExecutor, asyncTimeoutMs);
+        Tomcat.addServlet(context, name, wrapped).setAsyncSupported(true);
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() when running on Java 21+, else null.
+    // Looked up reflectively so the same build still runs on older JVMs.
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadPoolExecutor newRequestExecutor(int threads, int queueSize) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "request-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), factory, new ThreadPoolExecutor.AbortPolicy());
+    }
+}
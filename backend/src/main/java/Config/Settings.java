@@ -0,0 +1,107 @@
+package Config;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Properties;
+
+// Backend settings, later layers winning:
+// blinko.properties on the classpath < file named by BLINKO_CONFIG < BLINKO_* environment variables
+// (db.pool.maxSize -> BLINKO_DB_POOL_MAXSIZE) < -D system properties < explicit overrides
+public class Settings {
+
+    private static volatile Settings current;
+
+    private final Properties values;
+
+    private Settings(Properties values) {
+        this.values = values;
+    }
+
+    public static Settings get() {
+        Settings settings = current;
+        if (settings == null) {
+            synchronized (Settings.class) {
+                if (current == null) {
+                    current = load();
+                }
+                settings = current;
+            }
+        }
+        return settings;
+    }
+
+    private static Settings load() {
+        Properties values = new Properties();
+        try (InputStream in = Settings.class.getClassLoader().getResourceAsStream("blinko.properties")) {
+            if (in != null) {
+                values.load(in);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read blinko.properties", e);
+        }
+
+        String external = System.getenv("BLINKO_CONFIG");
+        if (external != null && !external.isEmpty()) {
+            try (InputStream in = new FileInputStream(external)) {
+                values.load(in);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read " + external, e);
+            }
+        }
+
+        for (String key : values.stringPropertyNames()) {
+            String env = System.getenv(envName(key));
+            if (env != null) {
+                values.setProperty(key, env);
+            }
+            String sys = System.getProperty(key);
+            if (sys != null) {
+                values.setProperty(key, sys);
+            }
+        }
+        return new Settings(values);
+    }
+
+    static String envName(String key) {
+        return "BLINKO_" + key.toUpperCase(Locale.ROOT).replace('.', '_');
+    }
+
+    public Settings with(Properties overrides) {
+        Properties merged = new Properties();
+        merged.putAll(values);
+        merged.putAll(overrides);
+        return new Settings(merged);
+    }
+
+    public String get(String key, String fallback) {
+        return values.getProperty(key, fallback);
+    }
+
+    public int getInt(String key, int fallback) {
+        String value = values.getProperty(key);
+        return value == null || value.trim().isEmpty() ? fallback : Integer.parseInt(value.trim());
+    }
+
+    public long getLong(String key, long fallback) {
+        String value = values.getProperty(key);
+        return value == null || value.trim().isEmpty() ? fallback : Long.parseLong(value.trim());
+    }
+
+    public boolean getBoolean(String key, boolean fallback) {
+        String value = values.getProperty(key);
+        return value == null || value.trim().isEmpty() ? fallback : Boolean.parseBoolean(value.trim());
+    }
+
+    // All keys under a prefix with the prefix stripped, e.g. "hibernate." passthrough settings
+    public Properties withPrefix(String prefix, boolean keepPrefix) {
+        Properties out = new Properties();
+        for (String key : values.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                out.setProperty(keepPrefix ? key : key.substring(prefix.length()), values.getProperty(key));
+            }
+        }
+        return out;
+    }
+}
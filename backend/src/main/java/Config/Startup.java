@@ -0,0 +1,65 @@
+package Config;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Startup phases and readiness. Phases are timed and reported at /metrics; the server is ready once the
+// database side is up and warmed, which GET /health/ready and ReadinessFilter go by.
+public final class Startup {
+
+    public interface Step {
+        void run() throws Exception;
+    }
+
+    private static final Map<String, Long> phaseMillis = new LinkedHashMap<>();
+    private static final Object readyLock = new Object();
+    private static volatile boolean ready;
+    private static volatile long readyMillis = -1;
+
+    private Startup() {
+    }
+
+    public static void phase(String name, Step step) throws Exception {
+        long start = System.nanoTime();
+        step.run();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        synchronized (phaseMillis) {
+            phaseMillis.put(name, millis);
+        }
+        System.out.println("Startup: " + name + " took " + millis + " ms");
+    }
+
+    // Phase name -> duration in milliseconds, in the order they ran
+    public static Map<String, Long> phases() {
+        synchronized (phaseMillis) {
+            return new LinkedHashMap<>(phaseMillis);
+        }
+    }
+
+    public static boolean isReady() {
+        return ready;
+    }
+
+    public static void markReady() {
+        readyMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        synchronized (readyLock) {
+            ready = true;
+            readyLock.notifyAll();
+        }
+        System.out.println("Ready " + readyMillis + " ms after the JVM started");
+    }
+
+    // Milliseconds from JVM start until ready, -1 before
+    public static long readyMillis() {
+        return readyMillis;
+    }
+
+    public static void awaitReady() throws InterruptedException {
+        synchronized (readyLock) {
+            while (!ready) {
+                readyLock.wait();
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.ServletRequest;
+
+import org.apache.catalina.Service;
+import org.apache.catalina.connector.Connector;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+import Servlets.Json;
+
+// startup.warmup.enabled: before the server takes traffic, drives the account and analysis endpoints through
+// the real filters and servlets over a loopback-only connector, so that Jackson, Hibernate's query plans and
+// BCrypt are compiled by the JIT before the first real requests. The requests work on a throwaway user and
+// analyses of their own, deleted again afterwards; the warm-up runs before the in-memory indexes are built,
+// which therefore never see them. Stops after startup.warmup.iterations rounds or startup.warmup.maxMs.
+public final class Warmup {
+
+    // Compression is copied from the public connector so that gzip is warmed as well
+    private static final String[] COPIED_PROPERTIES = {"compression", "compressionMinSize", "compressibleMimeType"};
+
+    private static volatile int port = -1;
+
+    private final String base;
+    private final String nonce;
+    private final String password;
+    private int requests;
+    private int unexpected;
+    private String firstUnexpected;
+
+    private Warmup(int port, String nonce, String password) {
+        this.base = "http://127.0.0.1:" + port;
+        this.nonce = nonce;
+        this.password = password;
+    }
+
+    // A request the warm-up sent: ReadinessFilter lets it through and it is kept out of the request metrics
+    public static boolean handles(ServletRequest request) {
+        return request.getLocalPort() == port;
+    }
+
+    // The service must be started; external is the public connector, whose settings the warm-up one copies
+    public static void run(Service service, Connector external, Settings settings) throws Exception {
+        int iterations = settings.getInt("startup.warmup.iterations", 200);
+        long maxNanos = TimeUnit.MILLISECONDS.toNanos(settings.getLong("startup.warmup.maxMs", 15000));
+
+        Connector loopback = new Connector("HTTP/1.1");
+        loopback.setProperty("address", "127.0.0.1");
+        loopback.setPort(0);
+        for (String name : COPIED_PROPERTIES) {
+            Object value = external.getProperty(name);
+            if (value != null) {
+                loopback.setProperty(name, String.valueOf(value));
+            }
+        }
+        SecureRandom random = new SecureRandom();
+        String nonce = Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+        String password = Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+
+        SessionFactory sessionFactory = DatabaseConfig.getSessionFactory();
+        long start = System.nanoTime();
+        int rounds = 0;
+        service.addConnector(loopback);
+        port = loopback.getLocalPort();
+        Warmup warmup = new Warmup(port, nonce, password);
+        try {
+            if (warmup.register("")) {
+                while (rounds < iterations && System.nanoTime() - start < maxNanos) {
+                    warmup.round(rounds++);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Warm-up stopped: " + e.getMessage());
+        } finally {
+            port = -1;
+            service.removeConnector(loopback);
+            loopback.destroy();
+            cleanUp(sessionFactory, nonce);
+        }
+        System.out.println("Warm-up: " + rounds + " rounds, " + warmup.requests + " requests in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms"
+                + (warmup.unexpected == 0 ? "" : ", " + warmup.unexpected + " unexpected answers, first: "
+                + warmup.firstUnexpected));
+    }
+
+    private boolean register(String suffix) throws IOException {
+        Map<String, Object> user = new LinkedHashMap<>();
+        user.put("username", "warmup-" + nonce + suffix);
+        user.put("password", password);
+        user.put("email", email(suffix));
+        return call("POST", "/register", user, null) != null;
+    }
+
+    // One pass over the hot paths: accounts (BCrypt, natural id and profile queries), single and bulk
+    // writes, reads by imageUri, lookup, tag, prefix and text search, the owner's listing and the delta sync
+    private void round(int i) throws IOException {
+        register("-" + i);
+
+        Map<String, Object> credentials = new LinkedHashMap<>();
+        credentials.put("email", email(""));
+        credentials.put("password", password);
+        String login = call("POST", "/login", credentials, null);
+        if (login == null) {
+            return;
+        }
+        String token = Json.mapper().readTree(login).path("token").asText(null);
+
+        call("GET", "/profile", null, token);
+        call("PUT", "/profile", Collections.singletonMap("phone", Integer.toString(i)), token);
+        call("GET", "/profile", null, token);
+
+        String uri = "warmup://" + nonce + "/" + i;
+        Map<String, Object> analysis = analysis(uri, i);
+        call("POST", "/analyze", analysis, token);
+        // Stored already: answered with the existing row
+        call("POST", "/analyze", analysis, token);
+        call("POST", "/analyze/bulk", Arrays.asList(analysis(uri + "/a", i), analysis(uri + "/b", i)), token);
+
+        call("GET", "/analyze?imageUri=" + encode(uri), null, token);
+        call("GET", "/analyze?imageUri=" + encode(uri + "/missing"), null, token);
+        call("POST", "/analyze/lookup", Collections.singletonMap("imageUris",
+                Arrays.asList(uri, uri + "/a", uri + "/missing")), token);
+        call("GET", "/analyze?tag=" + encode(tag(i)), null, token);
+        call("GET", "/analyze?prefix=" + encode(tag(-1)) + "&limit=10", null, token);
+        call("GET", "/analyze?q=" + encode("warmup " + nonce) + "&limit=10", null, token);
+        call("GET", "/analyze/tags?prefix=" + encode(tag(-1)), null, null);
+        call("GET", "/analyze?limit=10", null, token);
+        call("GET", "/analyze?since=&limit=50", null, token);
+    }
+
+    private Map<String, Object> analysis(String uri, int i) {
+        Map<String, Object> analysis = new LinkedHashMap<>();
+        analysis.put("imageUri", uri);
+        analysis.put("description", "Capture d'écran warmup " + nonce + " numéro " + i);
+        analysis.put("description_en", "Warmup " + nonce + " screenshot number " + i);
+        analysis.put("tags", tag(-1) + ", " + tag(i));
+        analysis.put("tags_en", tag(-1) + ", " + tag(i));
+        analysis.put("creationTime", System.currentTimeMillis() - i * 1000L);
+        return analysis;
+    }
+
+    // Tag tokens of this run: every one starts with "warmup <nonce>"; -1 gives the shared one
+    private String tag(int i) {
+        return "warmup " + nonce + (i < 0 ? "" : " " + (i % 10));
+    }
+
+    private String email(String suffix) {
+        return "warmup-" + nonce + suffix + "@warmup.invalid";
+    }
+
+    // Body of a 2xx response, else null
+    private String call(String method, String path, Object body, String token) throws IOException {
+        requests++;
+        HttpURLConnection connection = (HttpURLConnection) new URL(base + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        if (token != null) {
+            connection.setRequestProperty("Authorization", "Bearer " + token);
+        }
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+            try (OutputStream out = connection.getOutputStream()) {
+                Json.mapper().writeValue(out, body);
+            }
+        }
+        int status = connection.getResponseCode();
+        boolean ok = status >= 200 && status < 300;
+        InputStream in = ok ? connection.getInputStream() : connection.getErrorStream();
+        String text = readFully(in != null && "gzip".equals(connection.getContentEncoding())
+                ? new GZIPInputStream(in) : in);
+        if (!ok && unexpected++ == 0) {
+            firstUnexpected = method + " " + path + " " + status + " " + text;
+        }
+        return ok ? text : null;
+    }
+
+    // Reading to the end lets the connection go back to the keep-alive pool
+    private static String readFully(InputStream in) throws IOException {
+        if (in == null) {
+            return "";
+        }
+        try (InputStream body = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = body.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String encode(String value) throws IOException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    // Deletes everything the warm-up wrote and drops what the caches and statistics picked up on the way
+    private static void cleanUp(SessionFactory sessionFactory, String nonce) {
+        try (Session session = sessionFactory.openSession()) {
+            Transaction tx = session.beginTransaction();
+            try {
+                String uris = "warmup://" + nonce + "/%";
+                String emails = "warmup-" + nonce + "%@warmup.invalid";
+                session.createMutationQuery("DELETE FROM AnalysisTag WHERE analysisId IN "
+                        + "(SELECT a.id FROM ScreenshotAnalysis a WHERE a.imageUri LIKE :uris)")
+                        .setParameter("uris", uris)
+                        .executeUpdate();
+                session.createMutationQuery("DELETE FROM Tag WHERE name LIKE :tags")
+                        .setParameter("tags", "warmup " + nonce + "%")
+                        .executeUpdate();
+                session.createMutationQuery("DELETE FROM ScreenshotAnalysis WHERE imageUri LIKE :uris")
+                        .setParameter("uris", uris)
+                        .executeUpdate();
+                session.createMutationQuery("DELETE FROM Profile WHERE user.id IN "
+                        + "(SELECT u.id FROM User u WHERE u.email LIKE :emails)")
+                        .setParameter("emails", emails)
+                        .executeUpdate();
+                session.createMutationQuery("DELETE FROM User WHERE email LIKE :emails")
+                        .setParameter("emails", emails)
+                        .executeUpdate();
+                tx.commit();
+            } catch (RuntimeException e) {
+                tx.rollback();
+                throw e;
+            }
+        }
+        sessionFactory.getCache().evictAllRegions();
+        sessionFactory.getStatistics().clear();
+    }
+}
@@ -0,0 +1,63 @@
+package Entity;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+import jakarta.persistence.*;
+
+// Join row: analysis analysisId carries tag tagId. sortTime copies COALESCE(creation_time, 0) of the analysis
+// so a tag's analyses can be paged newest first from idx_analysis_tag_listing alone.
+// The primary key (tag_id, analysis_id) also serves the recount of a tag's links (Index.TagStore.recount).
+@Entity
+@Table(name = "analysis_tag", indexes = {
+        @Index(name = "idx_analysis_tag_listing", columnList = "tag_id, sort_time, analysis_id"),
+        @Index(name = "idx_analysis_tag_analysis", columnList = "analysis_id")
+})
+@IdClass(AnalysisTag.Key.class)
+public class AnalysisTag {
+
+    @Id
+    @Column(name = "tag_id", nullable = false)
+    private Long tagId;
+
+    @Id
+    @Column(name = "analysis_id", nullable = false)
+    private Long analysisId;
+
+    @Column(name = "sort_time", nullable = false)
+    private long sortTime;
+
+    public AnalysisTag() {}
+
+    public Long getTagId() { return tagId; }
+
+    public Long getAnalysisId() { return analysisId; }
+
+    public long getSortTime() { return sortTime; }
+
+    public static class Key implements Serializable {
+        private Long tagId;
+        private Long analysisId;
+
+        public Key() {}
+
+        public Key(Long tagId, Long analysisId) {
+            this.tagId = tagId;
+            this.analysisId = analysisId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return Objects.equals(tagId, other.tagId) && Objects.equals(analysisId, other.analysisId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tagId, analysisId);
+        }
+    }
+}
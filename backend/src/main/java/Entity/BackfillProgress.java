@@ -0,0 +1,40 @@
+package Entity;
+
+import jakarta.persistence.*;
+
+// Checkpoint of a resumable data migration: rows up to lastId are done. Committed together with each batch,
+// so a restarted server continues where the previous one stopped.
+@Entity
+@Table(name = "backfill_progress")
+public class BackfillProgress {
+
+    @Id
+    @Column(name = "name", nullable = false)
+    private String name;
+
+    @Column(name = "last_id", nullable = false)
+    private long lastId;
+
+    @Column(name = "completed", nullable = false)
+    private boolean completed;
+
+    @Column(name = "updated_at")
+    private Long updatedAt;
+
+    public BackfillProgress() {}
+
+    public BackfillProgress(String name) {
+        this.name = name;
+    }
+
+    public String getName() { return name; }
+
+    public long getLastId() { return lastId; }
+    public void setLastId(long lastId) { this.lastId = lastId; }
+
+    public boolean isCompleted() { return completed; }
+    public void setCompleted(boolean completed) { this.completed = completed; }
+
+    public Long getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(Long updatedAt) { this.updatedAt = updatedAt; }
+}
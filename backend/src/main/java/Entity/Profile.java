@@ -3,9 +3,17 @@ package Entity;
 
 import jakarta.persistence.*;
 import java.time.LocalDate;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
+
+import Config.CacheConfig;
 
 @Entity
 @Table(name = "profiles")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = CacheConfig.PROFILES)
+@NaturalIdCache(region = CacheConfig.PROFILE_USERS)
 public class Profile {
 
     
@@ -17,6 +25,8 @@ public class Profile {
     private LocalDate birthday;
     private String adresse;
 
+    // A profile belongs to one user for good; GET /profile finds it by its user from the caches
+    @NaturalId
     @OneToOne
     @JoinColumn(name = "user_id", nullable = false, unique = true)
     private User user;
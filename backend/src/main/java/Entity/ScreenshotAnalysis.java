@@ -1,16 +1,45 @@
 package Entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
+
+import Config.CacheConfig;
 
 @Entity
-@Table(name = "screenshot_analysis")
+// An analysis is identified by its owner and the image's path on the owner's device: two users' phones
+// name their screenshots alike, and neither may see the other's. uk_analysis_owner_uri is that key;
+// idx_analysis_key_time serves one owner's analyses newest first, and time ranges of them;
+// idx_analysis_key_sync serves their delta sync, in id order
+@Table(name = "screenshot_analysis",
+        uniqueConstraints = @UniqueConstraint(name = "uk_analysis_owner_uri", columnNames = {"owner_key", "image_uri"}),
+        indexes = {
+                @Index(name = "idx_analysis_key_time", columnList = "owner_key, creation_time, id"),
+                @Index(name = "idx_analysis_key_sync", columnList = "owner_key, id")
+        })
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = CacheConfig.ANALYSES)
+@NaturalIdCache(region = CacheConfig.ANALYSIS_URIS)
 public class ScreenshotAnalysis {
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    @Column(name = "image_uri", nullable = false, unique = true)
+    // owner_id, or NO_OWNER for analyses posted without a session token. Unlike owner_id it is never NULL, so
+    // the analyses without an owner are unique among themselves on every database.
+    @JsonIgnore
+    @NaturalId
+    @ColumnDefault("0")
+    @Column(name = "owner_key", nullable = false)
+    private long ownerKey = NO_OWNER;
+
+    @NaturalId
+    @Column(name = "image_uri", nullable = false)
     private String imageUri;
     @Column(name = "description" , columnDefinition = "TEXT")
     private String description;
@@ -24,6 +53,20 @@ public class ScreenshotAnalysis {
     @Column(name = "creation_time")
     private Long creationTime;
 
+    // The user who posted it with a session token; analyses posted without one have no owner.
+    // Not part of the JSON: clients cannot set it, and responses keep their shape.
+    @JsonIgnore
+    @Column(name = "owner_id")
+    private Long ownerId;
+
+    @JsonIgnore
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "owner_id", insertable = false, updatable = false,
+            foreignKey = @ForeignKey(name = "fk_analysis_owner"))
+    private User owner;
+
+    public static final long NO_OWNER = 0;
+
     // Constructors
     public ScreenshotAnalysis() {}
 
@@ -56,4 +99,30 @@ public class ScreenshotAnalysis {
 
     public Long getCreationTime() { return creationTime; }
     public void setCreationTime(Long creationTime) { this.creationTime = creationTime; }
+
+    @JsonIgnore
+    public Long getOwnerId() { return ownerId; }
+    public void setOwnerId(Long ownerId) {
+        this.ownerId = ownerId;
+        this.ownerKey = ownerKey(ownerId);
+    }
+
+    @JsonIgnore
+    public long getOwnerKey() { return ownerKey; }
+
+    public static long ownerKey(Long ownerId) {
+        return ownerId == null ? NO_OWNER : ownerId;
+    }
+
+    // The key as one string, for maps and the image URI filter
+    public String key() {
+        return key(ownerKey, imageUri);
+    }
+
+    public static String key(long ownerKey, String imageUri) {
+        return ownerKey + ":" + imageUri;
+    }
+
+    @JsonIgnore
+    public User getOwner() { return owner; }
 }
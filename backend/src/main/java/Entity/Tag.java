@@ -0,0 +1,37 @@
+package Entity;
+
+import jakarta.persistence.*;
+import org.hibernate.annotations.ColumnDefault;
+
+// One row per distinct tag token (folded as in Index.TagIndex.tokens), French and English alike.
+// analysisCount is the number of analysis_tag rows of the tag, kept by Index.TagStore; idx_tag_count reads
+// the most used tags first without counting links.
+@Entity
+@Table(name = "tag", indexes = {
+        @Index(name = "idx_tag_count", columnList = "analysis_count DESC, name")
+})
+public class Tag {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "name", nullable = false, unique = true)
+    private String name;
+
+    @ColumnDefault("0")
+    @Column(name = "analysis_count", nullable = false)
+    private long analysisCount;
+
+    public Tag() {}
+
+    public Tag(String name) {
+        this.name = name;
+    }
+
+    public Long getId() { return id; }
+
+    public String getName() { return name; }
+
+    public long getAnalysisCount() { return analysisCount; }
+}
@@ -1,16 +1,23 @@
 package Entity;
 
-import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
-import jakarta.persistence.OneToOne;
 import jakarta.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
+
+import Config.CacheConfig;
+
 @Entity
 @Table(name = "users")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = CacheConfig.USERS)
+@NaturalIdCache(region = CacheConfig.USER_EMAILS)
 public class User {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -22,6 +29,7 @@ public class User {
     @Column(nullable = false)
     private String password;
     
+    @NaturalId(mutable = true)
     @Column(unique = true)
     private String email;
     
@@ -34,8 +42,8 @@ public class User {
     @Column(name = "auth_method")
     private String authMethod; // "email", "google", etc.
     
-    @OneToOne(mappedBy = "user", cascade = CascadeType.ALL)
-    private Profile profile;
+    // No inverse of Profile.user: an inverse one-to-one cannot be lazy, and every User read, from the cache
+    // or not, would query profiles for it. Profiles are found by their user (Profile's natural id).
 
     // Constructors
     public User() {}
@@ -70,9 +78,6 @@ public class User {
     public String getAuthMethod() { return authMethod; }
     public void setAuthMethod(String authMethod) { this.authMethod = authMethod; }
     
-    public Profile getProfile() { return profile; }
-    public void setProfile(Profile profile) { this.profile = profile; }
-
     // Helper method for Google Sign-In
     public void linkGoogleAccount(String googleId) {
         this.googleId = googleId;
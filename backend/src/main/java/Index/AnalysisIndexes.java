@@ -0,0 +1,125 @@
+package Index;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+
+import Config.Settings;
+import Entity.ScreenshotAnalysis;
+
+// Process-wide in-memory indexes over screenshot_analysis, rebuilt at startup and fed by every write.
+// Writes of other instances sharing the database (server.instances above 1) only arrive with the periodic
+// rebuild; see complete().
+public class AnalysisIndexes {
+
+    private static final int SCAN_FETCH_SIZE = 1000;
+    private static final int INSTANCES = Settings.get().getInt("server.instances", 1);
+
+    private static volatile TagIndex tags = new TagIndex();
+    private static volatile TextIndex text = new TextIndex();
+    private static final ImageUriFilter uris = ImageUriFilter.fromSettings();
+
+    public static TagIndex tags() {
+        return tags;
+    }
+
+    public static TextIndex text() {
+        return text;
+    }
+
+    public static ImageUriFilter uris() {
+        return uris;
+    }
+
+    // True while this instance is the only writer, so the indexes hold every stored analysis
+    public static boolean complete() {
+        return INSTANCES <= 1;
+    }
+
+    // Unless complete(): rebuilds every index.refreshSeconds, so that analyses other instances store become
+    // searchable after at most that long. An analysis this instance saves while a rebuild scans can be
+    // missing until the next one.
+    public static void refreshInBackground(SessionFactory sessionFactory) {
+        long seconds = Settings.get().getLong("index.refreshSeconds", 300);
+        if (complete() || seconds <= 0) {
+            return;
+        }
+        ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "index-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                rebuild(sessionFactory);
+            } catch (RuntimeException e) {
+                System.err.println("Index refresh failed: " + e.getMessage());
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    // Streams the indexed columns in tag listing order so posting lists are built by appends only
+    public static void rebuild(SessionFactory sessionFactory) {
+        long start = System.currentTimeMillis();
+        TagIndex freshTags = new TagIndex();
+        TextIndex freshText = new TextIndex();
+        long rows = 0;
+        try (StatelessSession session = sessionFactory.openStatelessSession();
+             ScrollableResults<Object[]> scroll = session.createQuery(
+                     "SELECT a.id, a.creationTime, a.tags, a.tags_en, a.description, a.description_en "
+                     + "FROM ScreenshotAnalysis a ORDER BY COALESCE(a.creationTime, 0), a.id", Object[].class)
+                     .setFetchSize(SCAN_FETCH_SIZE)
+                     .setReadOnly(true)
+                     .scroll(ScrollMode.FORWARD_ONLY)) {
+            while (scroll.next()) {
+                Object[] row = scroll.get();
+                long id = (Long) row[0];
+                freshTags.add(id, (Long) row[1], (String) row[2], (String) row[3]);
+                freshText.add(id, (String) row[4], (String) row[5], (String) row[2], (String) row[3]);
+                rows++;
+            }
+        }
+        tags = freshTags;
+        text = freshText;
+        System.out.println("Indexed " + rows + " analyses (" + freshTags.tokenCount() + " tags) in "
+                + (System.currentTimeMillis() - start) + " ms");
+        uris.rebuild(sessionFactory);
+    }
+
+    public static void onSaved(ScreenshotAnalysis analysis) {
+        onSaved(analysis.getId(), analysis);
+    }
+
+    // For writers that learn the generated id outside the entity (bulk JDBC inserts)
+    public static void onSaved(long id, ScreenshotAnalysis analysis) {
+        tags.add(id, analysis.getCreationTime(), analysis.getTags(), analysis.getTags_en());
+        text.add(id, analysis.getDescription(), analysis.getDescription_en(), analysis.getTags(), analysis.getTags_en());
+        uris.add(analysis.key());
+    }
+
+    // Generated id -> analysis for one committed bulk batch
+    public static void onSaved(Map<Long, ScreenshotAnalysis> created) {
+        long[] ids = new long[created.size()];
+        Long[] creationTimes = new Long[ids.length];
+        String[] tagColumns = new String[ids.length];
+        String[] tagEnColumns = new String[ids.length];
+        int i = 0;
+        for (Map.Entry<Long, ScreenshotAnalysis> e : created.entrySet()) {
+            ScreenshotAnalysis analysis = e.getValue();
+            ids[i] = e.getKey();
+            creationTimes[i] = analysis.getCreationTime();
+            tagColumns[i] = analysis.getTags();
+            tagEnColumns[i] = analysis.getTags_en();
+            text.add(ids[i], analysis.getDescription(), analysis.getDescription_en(), analysis.getTags(), analysis.getTags_en());
+            uris.add(analysis.key());
+            i++;
+        }
+        tags.addAll(ids, creationTimes, tagColumns, tagEnColumns);
+    }
+}
@@ -0,0 +1,33 @@
+package Index;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+// Lowercases and strips accents so "Écran", "ecran" and "ÉCRAN" index to the same token
+public final class Folding {
+
+    private Folding() {}
+
+    public static String fold(String text) {
+        if (text == null) {
+            return "";
+        }
+        String lower = text.trim().toLowerCase(Locale.ROOT);
+        boolean ascii = true;
+        for (int i = 0; i < lower.length() && ascii; i++) {
+            ascii = lower.charAt(i) < 0x80;
+        }
+        if (ascii) {
+            return lower;
+        }
+        String decomposed = Normalizer.normalize(lower, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
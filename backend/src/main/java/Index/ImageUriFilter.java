@@ -0,0 +1,187 @@
+package Index;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+
+import Config.Settings;
+import Entity.ScreenshotAnalysis;
+import Metrics.Jmx;
+
+// Bloom filter over every stored analysis key (ScreenshotAnalysis.key(): owner and imageUri), so "already
+// analyzed?" checks for images the server has never seen are answered without a query. The filter is sized
+// for max(minCapacity, rows x growthFactor) keys; once more than that have been added it is rebuilt from the
+// table in the background, bigger.
+// A miss only proves anything while this instance is the only writer; with server.instances above 1 every
+// key is a maybe and no filter is built.
+public class ImageUriFilter implements ImageUriFilterMXBean {
+
+    private static final int SCAN_FETCH_SIZE = 1000;
+
+    private final double falsePositiveRate;
+    private final long minCapacity;
+    private final int growthFactor;
+    private final boolean onlyWriter;
+
+    // null until the first load; until then every key is a maybe
+    private volatile BloomFilter current;
+    // Set while a rebuild scans the table, so keys saved meanwhile land in the new filter too
+    private volatile BloomFilter next;
+    private volatile SessionFactory sessionFactory;
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    private final LongAdder definiteMisses = new LongAdder();
+    private final LongAdder databaseFallbacks = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private final AtomicLong rebuilds = new AtomicLong();
+
+    public ImageUriFilter(double falsePositiveRate, long minCapacity, int growthFactor, boolean onlyWriter) {
+        this.falsePositiveRate = falsePositiveRate;
+        this.minCapacity = minCapacity;
+        this.growthFactor = Math.max(1, growthFactor);
+        this.onlyWriter = onlyWriter;
+    }
+
+    public static ImageUriFilter fromSettings() {
+        Settings settings = Settings.get();
+        ImageUriFilter filter = new ImageUriFilter(
+                Double.parseDouble(settings.get("index.uriFilter.falsePositiveRate", "0.01")),
+                settings.getLong("index.uriFilter.minCapacity", 100000),
+                settings.getInt("index.uriFilter.growthFactor", 2),
+                settings.getInt("server.instances", 1) <= 1);
+        Jmx.register(filter, "blinko:type=ImageUriFilter");
+        return filter;
+    }
+
+    // False means the key is certainly not stored; true means ask the database
+    public boolean mightContain(String key) {
+        BloomFilter filter = current;
+        if (filter != null && !filter.mightContain(key)) {
+            definiteMisses.increment();
+            return false;
+        }
+        databaseFallbacks.increment();
+        return true;
+    }
+
+    // Called when a database fallback found no row
+    public void recordFalsePositive() {
+        falsePositives.increment();
+    }
+
+    // Call after the row is committed
+    public void add(String key) {
+        // Read next before current: see rebuild() for why no key can fall between the two filters
+        BloomFilter pending = next;
+        BloomFilter filter = current;
+        if (pending != null) {
+            pending.put(key);
+        }
+        if (filter != null) {
+            filter.put(key);
+            if (filter.insertions() > filter.capacity()) {
+                growInBackground();
+            }
+        }
+    }
+
+    // Streams every stored key into a fresh filter and swaps it in.
+    // The fresh filter is published as `next` before the scan starts: a key committed before that point is
+    // read by the scan, and one added after it is put into `next` by add().
+    public void rebuild(SessionFactory sessionFactory) {
+        if (!onlyWriter) {
+            return;
+        }
+        this.sessionFactory = sessionFactory;
+        long start = System.currentTimeMillis();
+        try (StatelessSession session = sessionFactory.openStatelessSession()) {
+            long rows = session.createQuery("SELECT count(a) FROM ScreenshotAnalysis a", Long.class)
+                    .getSingleResult();
+            BloomFilter fresh = new BloomFilter(Math.max(minCapacity, rows * growthFactor), falsePositiveRate);
+            next = fresh;
+            try (ScrollableResults<Object[]> keys = session.createQuery(
+                    "SELECT a.ownerKey, a.imageUri FROM ScreenshotAnalysis a", Object[].class)
+                    .setFetchSize(SCAN_FETCH_SIZE)
+                    .setReadOnly(true)
+                    .scroll(ScrollMode.FORWARD_ONLY)) {
+                while (keys.next()) {
+                    Object[] row = keys.get();
+                    fresh.put(ScreenshotAnalysis.key((Long) row[0], (String) row[1]));
+                }
+            }
+            current = fresh;
+            rebuilds.incrementAndGet();
+            System.out.println("Loaded " + fresh.insertions() + " image URIs into a " + fresh.sizeBytes() / 1024
+                    + " KiB filter for " + fresh.capacity() + " in " + (System.currentTimeMillis() - start) + " ms");
+        } finally {
+            next = null;
+        }
+    }
+
+    private void growInBackground() {
+        SessionFactory factory = sessionFactory;
+        if (factory == null || !rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                rebuild(factory);
+            } catch (RuntimeException e) {
+                System.err.println("Image URI filter rebuild failed: " + e.getMessage());
+            } finally {
+                rebuilding.set(false);
+            }
+        }, "uri-filter-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public long getDefiniteMisses() {
+        return definiteMisses.sum();
+    }
+
+    @Override
+    public long getDatabaseFallbacks() {
+        return databaseFallbacks.sum();
+    }
+
+    @Override
+    public long getFalsePositives() {
+        return falsePositives.sum();
+    }
+
+    @Override
+    public long getCapacity() {
+        BloomFilter filter = current;
+        return filter == null ? 0 : filter.capacity();
+    }
+
+    @Override
+    public long getInsertions() {
+        BloomFilter filter = current;
+        return filter == null ? 0 : filter.insertions();
+    }
+
+    @Override
+    public double getExpectedFalsePositiveRate() {
+        BloomFilter filter = current;
+        return filter == null ? 1.0 : filter.expectedFalsePositiveRate();
+    }
+
+    @Override
+    public long getSizeBytes() {
+        BloomFilter filter = current;
+        return filter == null ? 0 : filter.sizeBytes();
+    }
+
+    @Override
+    public long getRebuilds() {
+        return rebuilds.get();
+    }
+}
@@ -0,0 +1,24 @@
+package Index;
+
+// JMX view of the imageUri Bloom filter, registered as blinko:type=ImageUriFilter
+public interface ImageUriFilterMXBean {
+
+    // Lookups answered "not analyzed" by the filter alone
+    long getDefiniteMisses();
+
+    // Lookups the filter could not rule out, which went to the database
+    long getDatabaseFallbacks();
+
+    // Database fallbacks that found nothing after all
+    long getFalsePositives();
+
+    long getCapacity();
+
+    long getInsertions();
+
+    double getExpectedFalsePositiveRate();
+
+    long getSizeBytes();
+
+    long getRebuilds();
+}
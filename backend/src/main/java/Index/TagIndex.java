@@ -0,0 +1,327 @@
+package Index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Inverted index: normalized tag token -> analyses sorted by (creationTime, id), held as parallel long arrays.
+// That order is the listing order of tag search, so pages are slices and cursors are binary searches.
+// Readers never lock; each posting list publishes an immutable (arrays, size) view on every write.
+public class TagIndex {
+
+    private final ConcurrentSkipListMap<String, Postings> postings = new ConcurrentSkipListMap<>();
+
+    // Splits a comma-separated tags column into normalized tokens
+    public static List<String> tokens(String tags) {
+        List<String> tokens = new ArrayList<>();
+        if (tags == null || tags.isEmpty()) {
+            return tokens;
+        }
+        for (String raw : tags.split(",")) {
+            String token = Folding.fold(raw).replaceAll("\\s+", " ");
+            if (!token.isEmpty() && !tokens.contains(token)) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    // Analyses without a creation time sort as the oldest
+    public static long sortTime(Long creationTime) {
+        return creationTime == null ? 0L : creationTime;
+    }
+
+    public void add(long id, Long creationTime, String tags, String tagsEn) {
+        long time = sortTime(creationTime);
+        for (String token : tokens(tags)) {
+            postings.computeIfAbsent(token, t -> new Postings()).add(time, id);
+        }
+        for (String token : tokens(tagsEn)) {
+            postings.computeIfAbsent(token, t -> new Postings()).add(time, id);
+        }
+    }
+
+    // Bulk variant: each touched posting list is merged once per batch instead of once per analysis,
+    // which matters when a history backfill lands in the middle of large lists
+    public void addAll(long[] ids, Long[] creationTimes, String[] tags, String[] tagsEn) {
+        Map<String, Matches.Builder> byToken = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            long time = sortTime(creationTimes[i]);
+            for (String token : tokens(tags[i])) {
+                byToken.computeIfAbsent(token, t -> new Matches.Builder()).add(time, ids[i]);
+            }
+            for (String token : tokens(tagsEn[i])) {
+                byToken.computeIfAbsent(token, t -> new Matches.Builder()).add(time, ids[i]);
+            }
+        }
+        for (Map.Entry<String, Matches.Builder> e : byToken.entrySet()) {
+            postings.computeIfAbsent(e.getKey(), t -> new Postings()).merge(e.getValue().sorted());
+        }
+    }
+
+    public int tokenCount() {
+        return postings.size();
+    }
+
+    // Tag -> number of analyses, most used first; an empty prefix counts every tag
+    public Map<String, Long> counts(String prefix, int limit) {
+        String folded = prefix == null ? "" : Folding.fold(prefix);
+        Map<String, Postings> lists = folded.isEmpty()
+                ? postings
+                : postings.subMap(folded, true, folded + Character.MAX_VALUE, false);
+        List<Map.Entry<String, Postings>> entries = new ArrayList<>(lists.entrySet());
+        entries.sort((a, b) -> {
+            int bySize = Integer.compare(b.getValue().view.size, a.getValue().view.size);
+            return bySize != 0 ? bySize : a.getKey().compareTo(b.getKey());
+        });
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Map.Entry<String, Postings> e : entries) {
+            if (counts.size() == limit) {
+                break;
+            }
+            counts.put(e.getKey(), (long) e.getValue().view.size);
+        }
+        return counts;
+    }
+
+    public Matches exact(String tag) {
+        Postings list = postings.get(Folding.fold(tag));
+        return list == null ? Matches.EMPTY : list.view;
+    }
+
+    public Matches prefix(String prefix) {
+        String folded = Folding.fold(prefix);
+        if (folded.isEmpty()) {
+            return Matches.EMPTY;
+        }
+        Collection<Postings> lists = postings.subMap(folded, true, folded + Character.MAX_VALUE, false).values();
+        List<Matches> matches = new ArrayList<>(lists.size());
+        for (Postings list : lists) {
+            matches.add(list.view);
+        }
+        return union(matches);
+    }
+
+    // AND: analyses tagged with every tag
+    public Matches all(Collection<String> tags) {
+        if (tags.isEmpty()) {
+            return Matches.EMPTY;
+        }
+        List<Matches> lists = new ArrayList<>(tags.size());
+        for (String tag : tags) {
+            Matches matches = exact(tag);
+            if (matches.size() == 0) {
+                return Matches.EMPTY;
+            }
+            lists.add(matches);
+        }
+        // Intersect smallest first so every step is bounded by the rarest tag
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        Matches result = lists.get(0);
+        for (int i = 1; i < lists.size() && result.size() > 0; i++) {
+            result = intersect(result, lists.get(i));
+        }
+        return result;
+    }
+
+    // OR: analyses tagged with at least one tag
+    public Matches any(Collection<String> tags) {
+        List<Matches> lists = new ArrayList<>(tags.size());
+        for (String tag : tags) {
+            lists.add(exact(tag));
+        }
+        return union(lists);
+    }
+
+    // Probes the larger list by binary search from the last match, so cost follows the smaller list
+    public static Matches intersect(Matches a, Matches b) {
+        Matches small = a.size() <= b.size() ? a : b;
+        Matches large = small == a ? b : a;
+        Matches.Builder out = new Matches.Builder(small.size());
+        int from = 0;
+        for (int i = 0; i < small.size() && from < large.size(); i++) {
+            int at = large.search(from, small.times[i], small.ids[i]);
+            if (at >= 0) {
+                out.add(small.times[i], small.ids[i]);
+                from = at + 1;
+            } else {
+                from = -at - 1;
+            }
+        }
+        return out.build();
+    }
+
+    public static Matches union(List<Matches> lists) {
+        Matches result = Matches.EMPTY;
+        for (Matches list : lists) {
+            result = Matches.merge(result, list);
+        }
+        return result;
+    }
+
+    // Sorted (creationTime, id) pairs; views handed out by the index are never modified afterwards
+    public static final class Matches {
+        static final Matches EMPTY = new Matches(new long[0], new long[0], 0);
+
+        final long[] times;
+        final long[] ids;
+        final int size;
+
+        Matches(long[] times, long[] ids, int size) {
+            this.times = times;
+            this.ids = ids;
+            this.size = size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long time(int i) {
+            return times[i];
+        }
+
+        public long id(int i) {
+            return ids[i];
+        }
+
+        static int compare(long time, long id, long otherTime, long otherId) {
+            int byTime = Long.compare(time, otherTime);
+            return byTime != 0 ? byTime : Long.compare(id, otherId);
+        }
+
+        // Arrays.binarySearch contract over [from, size): index if found, else -(insertion point) - 1
+        int search(int from, long time, long id) {
+            int low = from;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(times[mid], ids[mid], time, id);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        // Number of entries strictly before (time, id), i.e. where a newest-first page after that cursor ends
+        public int countBefore(long time, long id) {
+            int at = search(0, time, id);
+            return at >= 0 ? at : -at - 1;
+        }
+
+        static Matches merge(Matches a, Matches b) {
+            if (a.size == 0) return b;
+            if (b.size == 0) return a;
+            Builder out = new Builder(a.size + b.size);
+            int i = 0, j = 0;
+            while (i < a.size && j < b.size) {
+                int cmp = compare(a.times[i], a.ids[i], b.times[j], b.ids[j]);
+                if (cmp < 0) {
+                    out.add(a.times[i], a.ids[i++]);
+                } else if (cmp > 0) {
+                    out.add(b.times[j], b.ids[j++]);
+                } else {
+                    out.add(a.times[i], a.ids[i++]);
+                    j++;
+                }
+            }
+            while (i < a.size) out.add(a.times[i], a.ids[i++]);
+            while (j < b.size) out.add(b.times[j], b.ids[j++]);
+            return out.build();
+        }
+
+        static final class Builder {
+            private long[] times;
+            private long[] ids;
+            private int size;
+
+            Builder() {
+                this(4);
+            }
+
+            Builder(int capacity) {
+                times = new long[Math.max(1, capacity)];
+                ids = new long[times.length];
+            }
+
+            void add(long time, long id) {
+                if (size == times.length) {
+                    times = Arrays.copyOf(times, size * 2);
+                    ids = Arrays.copyOf(ids, size * 2);
+                }
+                times[size] = time;
+                ids[size++] = id;
+            }
+
+            Matches build() {
+                return new Matches(times, ids, size);
+            }
+
+            // Insertion sort is fine here: per-token batches are small and usually already ordered
+            Matches sorted() {
+                for (int i = 1; i < size; i++) {
+                    long time = times[i];
+                    long id = ids[i];
+                    int j = i - 1;
+                    while (j >= 0 && compare(times[j], ids[j], time, id) > 0) {
+                        times[j + 1] = times[j];
+                        ids[j + 1] = ids[j];
+                        j--;
+                    }
+                    times[j + 1] = time;
+                    ids[j + 1] = id;
+                }
+                return build();
+            }
+        }
+    }
+
+    private static final class Postings {
+        volatile Matches view = Matches.EMPTY;
+
+        // Creation times mostly arrive in increasing order, so the common case is an amortized append
+        synchronized void add(long time, long id) {
+            Matches current = view;
+            int size = current.size;
+            if (size > 0 && Matches.compare(current.times[size - 1], current.ids[size - 1], time, id) >= 0) {
+                Matches.Builder one = new Matches.Builder(1);
+                one.add(time, id);
+                view = Matches.merge(current, one.build());
+                return;
+            }
+            long[] times = current.times;
+            long[] ids = current.ids;
+            if (size == times.length) {
+                int capacity = Math.max(4, size + (size >> 1));
+                times = Arrays.copyOf(times, capacity);
+                ids = Arrays.copyOf(ids, capacity);
+            }
+            // Slots past a published size are never read, so writing here is invisible until the new view
+            times[size] = time;
+            ids[size] = id;
+            view = new Matches(times, ids, size + 1);
+        }
+
+        synchronized void merge(Matches batch) {
+            Matches current = view;
+            int size = current.size;
+            if (size == 0 || Matches.compare(current.times[size - 1], current.ids[size - 1], batch.times[0], batch.ids[0]) < 0) {
+                for (int i = 0; i < batch.size; i++) {
+                    add(batch.times[i], batch.ids[i]);
+                }
+            } else {
+                view = Matches.merge(current, batch);
+            }
+        }
+    }
+}
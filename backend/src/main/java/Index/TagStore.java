@@ -0,0 +1,291 @@
+package Index;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.hibernate.Session;
+import org.hibernate.SharedSessionContract;
+import org.hibernate.query.Query;
+
+import Entity.ScreenshotAnalysis;
+
+// Tags as rows: the tag dictionary plus analysis_tag join rows, written next to every analysis and read with
+// keyset queries over idx_analysis_tag_listing. Tokens are the ones TagIndex uses, so both answer alike.
+// Every tag row carries its number of links, raised by the writer that inserts them, so per-tag counts are
+// read from idx_tag_count instead of counted.
+// Database reads are only switched on (ready) once the backfill has linked every older analysis and
+// recounted every tag.
+public class TagStore {
+
+    // Rows per multi-row INSERT; three parameters each keeps statements under driver bind limits
+    private static final int INSERT_CHUNK_SIZE = 500;
+    // Returned for the links actually inserted; the ones already there are skipped without a row
+    private static final String[] LINK_KEYS = {"tag_id"};
+
+    private static volatile boolean ready;
+
+    public static boolean isReady() {
+        return ready;
+    }
+
+    public static void setReady(boolean value) {
+        ready = value;
+    }
+
+    // Writes tags and join rows for the analyses, inside the caller's transaction, and adds the new links to
+    // the counts of their tags. Idempotent: existing tags and links are skipped by the database and not
+    // counted again, so the backfill and the write paths may overlap.
+    public static void link(Session session, Map<Long, ScreenshotAnalysis> analyses) {
+        // Sorted so concurrent writers take row locks in the same order
+        TreeMap<String, List<long[]>> byToken = new TreeMap<>();
+        for (Map.Entry<Long, ScreenshotAnalysis> e : analyses.entrySet()) {
+            ScreenshotAnalysis analysis = e.getValue();
+            long[] link = {e.getKey(), TagIndex.sortTime(analysis.getCreationTime())};
+            TreeSet<String> tokens = new TreeSet<>(TagIndex.tokens(analysis.getTags()));
+            tokens.addAll(TagIndex.tokens(analysis.getTags_en()));
+            for (String token : tokens) {
+                byToken.computeIfAbsent(token, t -> new ArrayList<>()).add(link);
+            }
+        }
+        if (byToken.isEmpty()) {
+            return;
+        }
+        session.doWork(connection -> {
+            Map<String, Long> tagIds = tagIds(connection, byToken.keySet());
+            List<long[]> rows = new ArrayList<>();
+            for (Map.Entry<String, List<long[]>> e : byToken.entrySet()) {
+                long tagId = tagIds.get(e.getKey());
+                for (long[] link : e.getValue()) {
+                    rows.add(new long[] {tagId, link[0], link[1]});
+                }
+            }
+            rows.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+            TreeMap<Long, Long> added = new TreeMap<>();
+            for (int from = 0; from < rows.size(); from += INSERT_CHUNK_SIZE) {
+                insertLinks(connection, rows.subList(from, Math.min(rows.size(), from + INSERT_CHUNK_SIZE)), added);
+            }
+            addCounts(connection, added);
+        });
+    }
+
+    // name -> id, creating the missing names. A name a concurrent writer inserted but then rolled back is
+    // neither inserted nor found on the first pass, so the missing ones are tried again.
+    private static Map<String, Long> tagIds(Connection connection, Collection<String> names) throws SQLException {
+        Map<String, Long> ids = new HashMap<>();
+        List<String> missing = new ArrayList<>(names);
+        for (int attempt = 0; attempt < 3 && !missing.isEmpty(); attempt++) {
+            for (int from = 0; from < missing.size(); from += INSERT_CHUNK_SIZE) {
+                List<String> chunk = missing.subList(from, Math.min(missing.size(), from + INSERT_CHUNK_SIZE));
+                insertNames(connection, chunk);
+                selectIds(connection, chunk, ids);
+            }
+            List<String> stillMissing = new ArrayList<>();
+            for (String name : missing) {
+                if (!ids.containsKey(name)) {
+                    stillMissing.add(name);
+                }
+            }
+            missing = stillMissing;
+        }
+        if (!missing.isEmpty()) {
+            throw new IllegalStateException("Could not create tags " + missing);
+        }
+        return ids;
+    }
+
+    private static void insertNames(Connection connection, List<String> names) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO tag (name) VALUES " + placeholders(names.size(), "(?)") + " ON CONFLICT DO NOTHING")) {
+            int i = 1;
+            for (String name : names) {
+                ps.setString(i++, name);
+            }
+            ps.executeUpdate();
+        }
+    }
+
+    private static void selectIds(Connection connection, List<String> names, Map<String, Long> ids) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT id, name FROM tag WHERE name IN (" + placeholders(names.size(), "?") + ")")) {
+            int i = 1;
+            for (String name : names) {
+                ps.setString(i++, name);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    ids.put(rs.getString(2), rs.getLong(1));
+                }
+            }
+        }
+    }
+
+    // Adds to added (tag id -> links) the links that were inserted
+    private static void insertLinks(Connection connection, List<long[]> rows, Map<Long, Long> added)
+            throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO analysis_tag (tag_id, analysis_id, sort_time) VALUES "
+                + placeholders(rows.size(), "(?, ?, ?)") + " ON CONFLICT DO NOTHING", LINK_KEYS)) {
+            int i = 1;
+            for (long[] row : rows) {
+                ps.setLong(i++, row[0]);
+                ps.setLong(i++, row[1]);
+                ps.setLong(i++, row[2]);
+            }
+            ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                while (keys.next()) {
+                    added.merge(keys.getLong(1), 1L, Long::sum);
+                }
+            }
+        }
+    }
+
+    // In tag id order, like every other writer, so concurrent writers lock the tag rows in the same order. The
+    // row lock is held until commit: writers of the same tag queue here for the rest of their transaction.
+    private static void addCounts(Connection connection, TreeMap<Long, Long> added) throws SQLException {
+        if (added.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement ps = connection.prepareStatement(
+                "UPDATE tag SET analysis_count = analysis_count + ? WHERE id = ?")) {
+            for (Map.Entry<Long, Long> e : added.entrySet()) {
+                ps.setLong(1, e.getValue());
+                ps.setLong(2, e.getKey());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    // Sets the counts of the next max tags after afterId, in id order, from analysis_tag, inside the caller's
+    // transaction; for links written before the counts existed. The rows are locked first, which waits for
+    // the writers that already raised them; the count then sees their links, and any later writer adds its
+    // own on top once the transaction ends. Returns the last tag id done, or null when none is left.
+    public static Long recount(Session session, long afterId, int max) {
+        return session.doReturningWork(connection -> {
+            Long last = null;
+            try (PreparedStatement lock = connection.prepareStatement(
+                    "SELECT id FROM tag WHERE id > ? ORDER BY id LIMIT ? FOR UPDATE")) {
+                lock.setLong(1, afterId);
+                lock.setInt(2, max);
+                try (ResultSet rs = lock.executeQuery()) {
+                    while (rs.next()) {
+                        last = rs.getLong(1);
+                    }
+                }
+            }
+            if (last == null) {
+                return null;
+            }
+            try (PreparedStatement count = connection.prepareStatement(
+                    "UPDATE tag SET analysis_count = (SELECT COUNT(*) FROM analysis_tag a WHERE a.tag_id = tag.id) "
+                    + "WHERE id > ? AND id <= ?")) {
+                count.setLong(1, afterId);
+                count.setLong(2, last);
+                count.executeUpdate();
+            }
+            return last;
+        });
+    }
+
+    private static String placeholders(int count, String one) {
+        StringBuilder sql = new StringBuilder(count * (one.length() + 2));
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sql.append(", ");
+            sql.append(one);
+        }
+        return sql.toString();
+    }
+
+    public static List<Long> exactIds(SharedSessionContract session, Collection<String> tags) {
+        List<String> names = new ArrayList<>(tags.size());
+        for (String tag : tags) {
+            names.add(Folding.fold(tag));
+        }
+        if (names.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return session.createQuery("SELECT t.id FROM Tag t WHERE t.name IN (:names)", Long.class)
+                .setParameterList("names", names)
+                .getResultList();
+    }
+
+    // Scans the tag dictionary, which holds distinct names only
+    public static List<Long> prefixIds(SharedSessionContract session, String prefix) {
+        String folded = Folding.fold(prefix);
+        if (folded.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return session.createQuery("SELECT t.id FROM Tag t WHERE t.name LIKE :prefix ESCAPE '!'", Long.class)
+                .setParameter("prefix", escapeLike(folded) + "%")
+                .getResultList();
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
+
+    // Newest first by (sortTime, analysisId), strictly after the (time, id) cursor when one is given.
+    // An analysis matches when it carries at least one tag of every group: the first group drives the
+    // index range scan, the others are checked per candidate. Returns up to limit {time, id} pairs.
+    public static List<long[]> page(SharedSessionContract session, List<List<Long>> groups,
+                                    long[] after, int limit) {
+        for (List<Long> group : groups) {
+            if (group.isEmpty()) {
+                return new ArrayList<>();
+            }
+        }
+        StringBuilder hql = new StringBuilder(groups.get(0).size() > 1 ? "SELECT DISTINCT" : "SELECT")
+                .append(" t.sortTime, t.analysisId FROM AnalysisTag t WHERE t.tagId IN (:g0)");
+        for (int g = 1; g < groups.size(); g++) {
+            hql.append(" AND EXISTS (SELECT 1 FROM AnalysisTag o WHERE o.analysisId = t.analysisId AND o.tagId IN (:g")
+                    .append(g).append("))");
+        }
+        if (after != null) {
+            hql.append(" AND t.sortTime <= :time AND (t.sortTime < :time OR t.analysisId < :id)");
+        }
+        hql.append(" ORDER BY t.sortTime DESC, t.analysisId DESC");
+
+        Query<Object[]> query = session.createQuery(hql.toString(), Object[].class);
+        for (int g = 0; g < groups.size(); g++) {
+            query.setParameterList("g" + g, groups.get(g));
+        }
+        if (after != null) {
+            query.setParameter("time", after[0]);
+            query.setParameter("id", after[1]);
+        }
+        List<long[]> results = new ArrayList<>(limit);
+        for (Object[] row : query.setMaxResults(limit).setReadOnly(true).getResultList()) {
+            results.add(new long[] {(Long) row[0], (Long) row[1]});
+        }
+        return results;
+    }
+
+    // Tag name -> number of analyses, most used first: the first limit entries of idx_tag_count, or with a
+    // prefix the names in that range of the tag dictionary, sorted
+    public static Map<String, Long> counts(SharedSessionContract session, String prefix, int limit) {
+        String folded = prefix == null ? "" : Folding.fold(prefix);
+        Query<Object[]> query = session.createQuery(
+                "SELECT t.name, t.analysisCount FROM Tag t WHERE t.analysisCount > 0"
+                + (folded.isEmpty() ? "" : " AND t.name LIKE :prefix ESCAPE '!'")
+                + " ORDER BY t.analysisCount DESC, t.name", Object[].class);
+        if (!folded.isEmpty()) {
+            query.setParameter("prefix", escapeLike(folded) + "%");
+        }
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Object[] row : query.setMaxResults(limit).setReadOnly(true).getResultList()) {
+            counts.put((String) row[0], (Long) row[1]);
+        }
+        return counts;
+    }
+}
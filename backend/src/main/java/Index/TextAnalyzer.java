@@ -0,0 +1,49 @@
+package Index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Tokenizer shared by indexing and querying: accent folding, French elisions, FR/EN stop words, plural stripping
+public final class TextAnalyzer {
+
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+            // English
+            "a", "an", "and", "are", "as", "at", "be", "by", "for", "from", "has", "in", "is", "it", "its",
+            "of", "on", "or", "that", "the", "this", "to", "was", "with", "there",
+            // French (already accent-folded)
+            "au", "aux", "avec", "ce", "ces", "dans", "de", "des", "du", "elle", "en", "est", "et", "il",
+            "la", "le", "les", "leur", "mais", "ou", "par", "pour", "qui", "sa", "se", "son", "sur", "un", "une"));
+
+    private TextAnalyzer() {}
+
+    public static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        String folded = Folding.fold(text);
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean word = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                // Apostrophes split too, so "l'ecran" yields "ecran" and the elided article is dropped
+                String token = folded.substring(start, i);
+                if (token.length() > 1 && !STOP_WORDS.contains(token)) {
+                    tokens.add(stem(token));
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    // Light stemming that works for both languages: "captures"/"capture", "messages"/"message"
+    private static String stem(String token) {
+        if (token.length() > 3 && (token.endsWith("s") || token.endsWith("x")) && !token.endsWith("ss")) {
+            return token.substring(0, token.length() - 1);
+        }
+        return token;
+    }
+}
@@ -0,0 +1,237 @@
+package Index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+// BM25-ranked full-text index over description, description_en and the tags of every analysis.
+// Documents get dense ordinals in insertion order, so every posting list is append-only and
+// readers work on published (array, size) views without locking.
+public class TextIndex {
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    // A tag is a stronger signal than a word somewhere in a caption
+    private static final int TAG_WEIGHT = 2;
+
+    private final ConcurrentHashMap<String, Postings> terms = new ConcurrentHashMap<>();
+    private volatile Docs docs = new Docs(new long[1024], new int[1024], 0, 0L);
+
+    public void add(long id, String description, String descriptionEn, String tags, String tagsEn) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        count(frequencies, description, 1);
+        count(frequencies, descriptionEn, 1);
+        count(frequencies, tags, TAG_WEIGHT);
+        count(frequencies, tagsEn, TAG_WEIGHT);
+        int length = 0;
+        for (int tf : frequencies.values()) {
+            length += tf;
+        }
+
+        synchronized (this) {
+            Docs current = docs;
+            int ordinal = current.count;
+            long[] ids = current.ids;
+            int[] lengths = current.lengths;
+            if (ordinal == ids.length) {
+                ids = Arrays.copyOf(ids, ordinal + (ordinal >> 1));
+                lengths = Arrays.copyOf(lengths, ids.length);
+            }
+            ids[ordinal] = id;
+            lengths[ordinal] = length;
+            for (Map.Entry<String, Integer> e : frequencies.entrySet()) {
+                terms.computeIfAbsent(e.getKey(), t -> new Postings()).add(ordinal, e.getValue());
+            }
+            // Publishing the document last keeps readers from scoring a half-indexed document
+            docs = new Docs(ids, lengths, ordinal + 1, current.totalLength + length);
+        }
+    }
+
+    private static void count(Map<String, Integer> frequencies, String text, int weight) {
+        for (String token : TextAnalyzer.tokens(text)) {
+            frequencies.merge(token, weight, Integer::sum);
+        }
+    }
+
+    public int size() {
+        return docs.count;
+    }
+
+    // Top hits ordered by score desc then id asc, strictly after the given cursor hit (null for page one).
+    // Returns up to limit + 1 hits so callers can tell whether another page exists.
+    public List<Hit> search(String query, int limit, Hit after) {
+        Docs snapshot = docs;
+        if (snapshot.count == 0) {
+            return Collections.emptyList();
+        }
+        List<TermCursor> cursors = new ArrayList<>();
+        for (String term : new LinkedHashSet<>(TextAnalyzer.tokens(query))) {
+            Postings postings = terms.get(term);
+            if (postings != null) {
+                cursors.add(new TermCursor(postings.view, snapshot.count));
+            }
+        }
+        if (cursors.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        float avgLength = (float) snapshot.totalLength / snapshot.count;
+        PriorityQueue<Hit> top = new PriorityQueue<>(limit + 2, (a, b) -> Hit.ORDER.compare(b, a));
+        // Document-at-a-time: walk every matching ordinal once, merging the query terms' posting lists
+        while (true) {
+            int ordinal = Integer.MAX_VALUE;
+            for (TermCursor cursor : cursors) {
+                if (cursor.hasCurrent() && cursor.ordinal() < ordinal) {
+                    ordinal = cursor.ordinal();
+                }
+            }
+            if (ordinal == Integer.MAX_VALUE) {
+                break;
+            }
+
+            float norm = K1 * (1 - B + B * snapshot.lengths[ordinal] / avgLength);
+            float score = 0;
+            for (TermCursor cursor : cursors) {
+                if (cursor.hasCurrent() && cursor.ordinal() == ordinal) {
+                    int tf = cursor.frequency();
+                    score += cursor.idf * tf * (K1 + 1) / (tf + norm);
+                    cursor.advance();
+                }
+            }
+
+            long id = snapshot.ids[ordinal];
+            if (after != null && !Hit.before(after.score, after.id, score, id)) {
+                continue;
+            }
+            if (top.size() <= limit) {
+                top.add(new Hit(id, score));
+            } else if (Hit.before(score, id, top.peek().score, top.peek().id)) {
+                top.poll();
+                top.add(new Hit(id, score));
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>(top);
+        hits.sort(Hit.ORDER);
+        return hits;
+    }
+
+    public static final class Hit {
+        // Best first: higher score, then lower id as a stable tie-breaker
+        static final java.util.Comparator<Hit> ORDER = (a, b) -> {
+            int byScore = Float.compare(b.score, a.score);
+            return byScore != 0 ? byScore : Long.compare(a.id, b.id);
+        };
+
+        static boolean before(float score, long id, float otherScore, long otherId) {
+            return score > otherScore || (score == otherScore && id < otherId);
+        }
+
+        public final long id;
+        public final float score;
+
+        public Hit(long id, float score) {
+            this.id = id;
+            this.score = score;
+        }
+
+        // Opaque keyset cursor: exact float bits plus id, so the next page resumes right after this hit
+        public String cursor() {
+            return Integer.toHexString(Float.floatToIntBits(score)) + "-" + Long.toString(id, 36);
+        }
+
+        public static Hit fromCursor(String cursor) {
+            int dash = cursor.indexOf('-');
+            if (dash <= 0) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            float score = Float.intBitsToFloat(Integer.parseUnsignedInt(cursor.substring(0, dash), 16));
+            return new Hit(Long.parseLong(cursor.substring(dash + 1), 36), score);
+        }
+    }
+
+    private static final class Docs {
+        final long[] ids;
+        final int[] lengths;
+        final int count;
+        final long totalLength;
+
+        Docs(long[] ids, int[] lengths, int count, long totalLength) {
+            this.ids = ids;
+            this.lengths = lengths;
+            this.count = count;
+            this.totalLength = totalLength;
+        }
+    }
+
+    private static final class View {
+        final int[] ordinals;
+        final byte[] frequencies;
+        final int size;
+
+        View(int[] ordinals, byte[] frequencies, int size) {
+            this.ordinals = ordinals;
+            this.frequencies = frequencies;
+            this.size = size;
+        }
+    }
+
+    private static final class Postings {
+        volatile View view = new View(new int[2], new byte[2], 0);
+
+        // Only called under the index write lock, with increasing ordinals
+        void add(int ordinal, int frequency) {
+            View current = view;
+            int[] ordinals = current.ordinals;
+            byte[] frequencies = current.frequencies;
+            int size = current.size;
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size + (size >> 1) + 1);
+                frequencies = Arrays.copyOf(frequencies, ordinals.length);
+            }
+            ordinals[size] = ordinal;
+            frequencies[size] = (byte) Math.min(frequency, 255);
+            view = new View(ordinals, frequencies, size + 1);
+        }
+    }
+
+    private static final class TermCursor {
+        private final View view;
+        private final int end;
+        private final float idf;
+        private int position;
+
+        TermCursor(View view, int docCount) {
+            this.view = view;
+            // Ignore ordinals of documents published after our snapshot
+            int end = view.size;
+            while (end > 0 && view.ordinals[end - 1] >= docCount) {
+                end--;
+            }
+            this.end = end;
+            this.idf = (float) Math.log(1 + (docCount - end + 0.5) / (end + 0.5));
+        }
+
+        boolean hasCurrent() {
+            return position < end;
+        }
+
+        int ordinal() {
+            return view.ordinals[position];
+        }
+
+        int frequency() {
+            return view.frequencies[position] & 0xFF;
+        }
+
+        void advance() {
+            position++;
+        }
+    }
+}
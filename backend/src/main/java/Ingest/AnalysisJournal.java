@@ -0,0 +1,235 @@
+package Ingest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+// Append-only journal of memory-mapped segment files (segment-<seq>.log, segmentBytes each).
+// A record is [length:int][crc32:int][appendedAt:long][payload]; the length goes in last, so a record cut
+// short by a crash still reads as the end of the segment. Records reach the page cache as soon as append
+// returns, so they survive a crash of the process; force() also makes them survive the machine.
+// The position up to which records have been consumed is kept in a separate mapped checkpoint file,
+// and segments entirely before it are deleted.
+public final class AnalysisJournal implements Closeable {
+
+    static final int HEADER_BYTES = 16;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    private final MappedByteBuffer checkpointFile;
+
+    private long writeSeq;
+    private MappedByteBuffer writeSegment;
+    // Published after each record is complete; readers never look past it
+    private volatile Position end;
+    private volatile Position checkpoint;
+
+    // Where a record starts; immutable
+    public static final class Position {
+        final long seq;
+        final int offset;
+
+        Position(long seq, int offset) {
+            this.seq = seq;
+            this.offset = offset;
+        }
+    }
+
+    public static final class Record {
+        public final byte[] payload;
+        public final long appendedAt;
+        // Position of the record after this one
+        public final Position next;
+
+        Record(byte[] payload, long appendedAt, Position next) {
+            this.payload = payload;
+            this.appendedAt = appendedAt;
+            this.next = next;
+        }
+    }
+
+    private AnalysisJournal(Path dir, int segmentBytes) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.checkpointFile = map(dir.resolve("checkpoint"), 16);
+    }
+
+    // Maps the existing segments and finds where the last one ends
+    public static AnalysisJournal open(Path dir, int segmentBytes) throws IOException {
+        Files.createDirectories(dir);
+        AnalysisJournal journal = new AnalysisJournal(dir, segmentBytes);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "segment-*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long seq = Long.parseLong(name.substring("segment-".length(), name.length() - ".log".length()));
+                journal.segments.put(seq, map(file, (int) Math.max(Files.size(file), segmentBytes)));
+            }
+        }
+        Position saved = new Position(journal.checkpointFile.getLong(0), journal.checkpointFile.getInt(8));
+        if (journal.segments.isEmpty()) {
+            saved = new Position(Math.max(saved.seq, 0), 0);
+            journal.segments.put(saved.seq, map(journal.segmentPath(saved.seq), segmentBytes));
+        } else if (!journal.segments.containsKey(saved.seq)) {
+            // Never checkpointed, or the checkpointed segment is gone: everything left is unconsumed
+            saved = new Position(journal.segments.firstKey(), 0);
+        }
+        journal.checkpoint = saved;
+        journal.writeSeq = journal.segments.lastKey();
+        journal.writeSegment = journal.segments.get(journal.writeSeq);
+        int offset = 0;
+        while (journal.recordAt(journal.writeSegment, offset) != null) {
+            offset += HEADER_BYTES + journal.writeSegment.getInt(offset);
+        }
+        journal.end = new Position(journal.writeSeq, offset);
+        return journal;
+    }
+
+    // Largest payload one segment can hold
+    public int maxPayloadBytes() {
+        return segmentBytes - HEADER_BYTES;
+    }
+
+    public synchronized void append(byte[] payload) throws IOException {
+        if (payload.length > maxPayloadBytes()) {
+            throw new IllegalArgumentException("Record of " + payload.length + " bytes exceeds the segment size");
+        }
+        int offset = end.offset;
+        if (offset + HEADER_BYTES + payload.length > writeSegment.capacity()) {
+            writeSegment.force();
+            writeSeq++;
+            writeSegment = map(segmentPath(writeSeq), segmentBytes);
+            segments.put(writeSeq, writeSegment);
+            offset = 0;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        MappedByteBuffer segment = writeSegment;
+        segment.putInt(offset + 4, (int) crc.getValue());
+        segment.putLong(offset + 8, System.currentTimeMillis());
+        ByteBuffer body = segment.duplicate();
+        // Through Buffer: ByteBuffer.position(int) does not exist on Java 8
+        ((Buffer) body).position(offset + HEADER_BYTES);
+        body.put(payload);
+        segment.putInt(offset, payload.length);
+        end = new Position(writeSeq, offset + HEADER_BYTES + payload.length);
+    }
+
+    // Up to max records from the given position on; the last record's next is where to continue
+    public List<Record> read(Position from, int max) {
+        List<Record> records = new ArrayList<>();
+        Position at = from;
+        while (records.size() < max) {
+            Position limit = end;
+            MappedByteBuffer segment = segment(at.seq);
+            if (segment == null) {
+                break;
+            }
+            if (at.seq == limit.seq && at.offset >= limit.offset) {
+                break;
+            }
+            Record record = at.offset + HEADER_BYTES <= segment.capacity() ? recordAt(segment, at.offset) : null;
+            if (record == null) {
+                if (at.seq >= limit.seq) {
+                    break;
+                }
+                // The writer moved on to the next segment
+                at = new Position(at.seq + 1, 0);
+                continue;
+            }
+            at = new Position(at.seq, at.offset + HEADER_BYTES + record.payload.length);
+            records.add(new Record(record.payload, record.appendedAt, at));
+        }
+        return records;
+    }
+
+    // Record at offset, or null at the end of the written part (zero length or a torn record)
+    private Record recordAt(MappedByteBuffer segment, int offset) {
+        if (offset + HEADER_BYTES > segment.capacity()) {
+            return null;
+        }
+        int length = segment.getInt(offset);
+        if (length <= 0 || offset + HEADER_BYTES + length > segment.capacity()) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        ByteBuffer body = segment.duplicate();
+        ((Buffer) body).position(offset + HEADER_BYTES);
+        body.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, length);
+        if ((int) crc.getValue() != segment.getInt(offset + 4)) {
+            return null;
+        }
+        return new Record(payload, segment.getLong(offset + 8), null);
+    }
+
+    public Position checkpoint() {
+        return checkpoint;
+    }
+
+    // Everything before position has been consumed; drops the segments that are now entirely behind it
+    public void checkpoint(Position position) throws IOException {
+        synchronized (checkpointFile) {
+            checkpointFile.putLong(0, position.seq);
+            checkpointFile.putInt(8, position.offset);
+            checkpoint = position;
+        }
+        List<Long> done = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<Long, MappedByteBuffer> e : segments.headMap(position.seq, false).entrySet()) {
+                done.add(e.getKey());
+            }
+            for (Long seq : done) {
+                segments.remove(seq);
+            }
+        }
+        // Unmapped when collected; on Linux and macOS the file can go before that
+        for (Long seq : done) {
+            Files.deleteIfExists(segmentPath(seq));
+        }
+    }
+
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    // Flushes written records and the checkpoint to the disk
+    public synchronized void force() {
+        writeSegment.force();
+        checkpointFile.force();
+    }
+
+    @Override
+    public void close() {
+        force();
+    }
+
+    private synchronized MappedByteBuffer segment(long seq) {
+        return segments.get(seq);
+    }
+
+    private Path segmentPath(long seq) {
+        return dir.resolve(String.format("segment-%020d.log", seq));
+    }
+
+    private static MappedByteBuffer map(Path file, int bytes) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+             FileChannel channel = raf.getChannel()) {
+            // A new file is extended with zeros, which read as "no record here"
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(bytes, raf.length()));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package Ingest;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Session;
+
+import Entity.ScreenshotAnalysis;
+
+// Writes analyses with one multi-row "INSERT ... ON CONFLICT DO NOTHING" per batch.
+// Goes straight to JDBC: the IDENTITY ids of ScreenshotAnalysis keep Hibernate from batching inserts itself.
+public class BulkAnalysisWriter {
+
+    public static final int BATCH_SIZE = 1000;
+    // screenshot_analysis.image_uri is a varchar(255)
+    public static final int MAX_IMAGE_URI_LENGTH = 255;
+
+    private static final String[] GENERATED_COLUMNS = {"id", "owner_key", "image_uri"};
+    private static final String FULL_BATCH_SQL = insertSql(BATCH_SIZE);
+
+    // Why the database would refuse the analysis, or null when it can be stored. Checked before an analysis is
+    // accepted, so that one bad item fails on its own instead of taking its whole batch down with it.
+    public static String invalidReason(ScreenshotAnalysis analysis) {
+        if (analysis == null || analysis.getImageUri() == null || analysis.getImageUri().isEmpty()) {
+            return "imageUri is required";
+        }
+        String uri = analysis.getImageUri();
+        if (uri.codePointCount(0, uri.length()) > MAX_IMAGE_URI_LENGTH) {
+            return "imageUri is longer than " + MAX_IMAGE_URI_LENGTH + " characters";
+        }
+        return null;
+    }
+
+    // Inserts the batch and returns key() -> generated id for the rows that were actually created.
+    // Rows whose owner already stored their imageUri (or repeated inside the batch) are skipped by the database.
+    public static Map<String, Long> insertIgnoringExisting(Session session, List<ScreenshotAnalysis> batch) {
+        Map<String, ScreenshotAnalysis> distinct = new LinkedHashMap<>();
+        for (ScreenshotAnalysis analysis : batch) {
+            distinct.putIfAbsent(analysis.key(), analysis);
+        }
+        if (distinct.isEmpty()) {
+            return new HashMap<>();
+        }
+
+        List<ScreenshotAnalysis> rows = new ArrayList<>(distinct.values());
+        Map<String, Long> created = new HashMap<>();
+        session.doWork(connection -> {
+            for (int from = 0; from < rows.size(); from += BATCH_SIZE) {
+                insertChunk(connection, rows.subList(from, Math.min(rows.size(), from + BATCH_SIZE)), created);
+            }
+        });
+        return created;
+    }
+
+    private static void insertChunk(Connection connection, List<ScreenshotAnalysis> rows, Map<String, Long> created)
+            throws java.sql.SQLException {
+        String sql = rows.size() == BATCH_SIZE ? FULL_BATCH_SQL : insertSql(rows.size());
+        try (PreparedStatement ps = connection.prepareStatement(sql, GENERATED_COLUMNS)) {
+            int i = 1;
+            for (ScreenshotAnalysis row : rows) {
+                ps.setString(i++, row.getImageUri());
+                ps.setString(i++, row.getDescription());
+                ps.setString(i++, row.getDescription_en());
+                ps.setString(i++, row.getTags());
+                ps.setString(i++, row.getTags_en());
+                if (row.getCreationTime() != null) {
+                    ps.setLong(i++, row.getCreationTime());
+                } else {
+                    ps.setNull(i++, Types.BIGINT);
+                }
+                if (row.getOwnerId() != null) {
+                    ps.setLong(i++, row.getOwnerId());
+                } else {
+                    ps.setNull(i++, Types.BIGINT);
+                }
+                ps.setLong(i++, row.getOwnerKey());
+            }
+            ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                while (keys.next()) {
+                    created.put(ScreenshotAnalysis.key(keys.getLong(2), keys.getString(3)), keys.getLong(1));
+                }
+            }
+        }
+    }
+
+    private static String insertSql(int rows) {
+        StringBuilder sql = new StringBuilder(150 + rows * 26);
+        sql.append("INSERT INTO screenshot_analysis (image_uri, description, description_en, tags, tags_en, creation_time, owner_id, owner_key) VALUES ");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) sql.append(", ");
+            sql.append("(?, ?, ?, ?, ?, ?, ?, ?)");
+        }
+        // No conflict target: the only unique key besides the id is uk_analysis_owner_uri, on the plain table
+        // and on the partitioned one (db/partition_screenshot_analysis.sql) alike
+        sql.append(" ON CONFLICT DO NOTHING");
+        return sql.toString();
+    }
+}
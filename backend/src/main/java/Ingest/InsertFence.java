@@ -0,0 +1,121 @@
+package Ingest;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.SharedSessionContract;
+
+import Config.Settings;
+
+// How far the analysis ids are settled. The identity column hands out an id at INSERT, but the row only
+// becomes visible at COMMIT, so a batch still in its transaction can hold ids below a row that another
+// transaction has already committed. Every transaction that inserts analyses holds a Ticket from before its
+// first INSERT until after its commit or rollback; settled() is an id below which no insert is in flight, so
+// every row at or under it that will ever be visible is visible now.
+// Ids handed out after a ticket is taken are above every id handed out before it, as the identity sequence
+// does not cache values across connections.
+// Tickets only cover this process's transactions. With server.instances above 1 the others' are invisible,
+// so settled() is instead the highest id that was already visible sync.settleMs ago, and no higher than the
+// tickets allow: an id handed out before then belongs to a transaction that has ended since, as long as
+// no insert transaction takes longer than sync.settleMs.
+public final class InsertFence {
+
+    private static final boolean ONLY_WRITER = Settings.get().getInt("server.instances", 1) <= 1;
+    private static final long SETTLE_NANOS = TimeUnit.MILLISECONDS.toNanos(
+            Settings.get().getLong("sync.settleMs", 5000));
+
+    // Highest id known to have been handed out; 0 until the first sync reads it from the table
+    private static final AtomicLong highest = new AtomicLong();
+    private static volatile boolean loaded;
+
+    private static final AtomicLong tickets = new AtomicLong();
+    // ticket -> lowest id its transaction can hold; ascending in both, so the first entry is the lowest
+    private static final ConcurrentSkipListMap<Long, Long> inFlight = new ConcurrentSkipListMap<>();
+    // Several instances only: {System.nanoTime(), MAX(id)} samples, oldest first, at most one per
+    // settleMs / 10
+    private static final Deque<long[]> samples = new ArrayDeque<>();
+
+    private InsertFence() {
+    }
+
+    // Take before the transaction's first INSERT
+    public static Ticket begin() {
+        long ticket = tickets.incrementAndGet();
+        inFlight.put(ticket, highest.get() + 1);
+        return new Ticket(ticket);
+    }
+
+    // Every row with an id at or under the returned one is committed or never will be. Read it before the
+    // query that relies on it.
+    public static long settled(SharedSessionContract session) {
+        long settled;
+        if (ONLY_WRITER) {
+            if (!loaded) {
+                raise(maxId(session));
+                loaded = true;
+            }
+            // The highest id first: a ticket taken after this read can only get ids above it
+            settled = highest.get();
+        } else {
+            settled = sampled(session);
+        }
+        Map.Entry<Long, Long> oldest = inFlight.firstEntry();
+        return oldest == null ? settled : Math.min(settled, oldest.getValue() - 1);
+    }
+
+    // The newest sample at least settleMs old, or 0 until the first one is
+    private static long sampled(SharedSessionContract session) {
+        long now = System.nanoTime();
+        synchronized (samples) {
+            long[] last = samples.peekLast();
+            if (last == null || now - last[0] >= SETTLE_NANOS / 10) {
+                long max = maxId(session);
+                // Tickets taken from now on start above every id visible here
+                raise(max);
+                samples.addLast(new long[] {now, max});
+            }
+            while (samples.size() > 1) {
+                long[] oldest = samples.pollFirst();
+                if (now - samples.peekFirst()[0] < SETTLE_NANOS) {
+                    samples.addFirst(oldest);
+                    break;
+                }
+            }
+            long[] oldest = samples.peekFirst();
+            return now - oldest[0] >= SETTLE_NANOS ? oldest[1] : 0;
+        }
+    }
+
+    private static long maxId(SharedSessionContract session) {
+        Long max = session.createQuery("SELECT MAX(a.id) FROM ScreenshotAnalysis a", Long.class)
+                .getSingleResult();
+        return max == null ? 0 : max;
+    }
+
+    private static void raise(long id) {
+        long current;
+        while ((current = highest.get()) < id) {
+            if (highest.compareAndSet(current, id)) {
+                return;
+            }
+        }
+    }
+
+    public static final class Ticket {
+        private final long ticket;
+
+        private Ticket(long ticket) {
+            this.ticket = ticket;
+        }
+
+        // After the commit or rollback, with the highest id the transaction inserted (0 for none)
+        public void end(long highestId) {
+            raise(highestId);
+            inFlight.remove(ticket);
+        }
+    }
+}
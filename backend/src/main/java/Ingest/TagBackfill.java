@@ -0,0 +1,172 @@
+package Ingest;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+import Config.Settings;
+import Entity.BackfillProgress;
+import Entity.ScreenshotAnalysis;
+import Index.TagStore;
+
+// Links analyses stored before the tag tables existed, in id order, batchSize rows per short transaction.
+// Reads are plain (no row locks) and the checkpoint commits with each batch, so writers are never blocked for
+// long and a restart resumes after the last committed batch. New analyses are linked by their writers.
+// Then recounts the links of every tag, batchSize tags per transaction, for links written before tags carried
+// their count; those tag rows are locked only for their batch.
+public class TagBackfill implements Runnable {
+
+    public static final String NAME = "analysis_tags";
+    public static final String COUNTS = "tag_counts";
+
+    private static volatile BackfillProgress progress;
+
+    private final SessionFactory sessionFactory;
+    private final int batchSize;
+    private final long pauseMs;
+
+    public TagBackfill(SessionFactory sessionFactory, int batchSize, long pauseMs) {
+        this.sessionFactory = sessionFactory;
+        this.batchSize = batchSize;
+        this.pauseMs = pauseMs;
+    }
+
+    // Marks TagStore ready right away when earlier runs finished both steps, otherwise backfills on a daemon
+    // thread
+    public static void start(SessionFactory sessionFactory, Settings settings) {
+        if (!settings.getBoolean("tags.backfill.enabled", true)) {
+            return;
+        }
+        TagBackfill backfill = new TagBackfill(sessionFactory,
+                settings.getInt("tags.backfill.batchSize", 1000), settings.getLong("tags.backfill.pauseMs", 50));
+        BackfillProgress saved = backfill.load(NAME);
+        if (saved.isCompleted() && backfill.load(COUNTS).isCompleted()) {
+            progress = saved;
+            TagStore.setReady(true);
+            return;
+        }
+        Thread thread = new Thread(backfill, "tag-backfill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Last committed checkpoint, or null before the backfill has started
+    public static BackfillProgress progress() {
+        return progress;
+    }
+
+    @Override
+    public void run() {
+        long start = System.currentTimeMillis();
+        long linked = 0;
+        try {
+            BackfillProgress current = load(NAME);
+            progress = current;
+            if (!current.isCompleted()) {
+                System.out.println("Tag backfill starting after analysis id " + current.getLastId());
+            }
+            while (!current.isCompleted()) {
+                int rows = nextBatch(current);
+                linked += rows;
+                current = load(NAME);
+                progress = current;
+                if (rows > 0 && pauseMs > 0) {
+                    Thread.sleep(pauseMs);
+                }
+            }
+            BackfillProgress counts = load(COUNTS);
+            while (!counts.isCompleted()) {
+                nextCounts(counts);
+                counts = load(COUNTS);
+                if (!counts.isCompleted() && pauseMs > 0) {
+                    Thread.sleep(pauseMs);
+                }
+            }
+            TagStore.setReady(true);
+            System.out.println("Tag backfill completed: " + linked + " analyses linked in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            // Tag reads stay on the in-memory index; the next start resumes from the checkpoint
+            System.err.println("Tag backfill stopped after " + linked + " analyses: " + e.getMessage());
+        }
+    }
+
+    private BackfillProgress load(String name) {
+        try (Session session = sessionFactory.openSession()) {
+            BackfillProgress saved = session.get(BackfillProgress.class, name);
+            return saved != null ? saved : new BackfillProgress(name);
+        }
+    }
+
+    // The checkpoint row, created on first use, for the caller's transaction to update
+    private static BackfillProgress checkpoint(Session session, String name) {
+        BackfillProgress checkpoint = session.get(BackfillProgress.class, name);
+        if (checkpoint == null) {
+            checkpoint = new BackfillProgress(name);
+            session.persist(checkpoint);
+        }
+        return checkpoint;
+    }
+
+    // Links the next batch and moves the checkpoint in the same transaction; returns the rows linked
+    private int nextBatch(BackfillProgress current) {
+        try (Session session = sessionFactory.openSession()) {
+            session.setCacheMode(CacheMode.IGNORE);
+            Transaction tx = session.beginTransaction();
+            try {
+                List<ScreenshotAnalysis> batch = session.createQuery(
+                        "FROM ScreenshotAnalysis a WHERE a.id > :last ORDER BY a.id", ScreenshotAnalysis.class)
+                        .setParameter("last", current.getLastId())
+                        .setMaxResults(batchSize)
+                        .setReadOnly(true)
+                        .getResultList();
+                Map<Long, ScreenshotAnalysis> byId = new LinkedHashMap<>();
+                for (ScreenshotAnalysis analysis : batch) {
+                    byId.put(analysis.getId(), analysis);
+                }
+                TagStore.link(session, byId);
+
+                BackfillProgress checkpoint = checkpoint(session, NAME);
+                if (batch.isEmpty()) {
+                    checkpoint.setCompleted(true);
+                } else {
+                    checkpoint.setLastId(Math.max(checkpoint.getLastId(), batch.get(batch.size() - 1).getId()));
+                }
+                checkpoint.setUpdatedAt(System.currentTimeMillis());
+                tx.commit();
+                return batch.size();
+            } catch (RuntimeException e) {
+                tx.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // Recounts the next batch of tags and moves the checkpoint in the same transaction
+    private void nextCounts(BackfillProgress current) {
+        try (Session session = sessionFactory.openSession()) {
+            Transaction tx = session.beginTransaction();
+            try {
+                Long last = TagStore.recount(session, current.getLastId(), batchSize);
+                BackfillProgress checkpoint = checkpoint(session, COUNTS);
+                if (last == null) {
+                    checkpoint.setCompleted(true);
+                } else {
+                    checkpoint.setLastId(Math.max(checkpoint.getLastId(), last));
+                }
+                checkpoint.setUpdatedAt(System.currentTimeMillis());
+                tx.commit();
+            } catch (RuntimeException e) {
+                tx.rollback();
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package Ingest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import Config.Settings;
+import Entity.ScreenshotAnalysis;
+import Index.AnalysisIndexes;
+import Index.TagStore;
+import Metrics.LatencyHistogram;
+import Servlets.Json;
+
+// ingest.mode=journal: POST /analyze appends the analysis to an AnalysisJournal and answers 202 at once;
+// one background thread drains the journal into the database in batches of up to batchSize, each batch
+// one multi-row INSERT ... ON CONFLICT DO NOTHING plus its tag links in one transaction. The checkpoint only
+// moves after the commit, so records replayed after a crash are skipped by the database as duplicates.
+// Accepted analyses stay visible to their owner's reads by imageUri until they are stored.
+// A batch the database cannot reach is retried with backoff. A batch it refuses for its data is written again
+// one record at a time; a record refused on its own is parked in rejected.ndjson next to the journal and
+// passed over, so that it never holds up the records behind it.
+public final class WriteBehindIngest implements Runnable {
+
+    public enum Outcome { ACCEPTED, PENDING, FULL }
+
+    private static volatile WriteBehindIngest instance;
+
+    private final SessionFactory sessionFactory;
+    private final AnalysisJournal journal;
+    private final Path rejectedFile;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final long maxPendingRecords;
+    private final ObjectWriter writer = Json.writer(ScreenshotAnalysis.class);
+    private final ObjectReader reader = Json.reader(ScreenshotAnalysis.class);
+
+    // ScreenshotAnalysis.key() -> accepted analysis, until its batch is committed
+    private final ConcurrentHashMap<String, ScreenshotAnalysis> pending = new ConcurrentHashMap<>();
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong drained = new AtomicLong();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LatencyHistogram batchTimes = new LatencyHistogram();
+    private final Object signal = new Object();
+
+    private WriteBehindIngest(SessionFactory sessionFactory, AnalysisJournal journal, Path rejectedFile,
+                              Settings settings) {
+        this.sessionFactory = sessionFactory;
+        this.journal = journal;
+        this.rejectedFile = rejectedFile;
+        this.batchSize = settings.getInt("ingest.journal.batchSize", BulkAnalysisWriter.BATCH_SIZE);
+        this.flushIntervalMs = settings.getLong("ingest.journal.flushIntervalMs", 100);
+        this.maxPendingRecords = settings.getLong("ingest.journal.maxPendingRecords", 1000000);
+    }
+
+    // Null unless ingest.mode=journal
+    public static WriteBehindIngest get() {
+        return instance;
+    }
+
+    // Replays what the journal holds beyond its checkpoint, then starts draining
+    public static void start(SessionFactory sessionFactory, Settings settings) throws IOException {
+        if (!"journal".equalsIgnoreCase(settings.get("ingest.mode", "sync"))) {
+            return;
+        }
+        Path dir = Paths.get(settings.get("ingest.journal.dir", "journal"));
+        AnalysisJournal journal = AnalysisJournal.open(dir,
+                settings.getInt("ingest.journal.segmentBytes", 64 * 1024 * 1024));
+        WriteBehindIngest ingest = new WriteBehindIngest(sessionFactory, journal, dir.resolve("rejected.ndjson"),
+                settings);
+        int replayed = ingest.replay();
+        if (replayed > 0) {
+            System.out.println("Replaying " + replayed + " journaled analyses");
+        }
+        instance = ingest;
+
+        Thread drainer = new Thread(ingest, "ingest-drain");
+        drainer.setDaemon(true);
+        drainer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(journal::close, "ingest-journal-close"));
+    }
+
+    private int replay() {
+        int count = 0;
+        AnalysisJournal.Position at = journal.checkpoint();
+        List<AnalysisJournal.Record> records;
+        while (!(records = journal.read(at, batchSize)).isEmpty()) {
+            for (AnalysisJournal.Record record : records) {
+                ScreenshotAnalysis analysis = decode(record);
+                if (analysis != null) {
+                    pending.put(analysis.key(), analysis);
+                }
+                count++;
+                pendingBytes.addAndGet(record.payload.length);
+            }
+            at = records.get(records.size() - 1).next;
+        }
+        appended.set(count);
+        return count;
+    }
+
+    // Journals the analysis unless its owner's same imageUri is already waiting to be stored
+    public Outcome accept(ScreenshotAnalysis analysis) throws IOException {
+        if (getPendingRecords() >= maxPendingRecords) {
+            return Outcome.FULL;
+        }
+        if (pending.putIfAbsent(analysis.key(), analysis) != null) {
+            return Outcome.PENDING;
+        }
+        byte[] payload = encode(analysis);
+        try {
+            journal.append(payload);
+        } catch (IOException | RuntimeException e) {
+            pending.remove(analysis.key());
+            throw e;
+        }
+        appended.incrementAndGet();
+        pendingBytes.addAndGet(payload.length);
+        if (getPendingRecords() >= batchSize) {
+            synchronized (signal) {
+                signal.notifyAll();
+            }
+        }
+        return Outcome.ACCEPTED;
+    }
+
+    // An accepted analysis that is not stored yet, by ScreenshotAnalysis.key()
+    public ScreenshotAnalysis pending(String key) {
+        return pending.get(key);
+    }
+
+    @Override
+    public void run() {
+        long backoffMs = 0;
+        while (true) {
+            try {
+                if (backoffMs > 0) {
+                    Thread.sleep(backoffMs);
+                }
+                // Let records gather for flushIntervalMs unless a full batch is already waiting
+                if (getPendingRecords() < batchSize) {
+                    synchronized (signal) {
+                        signal.wait(flushIntervalMs);
+                    }
+                }
+                while (drainBatch()) {
+                    backoffMs = 0;
+                }
+                backoffMs = 0;
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException | IOException e) {
+                // Database unavailable, or a rejected record could not be parked: the records stay journaled
+                // and are retried
+                failures.increment();
+                backoffMs = Math.min(30000, Math.max(500, backoffMs * 2));
+                System.err.println("Journal drain failed, retrying in " + backoffMs + " ms: " + e.getMessage());
+            }
+        }
+    }
+
+    // Stores one batch; false when there was nothing to drain
+    private boolean drainBatch() throws IOException {
+        List<AnalysisJournal.Record> records = journal.read(journal.checkpoint(), batchSize);
+        if (records.isEmpty()) {
+            return false;
+        }
+        long start = System.nanoTime();
+        Map<String, ScreenshotAnalysis> batch = new LinkedHashMap<>();
+        long bytes = 0;
+        for (AnalysisJournal.Record record : records) {
+            ScreenshotAnalysis analysis = decode(record);
+            if (analysis != null) {
+                batch.putIfAbsent(analysis.key(), analysis);
+            }
+            bytes += record.payload.length;
+        }
+
+        int createdCount;
+        try {
+            Map<Long, ScreenshotAnalysis> createdRows = store(batch.values());
+            AnalysisIndexes.onSaved(createdRows);
+            createdCount = createdRows.size();
+        } catch (RuntimeException e) {
+            if (!refusesData(e)) {
+                throw e;
+            }
+            createdCount = storeOneByOne(batch.values());
+        }
+        journal.checkpoint(records.get(records.size() - 1).next);
+        // Indexes and the checkpoint come first, so a read by imageUri finds the analysis somewhere throughout
+        for (String key : batch.keySet()) {
+            pending.remove(key);
+        }
+
+        created.add(createdCount);
+        pendingBytes.addAndGet(-bytes);
+        drained.addAndGet(records.size());
+        batchTimes.recordNanos(System.nanoTime() - start);
+        return true;
+    }
+
+    // One transaction: the rows, then their tag links. Returns id -> analysis for the rows created.
+    private Map<Long, ScreenshotAnalysis> store(Collection<ScreenshotAnalysis> analyses) {
+        Map<Long, ScreenshotAnalysis> createdRows = new LinkedHashMap<>();
+        InsertFence.Ticket ticket = InsertFence.begin();
+        try (Session session = sessionFactory.openSession()) {
+            Transaction tx = session.beginTransaction();
+            try {
+                Map<String, Long> createdIds = BulkAnalysisWriter.insertIgnoringExisting(session,
+                        new ArrayList<>(analyses));
+                for (ScreenshotAnalysis analysis : analyses) {
+                    Long id = createdIds.get(analysis.key());
+                    if (id != null) {
+                        createdRows.put(id, analysis);
+                    }
+                }
+                TagStore.link(session, createdRows);
+                tx.commit();
+            } catch (RuntimeException e) {
+                if (tx.isActive()) {
+                    tx.rollback();
+                }
+                throw e;
+            }
+            // Rows went in over JDBC; cached query results may predate them
+            sessionFactory.getCache().evictQueryRegions();
+        } finally {
+            ticket.end(createdRows.isEmpty() ? 0 : Collections.max(createdRows.keySet()));
+        }
+        return createdRows;
+    }
+
+    // After the database refused a batch: each record in a transaction of its own, so that only the ones it
+    // refuses by themselves are parked. Each stored record reaches the indexes at once, as a retry after an
+    // outage half-way through would find it existing. Returns how many were created.
+    private int storeOneByOne(Collection<ScreenshotAnalysis> analyses) throws IOException {
+        int createdCount = 0;
+        for (ScreenshotAnalysis analysis : analyses) {
+            try {
+                Map<Long, ScreenshotAnalysis> createdRows = store(Collections.singletonList(analysis));
+                AnalysisIndexes.onSaved(createdRows);
+                createdCount += createdRows.size();
+            } catch (RuntimeException e) {
+                if (!refusesData(e)) {
+                    throw e;
+                }
+                park(analysis, e);
+            }
+        }
+        return createdCount;
+    }
+
+    // SQLSTATE class 22 (data exception: too long, out of range, invalid characters) or 23 (integrity
+    // constraint: e.g. an owner deleted since): the same record will be refused every time. Anything else,
+    // connection failures and timeouts among them, may pass on a retry.
+    private static boolean refusesData(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException) {
+                String state = ((SQLException) t).getSQLState();
+                if (state != null && (state.startsWith("22") || state.startsWith("23"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Appends the record to rejected.ndjson, with the owner and the reason, before the checkpoint passes it
+    private void park(ScreenshotAnalysis analysis, RuntimeException e) throws IOException {
+        String reason = e.getMessage();
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException) {
+                reason = t.getMessage();
+            }
+        }
+        ObjectNode line = Json.mapper().createObjectNode();
+        line.put("rejectedAt", System.currentTimeMillis());
+        line.put("reason", reason);
+        line.put("ownerId", analysis.getOwnerId());
+        line.set("analysis", Json.mapper().valueToTree(analysis));
+        byte[] bytes = (Json.mapper().writeValueAsString(line) + "\n").getBytes(StandardCharsets.UTF_8);
+        Files.write(rejectedFile, bytes, StandardOpenOption.CREATE, StandardOpenOption.APPEND,
+                StandardOpenOption.DSYNC);
+        rejected.increment();
+        System.err.println("Journal record for " + analysis.getImageUri() + " refused by the database, parked in "
+                + rejectedFile + ": " + reason);
+    }
+
+    // [ownerId:long, 0 for none][JSON]: the owner is not part of the analysis JSON
+    private byte[] encode(ScreenshotAnalysis analysis) throws IOException {
+        byte[] json = writer.writeValueAsBytes(analysis);
+        Long owner = analysis.getOwnerId();
+        return ByteBuffer.allocate(8 + json.length).putLong(owner == null ? 0 : owner).put(json).array();
+    }
+
+    private ScreenshotAnalysis decode(AnalysisJournal.Record record) {
+        if (record.payload.length < 8) {
+            System.err.println("Skipping truncated journal record");
+            return null;
+        }
+        try {
+            long owner = ByteBuffer.wrap(record.payload).getLong();
+            ScreenshotAnalysis analysis = reader.readValue(record.payload, 8, record.payload.length - 8);
+            analysis.setOwnerId(owner == 0 ? null : owner);
+            return analysis.getImageUri() == null ? null : analysis;
+        } catch (IOException e) {
+            System.err.println("Skipping unreadable journal record: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // The drainer can count a record before its writer has; never report less than nothing
+    public long getPendingRecords() {
+        return Math.max(0, appended.get() - drained.get());
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    // Age of the oldest record not yet stored, 0 when the journal is drained
+    public long getLagMillis() {
+        List<AnalysisJournal.Record> oldest = journal.read(journal.checkpoint(), 1);
+        return oldest.isEmpty() ? 0 : Math.max(0, System.currentTimeMillis() - oldest.get(0).appendedAt);
+    }
+
+    public long getDrainedRecords() {
+        return drained.get();
+    }
+
+    public long getCreatedRecords() {
+        return created.sum();
+    }
+
+    public long getDrainFailures() {
+        return failures.sum();
+    }
+
+    // Records the database refused, parked in rejected.ndjson
+    public long getRejectedRecords() {
+        return rejected.sum();
+    }
+
+    public int getSegments() {
+        return journal.segmentCount();
+    }
+
+    public LatencyHistogram.Snapshot batchTimes() {
+        return batchTimes.snapshot();
+    }
+}
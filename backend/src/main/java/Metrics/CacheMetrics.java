@@ -0,0 +1,116 @@
+package Metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ToLongFunction;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
+// Hit, miss and put counts of the second-level cache from Hibernate's statistics, plus the number of
+// entries each Caffeine region currently holds, for sizing cache.<region>.maxEntries.
+// Counts stay at zero unless hibernate.generate_statistics=true.
+public class CacheMetrics implements CacheMetricsMXBean {
+
+    private final SessionFactory sessionFactory;
+    private final CacheManager cacheManager;
+
+    public CacheMetrics(SessionFactory sessionFactory, CacheManager cacheManager) {
+        this.sessionFactory = sessionFactory;
+        this.cacheManager = cacheManager;
+    }
+
+    public void registerMBean() {
+        Jmx.register(this, "blinko:type=SecondLevelCache");
+    }
+
+    private Statistics stats() {
+        return sessionFactory.getStatistics();
+    }
+
+    @Override
+    public long getHitCount() {
+        return stats().getSecondLevelCacheHitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return stats().getSecondLevelCacheMissCount();
+    }
+
+    @Override
+    public long getPutCount() {
+        return stats().getSecondLevelCachePutCount();
+    }
+
+    @Override
+    public long getNaturalIdHitCount() {
+        return stats().getNaturalIdCacheHitCount();
+    }
+
+    @Override
+    public long getNaturalIdMissCount() {
+        return stats().getNaturalIdCacheMissCount();
+    }
+
+    @Override
+    public long getQueryHitCount() {
+        return stats().getQueryCacheHitCount();
+    }
+
+    @Override
+    public long getQueryMissCount() {
+        return stats().getQueryCacheMissCount();
+    }
+
+    @Override
+    public Map<String, Long> getRegionHits() {
+        return perRegion(CacheRegionStatistics::getHitCount);
+    }
+
+    @Override
+    public Map<String, Long> getRegionMisses() {
+        return perRegion(CacheRegionStatistics::getMissCount);
+    }
+
+    @Override
+    public Map<String, Long> getRegionPuts() {
+        return perRegion(CacheRegionStatistics::getPutCount);
+    }
+
+    @Override
+    public Map<String, Long> getRegionSizes() {
+        Map<String, Long> sizes = new TreeMap<>();
+        if (cacheManager == null || cacheManager.isClosed()) {
+            return sizes;
+        }
+        for (String name : cacheManager.getCacheNames()) {
+            Cache<Object, Object> cache = cacheManager.getCache(name);
+            if (cache != null) {
+                sizes.put(name, cache.unwrap(com.github.benmanes.caffeine.cache.Cache.class).estimatedSize());
+            }
+        }
+        return sizes;
+    }
+
+    @Override
+    public void clear() {
+        stats().clear();
+    }
+
+    private Map<String, Long> perRegion(ToLongFunction<CacheRegionStatistics> value) {
+        Map<String, Long> result = new TreeMap<>();
+        Statistics stats = stats();
+        for (String region : stats.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics regionStats = stats.getCacheRegionStatistics(region);
+            if (regionStats != null) {
+                result.put(region, value.applyAsLong(regionStats));
+            }
+        }
+        return result;
+    }
+}
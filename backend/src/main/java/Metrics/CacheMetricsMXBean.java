@@ -0,0 +1,32 @@
+package Metrics;
+
+import java.util.Map;
+
+// JMX view of the Hibernate second-level cache, registered as blinko:type=SecondLevelCache.
+// Per-region maps are keyed by region name (see Config.CacheConfig).
+public interface CacheMetricsMXBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getPutCount();
+
+    long getNaturalIdHitCount();
+
+    long getNaturalIdMissCount();
+
+    long getQueryHitCount();
+
+    long getQueryMissCount();
+
+    Map<String, Long> getRegionHits();
+
+    Map<String, Long> getRegionMisses();
+
+    Map<String, Long> getRegionPuts();
+
+    Map<String, Long> getRegionSizes();
+
+    void clear();
+}
@@ -0,0 +1,25 @@
+package Metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public final class Jmx {
+
+    private Jmx() {}
+
+    // Re-registering replaces the previous instance, e.g. when DatabaseConfig is initialized again
+    public static void register(Object mbean, String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(mbean, objectName);
+        } catch (Exception e) {
+            System.err.println("Could not register MBean " + name + ": " + e.getMessage());
+        }
+    }
+}
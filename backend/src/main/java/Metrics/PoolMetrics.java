@@ -0,0 +1,94 @@
+package Metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+// Collects HikariCP callbacks: how long requests wait for a connection, how long they hold it, and timeouts
+public class PoolMetrics implements MetricsTrackerFactory, PoolMetricsMXBean {
+
+    private final LatencyHistogram acquire = new LatencyHistogram();
+    private final LatencyHistogram usage = new LatencyHistogram();
+    private final LongAdder timeouts = new LongAdder();
+    private volatile PoolStats stats;
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.stats = poolStats;
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquire.recordNanos(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                usage.recordMillis(elapsedBorrowedMillis);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+            }
+        };
+    }
+
+    public void registerMBean() {
+        Jmx.register(this, "blinko:type=ConnectionPool");
+    }
+
+    public LatencyHistogram.Snapshot acquireTimes() {
+        return acquire.snapshot();
+    }
+
+    public LatencyHistogram.Snapshot usageTimes() {
+        return usage.snapshot();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return stats == null ? 0 : stats.getActiveConnections();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return stats == null ? 0 : stats.getIdleConnections();
+    }
+
+    @Override
+    public int getPendingThreads() {
+        return stats == null ? 0 : stats.getPendingThreads();
+    }
+
+    @Override
+    public int getTotalConnections() {
+        return stats == null ? 0 : stats.getTotalConnections();
+    }
+
+    @Override
+    public long getAcquireCount() {
+        return acquire.snapshot().count();
+    }
+
+    @Override
+    public long getAcquireP50Micros() {
+        return acquire.snapshot().percentileMicros(0.50);
+    }
+
+    @Override
+    public long getAcquireP99Micros() {
+        return acquire.snapshot().percentileMicros(0.99);
+    }
+
+    @Override
+    public long getUsageP99Micros() {
+        return usage.snapshot().percentileMicros(0.99);
+    }
+
+    @Override
+    public long getConnectionTimeouts() {
+        return timeouts.sum();
+    }
+}
@@ -0,0 +1,23 @@
+package Metrics;
+
+// JMX view of the database pool, registered as blinko:type=ConnectionPool
+public interface PoolMetricsMXBean {
+
+    int getActiveConnections();
+
+    int getIdleConnections();
+
+    int getPendingThreads();
+
+    int getTotalConnections();
+
+    long getAcquireCount();
+
+    long getAcquireP50Micros();
+
+    long getAcquireP99Micros();
+
+    long getUsageP99Micros();
+
+    long getConnectionTimeouts();
+}
@@ -0,0 +1,98 @@
+package Metrics;
+
+// Builds a scrape in the Prometheus text exposition format (version 0.0.4).
+// Latencies are exported in seconds; label values are escaped as the format requires.
+public final class PrometheusText {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final StringBuilder out = new StringBuilder(32 * 1024);
+
+    // HELP and TYPE lines; call once per metric name, before its samples
+    public PrometheusText family(String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    // labels are name/value pairs
+    public PrometheusText sample(String name, double value, String... labels) {
+        out.append(name);
+        appendLabels(labels, null);
+        out.append(' ');
+        appendValue(value);
+        out.append('\n');
+        return this;
+    }
+
+    // Cumulative buckets, sum and count of a LatencyHistogram, in seconds. Every series gets the same
+    // bucket bounds so histogram_quantile() can aggregate across labels.
+    public PrometheusText histogram(String name, LatencyHistogram.Snapshot snapshot, String... labels) {
+        long cumulative = 0;
+        for (int i = 0; i < snapshot.buckets(); i++) {
+            cumulative += snapshot.bucketCount(i);
+            long bound = LatencyHistogram.upperBoundMicros(i);
+            out.append(name).append("_bucket");
+            appendLabels(labels, bound == Long.MAX_VALUE ? "+Inf" : Double.toString(bound / 1e6));
+            out.append(' ').append(cumulative).append('\n');
+        }
+        sample(name + "_sum", snapshot.sumMicros() / 1e6, labels);
+        sample(name + "_count", snapshot.count(), labels);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+    private void appendLabels(String[] labels, String le) {
+        if (labels.length == 0 && le == null) {
+            return;
+        }
+        out.append('{');
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(labels[i]).append("=\"");
+            appendEscaped(labels[i + 1]);
+            out.append('"');
+        }
+        if (le != null) {
+            if (labels.length > 0) {
+                out.append(',');
+            }
+            out.append("le=\"").append(le).append('"');
+        }
+        out.append('}');
+    }
+
+    private void appendEscaped(String value) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private void appendValue(double value) {
+        if (Double.isNaN(value)) {
+            out.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            out.append(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+    }
+}
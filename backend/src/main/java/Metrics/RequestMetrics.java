@@ -0,0 +1,95 @@
+package Metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Request counts by status code and latency histograms per endpoint and HTTP method, fed by
+// RequestMetricsFilter. Recording a request for an endpoint seen before takes no lock and allocates nothing.
+public class RequestMetrics {
+
+    private static final RequestMetrics instance = new RequestMetrics();
+
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE", "PATCH", "HEAD", "OPTIONS"};
+
+    // endpoint -> per-method stats, indexed like METHODS with "OTHER" last
+    private final ConcurrentHashMap<String, AtomicReferenceArray<Endpoint>> endpoints = new ConcurrentHashMap<>();
+
+    public static RequestMetrics get() {
+        return instance;
+    }
+
+    public void record(String endpoint, String method, int status, long nanos) {
+        AtomicReferenceArray<Endpoint> byMethod = endpoints.get(endpoint);
+        if (byMethod == null) {
+            byMethod = endpoints.computeIfAbsent(endpoint, e -> new AtomicReferenceArray<>(METHODS.length + 1));
+        }
+        int m = methodIndex(method);
+        Endpoint stats = byMethod.get(m);
+        if (stats == null) {
+            byMethod.compareAndSet(m, null, new Endpoint());
+            stats = byMethod.get(m);
+        }
+        stats.record(status, nanos);
+    }
+
+    // "endpoint method" -> stats, sorted for stable output
+    public Map<String, Endpoint> snapshot() {
+        Map<String, Endpoint> result = new TreeMap<>();
+        for (Map.Entry<String, AtomicReferenceArray<Endpoint>> e : endpoints.entrySet()) {
+            for (int m = 0; m <= METHODS.length; m++) {
+                Endpoint stats = e.getValue().get(m);
+                if (stats != null) {
+                    result.put(e.getKey() + " " + (m < METHODS.length ? METHODS[m] : "OTHER"), stats);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int methodIndex(String method) {
+        for (int i = 0; i < METHODS.length; i++) {
+            if (METHODS[i].equals(method)) {
+                return i;
+            }
+        }
+        return METHODS.length;
+    }
+
+    public static final class Endpoint {
+        private static final int MIN_STATUS = 100;
+        private static final int MAX_STATUS = 599;
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicReferenceArray<LongAdder> statuses = new AtomicReferenceArray<>(MAX_STATUS - MIN_STATUS + 1);
+
+        void record(int status, long nanos) {
+            latency.recordNanos(nanos);
+            int i = Math.max(MIN_STATUS, Math.min(MAX_STATUS, status)) - MIN_STATUS;
+            LongAdder count = statuses.get(i);
+            if (count == null) {
+                statuses.compareAndSet(i, null, new LongAdder());
+                count = statuses.get(i);
+            }
+            count.increment();
+        }
+
+        public LatencyHistogram.Snapshot latency() {
+            return latency.snapshot();
+        }
+
+        // status code -> requests
+        public Map<Integer, Long> statuses() {
+            Map<Integer, Long> result = new TreeMap<>();
+            for (int i = 0; i < statuses.length(); i++) {
+                LongAdder count = statuses.get(i);
+                if (count != null) {
+                    result.put(MIN_STATUS + i, count.sum());
+                }
+            }
+            return result;
+        }
+    }
+}
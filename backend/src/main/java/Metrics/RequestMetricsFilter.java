@@ -0,0 +1,93 @@
+package Metrics;
+
+import java.io.IOException;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletMapping;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import Config.Warmup;
+
+// Times every request into RequestMetrics, keyed by the servlet mapping it matched (not the raw URI, so
+// query strings and unknown paths cannot blow up the number of series). Requests that go async are
+// recorded when their AsyncContext completes. Warm-up requests at startup are not recorded.
+public class RequestMetricsFilter implements Filter {
+
+    private final RequestMetrics metrics;
+
+    public RequestMetricsFilter(RequestMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+        if (Warmup.handles(req)) {
+            chain.doFilter(req, res);
+            return;
+        }
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) res;
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            chain.doFilter(req, res);
+            failed = false;
+        } finally {
+            if (!failed && request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new Completion(request, start), req, res);
+            } else {
+                // An exception escaping the servlet becomes a 500 after this filter returns
+                metrics.record(endpoint(request), request.getMethod(),
+                        failed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : response.getStatus(),
+                        System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static String endpoint(HttpServletRequest request) {
+        HttpServletMapping mapping = request.getHttpServletMapping();
+        String pattern = mapping == null ? null : mapping.getPattern();
+        return pattern == null || pattern.isEmpty() ? "unmatched" : pattern;
+    }
+
+    private final class Completion implements AsyncListener {
+        private final String endpoint;
+        private final String method;
+        private final long start;
+
+        Completion(HttpServletRequest request, long start) {
+            this.endpoint = endpoint(request);
+            this.method = request.getMethod();
+            this.start = start;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            int status = ((HttpServletResponse) event.getSuppliedResponse()).getStatus();
+            metrics.record(endpoint, method, status, System.nanoTime() - start);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            // onComplete follows once the container has answered
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            // onComplete follows
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this, event.getSuppliedRequest(), event.getSuppliedResponse());
+        }
+    }
+}
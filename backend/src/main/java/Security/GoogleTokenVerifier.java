@@ -0,0 +1,231 @@
+package Security;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.api.client.auth.openidconnect.IdTokenVerifier;
+import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+
+import Config.Settings;
+
+// Verifies Google ID tokens without touching the network on the request path:
+// - tokens already verified are served from a bounded LRU cache keyed by SHA-256 of the token,
+//   each entry dropped once the token's own exp passes
+// - signing keys are refreshed in the background ahead of their expiry; a token signed with a key not
+//   fetched yet asks the background refresher for the keys now and is answered with KeysNotReadyException
+// - the key source is pluggable, so tests can point it at a local stand-in key server
+public class GoogleTokenVerifier {
+
+    private static volatile GoogleTokenVerifier instance;
+
+    private final JsonFactory jsonFactory = GsonFactory.getDefaultInstance();
+    private final ClaimsVerifier claims;
+    private final SigningKeySource keySource;
+    private final long refreshAheadMillis;
+    private final Map<String, GoogleIdToken.Payload> verified;
+    private final ScheduledExecutorService refresher;
+    private final AtomicLong lastRequestedRefresh = new AtomicLong();
+    // When the keys were last fetched successfully, in epoch millis; 0 before the first fetch
+    private volatile long keysFetchedAt;
+
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder keyRefreshFailures = new LongAdder();
+
+    public GoogleTokenVerifier(String clientId, Iterable<String> issuers, SigningKeySource keySource,
+                               int cacheSize, long refreshAheadMillis) {
+        IdTokenVerifier.Builder builder = new IdTokenVerifier.Builder()
+                .setAudience(Collections.singletonList(clientId));
+        List<String> issuerList = new ArrayList<>();
+        issuers.forEach(issuerList::add);
+        builder.setIssuers(issuerList);
+        this.claims = new ClaimsVerifier(builder);
+        this.keySource = keySource;
+        this.refreshAheadMillis = refreshAheadMillis;
+        this.verified = Collections.synchronizedMap(new LinkedHashMap<String, GoogleIdToken.Payload>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, GoogleIdToken.Payload> eldest) {
+                return size() > cacheSize;
+            }
+        });
+        this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "google-key-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static GoogleTokenVerifier get() {
+        GoogleTokenVerifier verifier = instance;
+        if (verifier == null) {
+            synchronized (GoogleTokenVerifier.class) {
+                if (instance == null) {
+                    Settings settings = Settings.get();
+                    instance = new GoogleTokenVerifier(
+                            settings.get("google.clientId", null),
+                            Arrays.asList(settings.get("google.issuers", "accounts.google.com,https://accounts.google.com").split(",")),
+                            new JwksKeySource(settings.get("google.certsUrl", "https://www.googleapis.com/oauth2/v3/certs")),
+                            settings.getInt("google.tokenCacheSize", 10000),
+                            settings.getLong("google.keyRefreshAheadSeconds", 600) * 1000L);
+                }
+                verifier = instance;
+            }
+        }
+        return verifier;
+    }
+
+    // Fetches the keys now and keeps them fresh from then on; call once at startup
+    public void start() {
+        refresher.execute(this::refreshKeys);
+    }
+
+    // Runs on the refresher thread only, so fetches never overlap
+    private void refreshKeys() {
+        long delay = fetchKeys()
+                ? Math.max(60_000L, keySource.expiresAtMillis() - refreshAheadMillis - System.currentTimeMillis())
+                : 30_000L;
+        refresher.schedule(this::refreshKeys, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean fetchKeys() {
+        try {
+            keySource.refresh();
+            keysFetchedAt = System.currentTimeMillis();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            keyRefreshFailures.increment();
+            System.err.println("Google signing key refresh failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // An extra fetch on the refresher, at most one a minute, so tokens with made-up key ids cannot turn into a
+    // stream of downloads
+    private void requestRefresh() {
+        long now = System.currentTimeMillis();
+        long last = lastRequestedRefresh.get();
+        if (now - last > 60_000L && lastRequestedRefresh.compareAndSet(last, now)) {
+            refresher.execute(this::fetchKeys);
+        }
+    }
+
+    // Returns the payload of a valid token, or null if the token is malformed, expired, or badly signed.
+    // Throws KeysNotReadyException when the key it names has not been fetched yet: the caller should ask for
+    // a retry shortly.
+    public GoogleIdToken.Payload verify(String token) throws GeneralSecurityException, IOException {
+        String key = fingerprint(token);
+        GoogleIdToken.Payload payload = verified.get(key);
+        if (payload != null) {
+            if (!isExpired(payload)) {
+                cacheHits.increment();
+                return payload;
+            }
+            verified.remove(key);
+        }
+        cacheMisses.increment();
+
+        GoogleIdToken idToken;
+        try {
+            idToken = GoogleIdToken.parse(jsonFactory, token);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!claims.verifyClaims(idToken) || !verifySignature(idToken)) {
+            return null;
+        }
+        verified.put(key, idToken.getPayload());
+        return idToken.getPayload();
+    }
+
+    private boolean verifySignature(GoogleIdToken idToken) throws GeneralSecurityException, IOException {
+        Map<String, PublicKey> keys = keySource.keys();
+        String kid = idToken.getHeader().getKeyId();
+        if (keys.isEmpty()) {
+            // Before the first background fetch has succeeded
+            requestRefresh();
+            throw new KeysNotReadyException();
+        }
+        if (kid != null && !keys.containsKey(kid)) {
+            // Keys fetched after the token was issued would have had its key: it is not Google's. Otherwise
+            // Google may just have rotated to a key we have not seen yet.
+            Long issuedAt = idToken.getPayload().getIssuedAtTimeSeconds();
+            if (issuedAt != null && issuedAt * 1000L < keysFetchedAt) {
+                return false;
+            }
+            requestRefresh();
+            throw new KeysNotReadyException();
+        }
+        if (kid != null) {
+            PublicKey publicKey = keys.get(kid);
+            return publicKey != null && idToken.verifySignature(publicKey);
+        }
+        for (PublicKey publicKey : keys.values()) {
+            if (idToken.verifySignature(publicKey)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isExpired(GoogleIdToken.Payload payload) {
+        Long exp = payload.getExpirationTimeSeconds();
+        return exp == null || exp * 1000L <= System.currentTimeMillis();
+    }
+
+    private static String fingerprint(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    public long getKeyRefreshFailures() {
+        return keyRefreshFailures.sum();
+    }
+
+    // The token's signing key is being fetched; the request thread never waits for the download
+    public static final class KeysNotReadyException extends IOException {
+        KeysNotReadyException() {
+            super("Google signing keys are being fetched");
+        }
+    }
+
+    // Issuer, audience and exp/iat checks only; the signature is checked against our own key source
+    private static final class ClaimsVerifier extends IdTokenVerifier {
+        ClaimsVerifier(IdTokenVerifier.Builder builder) {
+            super(builder);
+        }
+
+        boolean verifyClaims(GoogleIdToken idToken) {
+            return verifyPayload(idToken);
+        }
+    }
+}
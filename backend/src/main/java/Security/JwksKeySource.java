@@ -0,0 +1,90 @@
+package Security;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// RSA keys from a JSON Web Key Set URL (https://www.googleapis.com/oauth2/v3/certs by default)
+public class JwksKeySource implements SigningKeySource {
+
+    private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+    private static final long DEFAULT_TTL_MILLIS = 60 * 60 * 1000L;
+
+    private final String url;
+    private volatile Map<String, PublicKey> keys = Collections.emptyMap();
+    private volatile long expiresAtMillis;
+
+    public JwksKeySource(String url) {
+        this.url = url;
+    }
+
+    @Override
+    public void refresh() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(5000);
+        try {
+            if (connection.getResponseCode() != 200) {
+                throw new IOException("Key set fetch from " + url + " returned " + connection.getResponseCode());
+            }
+            JsonNode jwks;
+            try (InputStream in = connection.getInputStream()) {
+                jwks = new ObjectMapper().readTree(in);
+            }
+
+            Map<String, PublicKey> fresh = new HashMap<>();
+            KeyFactory rsa = KeyFactory.getInstance("RSA");
+            for (JsonNode key : jwks.path("keys")) {
+                if (!"RSA".equals(key.path("kty").asText())) {
+                    continue;
+                }
+                BigInteger modulus = new BigInteger(1, Base64.getUrlDecoder().decode(key.path("n").asText()));
+                BigInteger exponent = new BigInteger(1, Base64.getUrlDecoder().decode(key.path("e").asText()));
+                fresh.put(key.path("kid").asText(), rsa.generatePublic(new RSAPublicKeySpec(modulus, exponent)));
+            }
+            if (fresh.isEmpty()) {
+                throw new IOException("Key set at " + url + " has no RSA keys");
+            }
+
+            long ttl = DEFAULT_TTL_MILLIS;
+            String cacheControl = connection.getHeaderField("Cache-Control");
+            if (cacheControl != null) {
+                Matcher m = MAX_AGE.matcher(cacheControl);
+                if (m.find()) {
+                    ttl = Long.parseLong(m.group(1)) * 1000L;
+                }
+            }
+            keys = fresh;
+            expiresAtMillis = System.currentTimeMillis() + ttl;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Invalid key in " + url, e);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public Map<String, PublicKey> keys() {
+        return keys;
+    }
+
+    @Override
+    public long expiresAtMillis() {
+        return expiresAtMillis;
+    }
+}
@@ -0,0 +1,154 @@
+package Security;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.mindrot.jbcrypt.BCrypt;
+
+import Config.Settings;
+import Metrics.Jmx;
+import Metrics.LatencyHistogram;
+
+// Runs BCrypt on a small pool sized to the cores, so a burst of logins cannot occupy every Tomcat thread.
+// The queue is bounded: when it is full, hash() and verify() throw RejectedExecutionException right away
+// and callers answer 503 instead of letting requests pile up.
+public class PasswordHasher implements PasswordHasherMXBean {
+
+    private static volatile PasswordHasher instance;
+
+    private final int cost;
+    private final ThreadPoolExecutor executor;
+    private final LatencyHistogram hashTimes = new LatencyHistogram();
+    private final LatencyHistogram queueWaits = new LatencyHistogram();
+    private final LongAdder rejected = new LongAdder();
+
+    public PasswordHasher(int cost, int threads, int queueSize) {
+        this.cost = cost;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                r -> {
+                    Thread t = new Thread(r, "bcrypt-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public static PasswordHasher get() {
+        PasswordHasher hasher = instance;
+        if (hasher == null) {
+            synchronized (PasswordHasher.class) {
+                if (instance == null) {
+                    Settings settings = Settings.get();
+                    int threads = settings.getInt("security.hash.threads", 0);
+                    instance = new PasswordHasher(
+                            settings.getInt("security.bcrypt.cost", 10),
+                            threads > 0 ? threads : Runtime.getRuntime().availableProcessors(),
+                            settings.getInt("security.hash.queueSize", 64));
+                    Jmx.register(instance, "blinko:type=PasswordHasher");
+                }
+                hasher = instance;
+            }
+        }
+        return hasher;
+    }
+
+    public CompletableFuture<String> hash(String password) {
+        return submit(() -> BCrypt.hashpw(password, BCrypt.gensalt(cost)));
+    }
+
+    public CompletableFuture<Boolean> verify(String password, String hash) {
+        // Anything but a BCrypt hash (e.g. the marker on Google-only accounts) never matches
+        return submit(() -> hash != null && hash.startsWith("$2") && BCrypt.checkpw(password, hash));
+    }
+
+    // Hashes made with another cost factor are upgraded on the next successful login
+    public boolean needsRehash(String hash) {
+        // BCrypt hashes look like $2a$10$<salt+hash>
+        if (hash == null || hash.length() < 7 || hash.charAt(0) != '$' || hash.charAt(3) != '$') {
+            return false;
+        }
+        try {
+            return Integer.parseInt(hash.substring(4, 6)) != cost;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> work) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long queued = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long started = System.nanoTime();
+                queueWaits.recordNanos(started - queued);
+                try {
+                    result.complete(work.get());
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    hashTimes.recordNanos(System.nanoTime() - started);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+        return result;
+    }
+
+    public LatencyHistogram.Snapshot hashTimes() {
+        return hashTimes.snapshot();
+    }
+
+    public LatencyHistogram.Snapshot queueWaits() {
+        return queueWaits.snapshot();
+    }
+
+    @Override
+    public int getCost() {
+        return cost;
+    }
+
+    @Override
+    public int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public int getActiveHashes() {
+        return executor.getActiveCount();
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public long getHashP50Micros() {
+        return hashTimes.snapshot().percentileMicros(0.50);
+    }
+
+    @Override
+    public long getHashP99Micros() {
+        return hashTimes.snapshot().percentileMicros(0.99);
+    }
+
+    @Override
+    public long getQueueWaitP99Micros() {
+        return queueWaits.snapshot().percentileMicros(0.99);
+    }
+}
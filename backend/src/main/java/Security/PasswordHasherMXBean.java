@@ -0,0 +1,21 @@
+package Security;
+
+// JMX view of the password hashing pool, registered as blinko:type=PasswordHasher
+public interface PasswordHasherMXBean {
+
+    int getCost();
+
+    int getThreads();
+
+    int getQueueDepth();
+
+    int getActiveHashes();
+
+    long getRejected();
+
+    long getHashP50Micros();
+
+    long getHashP99Micros();
+
+    long getQueueWaitP99Micros();
+}
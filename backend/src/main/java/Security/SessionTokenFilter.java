@@ -0,0 +1,65 @@
+package Security;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import Servlets.Json;
+
+// Guards per-user endpoints: "Authorization: Bearer <token>" from /login or /google-login is checked
+// against SessionTokens and the caller's id is left in the USER_ID request attribute. Requests without a
+// valid token get 401 before reaching the servlet, unless the token is optional there: then only a token
+// that is present but invalid is refused. CORS preflights carry no token and pass through.
+public class SessionTokenFilter implements Filter {
+
+    public static final String USER_ID = "userId";
+    private static final String BEARER = "Bearer ";
+
+    private final SessionTokens tokens;
+    private final boolean required;
+
+    public SessionTokenFilter(SessionTokens tokens, boolean required) {
+        this.tokens = tokens;
+        this.required = required;
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) res;
+        if ("OPTIONS".equals(request.getMethod())) {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        String authorization = request.getHeader("Authorization");
+        if (authorization == null || !authorization.regionMatches(true, 0, BEARER, 0, BEARER.length())) {
+            if (!required) {
+                chain.doFilter(req, res);
+                return;
+            }
+            reject(response, "Bearer realm=\"blinko\"", "Login required");
+            return;
+        }
+        Long userId = tokens.verify(authorization.substring(BEARER.length()).trim());
+        if (userId == null) {
+            reject(response, "Bearer realm=\"blinko\", error=\"invalid_token\"", "Invalid or expired session");
+            return;
+        }
+        request.setAttribute(USER_ID, userId);
+        chain.doFilter(req, res);
+    }
+
+    private static void reject(HttpServletResponse response, String challenge, String message) throws IOException {
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setHeader("WWW-Authenticate", challenge);
+        Json.failure(response, HttpServletResponse.SC_UNAUTHORIZED, message);
+    }
+}
@@ -0,0 +1,165 @@
+package Security;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import Config.Settings;
+
+// Stateless session tokens: base64url(version, userId, expiresAt) "." base64url(HMAC-SHA256 of that part).
+// Checking one needs no database and no session store, only the secret, so any instance sharing
+// security.session.secret accepts tokens issued by any other. Tokens signed with
+// security.session.previousSecret stay valid while the secret is rotated.
+public final class SessionTokens {
+
+    private static final byte VERSION = 1;
+    private static final int PAYLOAD_BYTES = 17;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private static volatile SessionTokens instance;
+
+    private final MacPool current;
+    private final MacPool previous;
+    private final long ttlSeconds;
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder valid = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    public SessionTokens(byte[] secret, byte[] previousSecret, long ttlSeconds) {
+        this.current = new MacPool(secret);
+        this.previous = previousSecret == null ? null : new MacPool(previousSecret);
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    public static SessionTokens get() {
+        SessionTokens tokens = instance;
+        if (tokens == null) {
+            synchronized (SessionTokens.class) {
+                if (instance == null) {
+                    Settings settings = Settings.get();
+                    String secret = settings.get("security.session.secret", "");
+                    String previousSecret = settings.get("security.session.previousSecret", "");
+                    byte[] key;
+                    if (secret.isEmpty() && settings.getInt("server.instances", 1) > 1) {
+                        // Each instance would reject the tokens the others issue
+                        throw new IllegalStateException("security.session.secret must be set when server.instances"
+                                + " is above 1: every instance has to sign and check tokens with the same secret");
+                    }
+                    if (secret.isEmpty()) {
+                        System.err.println("security.session.secret is not set: session tokens are only valid on this"
+                                + " instance until it restarts");
+                        key = new byte[32];
+                        new SecureRandom().nextBytes(key);
+                    } else {
+                        key = secret.getBytes(StandardCharsets.UTF_8);
+                    }
+                    instance = new SessionTokens(key,
+                            previousSecret.isEmpty() ? null : previousSecret.getBytes(StandardCharsets.UTF_8),
+                            settings.getLong("security.session.ttlSeconds", 2592000));
+                }
+                tokens = instance;
+            }
+        }
+        return tokens;
+    }
+
+    public static final class Issued {
+        public final String token;
+        // Epoch seconds
+        public final long expiresAt;
+
+        Issued(String token, long expiresAt) {
+            this.token = token;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public Issued issue(long userId) {
+        long expiresAt = System.currentTimeMillis() / 1000 + ttlSeconds;
+        byte[] payload = ByteBuffer.allocate(PAYLOAD_BYTES).put(VERSION).putLong(userId).putLong(expiresAt).array();
+        String body = ENCODER.encodeToString(payload);
+        issued.increment();
+        return new Issued(body + "." + ENCODER.encodeToString(current.sign(body)), expiresAt);
+    }
+
+    // The user id the token was issued to, or null if it is malformed, forged or expired
+    public Long verify(String token) {
+        int dot = token.indexOf('.');
+        byte[] payload;
+        byte[] signature;
+        try {
+            payload = DECODER.decode(token.substring(0, Math.max(dot, 0)));
+            signature = DECODER.decode(token.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            invalid.increment();
+            return null;
+        }
+        if (dot < 0 || payload.length != PAYLOAD_BYTES || payload[0] != VERSION) {
+            invalid.increment();
+            return null;
+        }
+        String body = token.substring(0, dot);
+        if (!MessageDigest.isEqual(current.sign(body), signature)
+                && (previous == null || !MessageDigest.isEqual(previous.sign(body), signature))) {
+            invalid.increment();
+            return null;
+        }
+        ByteBuffer fields = ByteBuffer.wrap(payload, 1, PAYLOAD_BYTES - 1);
+        long userId = fields.getLong();
+        if (fields.getLong() <= System.currentTimeMillis() / 1000) {
+            expired.increment();
+            return null;
+        }
+        valid.increment();
+        return userId;
+    }
+
+    public long getIssued() { return issued.sum(); }
+    public long getValid() { return valid.sum(); }
+    public long getInvalid() { return invalid.sum(); }
+    public long getExpired() { return expired.sum(); }
+
+    // Initialized Macs are reused instead of looked up and keyed for every token. A pool rather than a
+    // ThreadLocal, which would build one per request on virtual threads.
+    private static final class MacPool {
+        private final SecretKeySpec key;
+        private final ConcurrentLinkedQueue<Mac> idle = new ConcurrentLinkedQueue<>();
+
+        MacPool(byte[] secret) {
+            this.key = new SecretKeySpec(secret, "HmacSHA256");
+            idle.offer(newMac());
+        }
+
+        byte[] sign(String body) {
+            Mac mac = idle.poll();
+            if (mac == null) {
+                mac = newMac();
+            }
+            try {
+                return mac.doFinal(body.getBytes(StandardCharsets.US_ASCII));
+            } finally {
+                idle.offer(mac);
+            }
+        }
+
+        private Mac newMac() {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package Security;
+
+import java.io.IOException;
+import java.security.PublicKey;
+import java.util.Map;
+
+// Where ID token signing keys come from: Google's JWKS endpoint in production, a local stand-in in tests
+public interface SigningKeySource {
+
+    // Downloads the current key set; called from the background refresher only, never from request threads,
+    // and never twice at once
+    void refresh() throws IOException;
+
+    // Key id -> key from the last successful refresh (empty before the first one)
+    Map<String, PublicKey> keys();
+
+    // When the last fetched key set should be considered stale, in epoch millis
+    long expiresAtMillis();
+}
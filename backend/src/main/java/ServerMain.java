@@ -1,48 +1,115 @@
-import org.apache.catalina.Context;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.catalina.connector.Connector;
 import org.apache.catalina.startup.Tomcat;
 
 import Config.DatabaseConfig;
-import Servlets.LoginServlet;
-import Servlets.RegisterServlet;
-import Servlets.ScreenshotAnalysisServlet;
-import Servlets.UserProfileServlet;
+import Config.SchemaMigration;
+import Config.ServerConfig;
+import Config.Settings;
+import Config.Startup;
+import Config.Warmup;
+import Index.AnalysisIndexes;
+import Ingest.TagBackfill;
+import Ingest.WriteBehindIngest;
+import Security.GoogleTokenVerifier;
 
 public class ServerMain {
     public static void main(String[] args) throws Exception {
-        // Initialize database first
-        DatabaseConfig.initialize();
-        DatabaseConfig.testConnection();
-
-        Tomcat tomcat = new Tomcat();
-        tomcat.setPort(8080);
-        
-        // Configure context
-        Context context = tomcat.addContext("", null);
-        
-        // Register servlets
-        Tomcat.addServlet(context, "loginServlet", new LoginServlet());
-        Tomcat.addServlet(context, "registerServlet", new RegisterServlet());
-        Tomcat.addServlet(context, "analyzeServlet", new ScreenshotAnalysisServlet());
-        Tomcat.addServlet(context, "profileServlet", new UserProfileServlet());
-
-
-        // Map servlets to endpoints
-        context.addServletMappingDecoded("/login", "loginServlet");
-        context.addServletMappingDecoded("/register", "registerServlet");
-        context.addServletMappingDecoded("/analyze", "analyzeServlet");
-        context.addServletMappingDecoded("/profile", "profileServlet");
-        // Start server
-        tomcat.getConnector();
-        tomcat.start();
-        
+        Settings settings = Settings.get();
+        boolean fast = "fast".equalsIgnoreCase(settings.get("startup.mode", "classic"));
+        // Prefetch Google's signing keys so no login waits on the download
+        GoogleTokenVerifier.get().start();
+
+        // Servlets, endpoints and the request execution mode (server.threads)
+        Tomcat tomcat = ServerConfig.create(settings);
+        Connector external = tomcat.getConnector();
+        boolean warmup = settings.getBoolean("startup.warmup.enabled", false);
+        if (fast) {
+            // The port opens right away and answers /health/* (everything else with 503) while the
+            // database side starts on another thread
+            CountDownLatch started = new CountDownLatch(1);
+            Thread init = new Thread(() -> {
+                try {
+                    database(settings, true);
+                    if (warmup) {
+                        started.await();
+                        Startup.phase("warmup", () -> Warmup.run(tomcat.getService(), external, settings));
+                    }
+                    services(settings);
+                    Startup.markReady();
+                } catch (Throwable e) {
+                    System.err.println("Startup failed:");
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+            }, "startup-init");
+            init.start();
+            try {
+                Startup.phase("tomcat", tomcat::start);
+            } finally {
+                started.countDown();
+            }
+        } else if (warmup) {
+            // The public port stays closed until the warm-up is done and the indexes are built
+            database(settings, false);
+            tomcat.getService().removeConnector(external);
+            Startup.phase("tomcat", tomcat::start);
+            Startup.phase("warmup", () -> Warmup.run(tomcat.getService(), external, settings));
+            services(settings);
+            tomcat.getService().addConnector(external);
+            Startup.markReady();
+        } else {
+            database(settings, false);
+            services(settings);
+            Startup.phase("tomcat", tomcat::start);
+            Startup.markReady();
+        }
+
         System.out.println("\n==========================================");
-        System.out.println("Server running on http://localhost:" + tomcat.getConnector().getPort());
+        System.out.println("Server running on http://localhost:" + external.getPort());
         System.out.println("Available endpoints:");
         System.out.println("- POST /login");
+        System.out.println("- POST /google-login");
         System.out.println("- POST /register");
+        System.out.println("- GET /metrics");
+        System.out.println("- GET /health/ready");
         System.out.println("==========================================\n");
-        
+
+        if (settings.getBoolean("startup.exitWhenReady", false)) {
+            // Training run for the class-data-sharing archive (mvn -Pcds package): the JVM writes it on exit
+            Startup.awaitReady();
+            System.exit(0);
+        }
         tomcat.getServer().await();
     }
-}
 
+    private static void database(Settings settings, boolean fast) throws Exception {
+        if (fast) {
+            // The schema was migrated by Config.SchemaMigration at deploy time: no DDL and no JDBC metadata
+            // lookups while the SessionFactory is built, only a check of the recorded schema version
+            Properties overrides = new Properties();
+            overrides.setProperty("hibernate.hbm2ddl.auto", "none");
+            overrides.setProperty("hibernate.temp.use_jdbc_metadata_defaults", "false");
+            Startup.phase("sessionFactory", () -> DatabaseConfig.initialize(overrides));
+            Startup.phase("schemaCheck", () -> SchemaMigration.check(DatabaseConfig.getSessionFactory()));
+        } else {
+            Startup.phase("sessionFactory", DatabaseConfig::initialize);
+            DatabaseConfig.testConnection();
+            if ("update".equals(settings.get("hibernate.hbm2ddl.auto", "update"))) {
+                Startup.phase("schemaUpgrade", () -> SchemaMigration.upgrade(DatabaseConfig.getSessionFactory()));
+            }
+        }
+    }
+
+    // After the warm-up, if any, so that the indexes are built without its throwaway rows
+    private static void services(Settings settings) throws Exception {
+        Startup.phase("indexes", () -> AnalysisIndexes.rebuild(DatabaseConfig.getSessionFactory()));
+        AnalysisIndexes.refreshInBackground(DatabaseConfig.getSessionFactory());
+        // Links analyses stored before the tag tables existed; tag reads move to the tables once it is done
+        TagBackfill.start(DatabaseConfig.getSessionFactory(), settings);
+        // ingest.mode=journal: replays analyses accepted before the last stop, then drains new ones
+        Startup.phase("journalReplay", () -> WriteBehindIngest.start(DatabaseConfig.getSessionFactory(), settings));
+    }
+}
@@ -0,0 +1,141 @@
+package Servlets;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.StatelessSession;
+import org.hibernate.query.Query;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import Config.DatabaseConfig;
+import Ingest.InsertFence;
+
+// GET /analyze?since=<mark>&limit=1000&fields=imageUri,tags: the analyses stored after the high-water mark,
+// oldest first, one compact JSON object per line (NDJSON). since is empty for a first full sync. The mark is
+// the id of the last row sent: ids are handed out as rows are inserted, while creationTime is the
+// screenshot's own time and a late upload of an old screenshot would fall behind a time-based mark.
+// An id is handed out at INSERT but its row is only visible at COMMIT, so a sync only goes up to
+// InsertFence.settled(): rows above it are held back for a later sync, even when visible already, rather
+// than let the mark pass a lower id that a transaction still in flight is about to commit.
+// X-Sync-Next carries the mark to send next and X-Sync-More whether more settled rows are waiting beyond
+// this page, so both are known before the first row is streamed. Only the caller's analyses are synced, or
+// without a session token the ones posted without one. Analyses still in the ingest journal are not stored yet and come with a later sync.
+final class AnalysisSync {
+
+    static final String CONTENT_TYPE = "application/x-ndjson;charset=UTF-8";
+
+    private static final int DEFAULT_LIMIT = 1000;
+    private static final int MAX_LIMIT = 10000;
+    private static final int FETCH_SIZE = 500;
+
+    // Field name in the JSON -> HQL path
+    private static final Map<String, String> FIELDS = new LinkedHashMap<>();
+
+    static {
+        FIELDS.put("id", "a.id");
+        FIELDS.put("imageUri", "a.imageUri");
+        FIELDS.put("description", "a.description");
+        FIELDS.put("description_en", "a.description_en");
+        FIELDS.put("tags", "a.tags");
+        FIELDS.put("tags_en", "a.tags_en");
+        FIELDS.put("creationTime", "a.creationTime");
+    }
+
+    private AnalysisSync() {
+    }
+
+    static void handle(HttpServletRequest req, HttpServletResponse resp, long ownerKey) throws IOException {
+        int limit;
+        long since;
+        List<String> fields;
+        try {
+            String limitParam = req.getParameter("limit");
+            limit = limitParam == null ? DEFAULT_LIMIT : Integer.parseInt(limitParam);
+            String sinceParam = req.getParameter("since");
+            since = sinceParam.isEmpty() ? 0 : Long.parseLong(sinceParam, 36);
+            fields = fields(req.getParameter("fields"));
+        } catch (IllegalArgumentException e) {
+            Json.error(resp, 400, "Invalid since, limit or fields");
+            return;
+        }
+        limit = Math.max(1, Math.min(limit, MAX_LIMIT));
+
+        try (StatelessSession session = DatabaseConfig.getSessionFactory().openStatelessSession()) {
+            long settled = InsertFence.settled(session);
+            // Ids alone first, from idx_analysis_key_sync: they give the page's upper bound, and whether
+            // another page follows, before any row is written
+            Query<Long> ids = session.createQuery("SELECT a.id FROM ScreenshotAnalysis a"
+                    + " WHERE a.ownerKey = :owner AND a.id > :since AND a.id <= :settled ORDER BY a.id", Long.class)
+                    .setParameter("owner", ownerKey)
+                    .setParameter("since", since)
+                    .setParameter("settled", settled);
+            List<Long> page = ids.setMaxResults(limit + 1).setReadOnly(true).getResultList();
+            boolean more = page.size() > limit;
+            long upTo = page.isEmpty() ? since : page.get(Math.min(limit, page.size()) - 1);
+
+            resp.setContentType(CONTENT_TYPE);
+            resp.setHeader("Cache-Control", "no-store");
+            resp.setHeader("X-Sync-Next", Long.toString(upTo, 36));
+            resp.setHeader("X-Sync-More", String.valueOf(more));
+            if (page.isEmpty()) {
+                return;
+            }
+
+            List<String> paths = new ArrayList<>(fields.size());
+            for (String field : fields) {
+                paths.add(FIELDS.get(field));
+            }
+            Query<Object[]> rows = session.createQuery("SELECT " + String.join(", ", paths)
+                    + " FROM ScreenshotAnalysis a WHERE a.ownerKey = :owner AND a.id > :since AND a.id <= :upTo"
+                    + " ORDER BY a.id", Object[].class)
+                    .setParameter("owner", ownerKey)
+                    .setParameter("since", since)
+                    .setParameter("upTo", upTo);
+            try (ScrollableResults<Object[]> results = rows.setReadOnly(true).setFetchSize(FETCH_SIZE)
+                    .scroll(ScrollMode.FORWARD_ONLY);
+                 JsonGenerator out = Json.mapper().getFactory()
+                         .createGenerator(resp.getOutputStream(), JsonEncoding.UTF8)) {
+                // One object per line, not space-separated root values
+                out.setRootValueSeparator(null);
+                while (results.next()) {
+                    Object[] row = results.get();
+                    out.writeStartObject();
+                    for (int i = 0; i < row.length; i++) {
+                        out.writeObjectField(fields.get(i), row[i]);
+                    }
+                    out.writeEndObject();
+                    out.writeRaw('\n');
+                }
+            }
+        }
+    }
+
+    // Requested fields in the order given; all of them when none are
+    private static List<String> fields(String param) {
+        if (param == null || param.trim().isEmpty()) {
+            return new ArrayList<>(FIELDS.keySet());
+        }
+        List<String> fields = new ArrayList<>();
+        for (String field : param.split(",")) {
+            String name = field.trim();
+            if (!FIELDS.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown field " + name);
+            }
+            if (!fields.contains(name)) {
+                fields.add(name);
+            }
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,88 @@
+package Servlets;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+// The async half of login and register: exactly one side answers, either the work handed to the hashing
+// pool or the timeout, which answers 503 with Retry-After. The side that loses never touches the response,
+// which may already belong to another request by then.
+final class AsyncAnswer implements AsyncListener {
+
+    interface Body {
+        void run() throws IOException;
+    }
+
+    private final AsyncContext async;
+    private final HttpServletResponse response;
+    private final AtomicBoolean answered = new AtomicBoolean();
+
+    private AsyncAnswer(AsyncContext async, HttpServletResponse response) {
+        this.async = async;
+        this.response = response;
+    }
+
+    static AsyncAnswer start(HttpServletRequest request, HttpServletResponse response, long timeoutMs) {
+        AsyncContext async = AsyncDispatchServlet.startAsync(request);
+        async.setTimeout(timeoutMs);
+        AsyncAnswer answer = new AsyncAnswer(async, response);
+        async.addListener(answer);
+        return answer;
+    }
+
+    // Runs body on a container thread and completes the request, unless the timeout has answered already
+    void answer(Body body, String what) {
+        if (!answered.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            async.start(() -> {
+                try {
+                    body.run();
+                } catch (IOException e) {
+                    System.err.println(what + " response failed: " + e.getMessage());
+                } finally {
+                    async.complete();
+                }
+            });
+        } catch (IllegalStateException e) {
+            // The container ended the request meanwhile (client gone)
+            System.err.println(what + " response dropped: " + e.getMessage());
+        }
+    }
+
+    // The hashing pool refused the work: 503 at once, on the calling thread
+    void busy() throws IOException {
+        if (answered.compareAndSet(false, true)) {
+            LoginServlet.sendBusy(response);
+            async.complete();
+        }
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) throws IOException {
+        if (answered.compareAndSet(false, true)) {
+            LoginServlet.sendBusy(response);
+            event.getAsyncContext().complete();
+        }
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        // The connection failed; nothing is left to answer
+        answered.set(true);
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+}
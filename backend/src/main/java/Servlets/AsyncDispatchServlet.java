@@ -0,0 +1,87 @@
+package Servlets;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+// server.threads=async: runs the wrapped servlet on a dedicated executor and hands the Tomcat worker back
+// right away, so requests blocked on JDBC or outbound HTTP no longer hold the connector's threads.
+// For JVMs without virtual threads; a full executor queue answers 503.
+public class AsyncDispatchServlet extends HttpServlet {
+
+    private static final String OWNED = AsyncDispatchServlet.class.getName() + ".owned";
+
+    private final HttpServlet delegate;
+    private final Executor executor;
+    private final long timeoutMs;
+
+    public AsyncDispatchServlet(HttpServlet delegate, Executor executor, long timeoutMs) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.timeoutMs = timeoutMs;
+    }
+
+    // For servlets that finish asynchronously themselves (login, register): reuses the context started here,
+    // if any, and leaves completing it to the caller
+    public static AsyncContext startAsync(HttpServletRequest request) {
+        if (request.isAsyncStarted()) {
+            request.setAttribute(OWNED, Boolean.TRUE);
+            return request.getAsyncContext();
+        }
+        return request.startAsync();
+    }
+
+    @Override
+    public void init(ServletConfig config) throws ServletException {
+        super.init(config);
+        delegate.init(config);
+    }
+
+    @Override
+    public void destroy() {
+        delegate.destroy();
+    }
+
+    @Override
+    public void service(ServletRequest req, ServletResponse res) throws ServletException, IOException {
+        AsyncContext async = req.startAsync();
+        async.setTimeout(timeoutMs);
+        try {
+            executor.execute(() -> run(async));
+        } catch (RejectedExecutionException e) {
+            LoginServlet.sendBusy((HttpServletResponse) res);
+            async.complete();
+        }
+    }
+
+    private void run(AsyncContext async) {
+        ServletRequest req = async.getRequest();
+        HttpServletResponse resp = (HttpServletResponse) async.getResponse();
+        try {
+            delegate.service(req, resp);
+        } catch (Exception e) {
+            System.err.println("Request failed: " + e.getMessage());
+            e.printStackTrace();
+            if (!resp.isCommitted()) {
+                try {
+                    resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                } catch (IOException ignored) {
+                    // client is gone
+                }
+            }
+        } finally {
+            if (req.getAttribute(OWNED) == null) {
+                async.complete();
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package Servlets;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import Config.Startup;
+
+// GET /health/live: the process is up and serving HTTP.
+// GET /health/ready: 200 once the server is ready for traffic, 503 while it is still starting; load
+// balancers and rolling deploys should wait for this one.
+public class HealthServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setHeader("Cache-Control", "no-store");
+        if ("/health/live".equals(req.getServletPath())) {
+            Json.write(resp, new Status("up", Startup.readyMillis()));
+        } else if (Startup.isReady()) {
+            Json.write(resp, new Status("ready", Startup.readyMillis()));
+        } else {
+            Json.write(resp, HttpServletResponse.SC_SERVICE_UNAVAILABLE, new Status("starting", -1));
+        }
+    }
+
+    public static final class Status {
+        public final String status;
+        // Milliseconds from JVM start until ready, -1 before
+        public final long readyAfterMs;
+
+        Status(String status, long readyAfterMs) {
+            this.status = status;
+            this.readyAfterMs = readyAfterMs;
+        }
+    }
+}
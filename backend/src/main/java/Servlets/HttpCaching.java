@@ -0,0 +1,85 @@
+package Servlets;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import Config.Settings;
+
+// Conditional GETs: ETag plus If-None-Match answered with 304 Not Modified and no body.
+// ETags are weak (W/"..."): the connector gzips responses on the way out, and a strong ETag would both be
+// wrong for the compressed bytes and make Tomcat skip compression.
+public final class HttpCaching {
+
+    // Analyses are never modified once written, so clients may keep them as long as they like
+    private static final String IMMUTABLE = "max-age="
+            + Settings.get().getLong("server.analysisMaxAgeSeconds", 31536000) + ", immutable";
+    // Per-user data: clients keep a copy but ask whether it is still current every time
+    private static final String REVALIDATE = "private, no-cache";
+
+    private HttpCaching() {
+    }
+
+    // For rows that never change: the ETag names the row, so no body has to be built to compare. Which row a
+    // URL names can depend on the caller's session token; only rows that belong to nobody may sit in shared
+    // caches.
+    public static boolean notModifiedImmutable(HttpServletRequest req, HttpServletResponse resp, String kind, long id,
+                                               boolean shared) {
+        resp.setHeader("Cache-Control", (shared ? "public, " : "private, ") + IMMUTABLE);
+        resp.setHeader("Vary", "Authorization");
+        return notModified(req, resp, "W/\"" + kind + Long.toString(id, 36) + "\"");
+    }
+
+    // For data that can change: the ETag is a digest of the JSON body, written only when it differs
+    public static void writeRevalidated(HttpServletRequest req, HttpServletResponse resp, Object value)
+            throws IOException {
+        byte[] body = Json.writer(value.getClass()).writeValueAsBytes(value);
+        resp.setHeader("Cache-Control", REVALIDATE);
+        if (notModified(req, resp, "W/\"" + digest(body) + "\"")) {
+            return;
+        }
+        resp.setContentType(Json.CONTENT_TYPE);
+        resp.setContentLength(body.length);
+        resp.getOutputStream().write(body);
+    }
+
+    // Sets the ETag; answers 304 and returns true when the client already holds this version
+    static boolean notModified(HttpServletRequest req, HttpServletResponse resp, String etag) {
+        resp.setHeader("ETag", etag);
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch == null || !matches(ifNoneMatch, etag)) {
+            return false;
+        }
+        resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return true;
+    }
+
+    // Weak comparison over a comma-separated list, as If-None-Match requires
+    static boolean matches(String ifNoneMatch, String etag) {
+        String opaque = opaque(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || opaque(tag).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaque(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private static String digest(byte[] body) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(body);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(hash).substring(0, 22);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
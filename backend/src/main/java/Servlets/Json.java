@@ -0,0 +1,100 @@
+package Servlets;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+// The one JSON codec every servlet uses. The mapper is built once and the per-type readers and writers
+// are cached, all of them immutable and thread-safe. Bodies are parsed straight from the request stream
+// and written straight to the response stream as UTF-8, with no intermediate String.
+public final class Json {
+
+    public static final String CONTENT_TYPE = "application/json;charset=UTF-8";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            // Servlet streams belong to the container; flush them, never close them
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static final ConcurrentMap<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Class<?>, ObjectWriter> WRITERS = new ConcurrentHashMap<>();
+
+    private Json() {
+    }
+
+    public static ObjectMapper mapper() {
+        return MAPPER;
+    }
+
+    public static ObjectReader reader(Class<?> type) {
+        return READERS.computeIfAbsent(type, MAPPER::readerFor);
+    }
+
+    public static ObjectWriter writer(Class<?> type) {
+        return WRITERS.computeIfAbsent(type, MAPPER::writerFor);
+    }
+
+    public static <T> T read(HttpServletRequest req, Class<T> type) throws IOException {
+        return reader(type).readValue(req.getInputStream());
+    }
+
+    public static JsonNode readTree(HttpServletRequest req) throws IOException {
+        return reader(JsonNode.class).readTree(req.getInputStream());
+    }
+
+    public static void write(HttpServletResponse resp, Object value) throws IOException {
+        resp.setContentType(CONTENT_TYPE);
+        if (value == null) {
+            MAPPER.writeValue(resp.getOutputStream(), null);
+        } else {
+            writer(value.getClass()).writeValue(resp.getOutputStream(), value);
+        }
+    }
+
+    public static void write(HttpServletResponse resp, int status, Object value) throws IOException {
+        resp.setStatus(status);
+        write(resp, value);
+    }
+
+    // {"error": "..."}, the shape the analysis endpoints report failures in
+    public static void error(HttpServletResponse resp, int status, String message) throws IOException {
+        write(resp, status, new ErrorBody(message));
+    }
+
+    // {"success": false, "message": "..."}, the shape the account endpoints report failures in
+    public static void failure(HttpServletResponse resp, int status, String message) throws IOException {
+        write(resp, status, new Outcome(false, message));
+    }
+
+    // For responses streamed item by item; close it to flush
+    public static JsonGenerator generator(HttpServletResponse resp) throws IOException {
+        resp.setContentType(CONTENT_TYPE);
+        return MAPPER.getFactory().createGenerator(resp.getOutputStream(), JsonEncoding.UTF8);
+    }
+
+    public static final class ErrorBody {
+        public final String error;
+
+        public ErrorBody(String error) {
+            this.error = error;
+        }
+    }
+
+    public static class Outcome {
+        public final boolean success;
+        public final String message;
+
+        public Outcome(boolean success, String message) {
+            this.success = success;
+            this.message = message;
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package Servlets;
 
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -11,73 +15,70 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.hibernate.Session;
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.mindrot.jbcrypt.BCrypt;
-
+import org.hibernate.Transaction;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken;
-import com.google.api.client.googleapis.auth.oauth2.GoogleIdTokenVerifier;
-import com.google.api.client.http.javanet.NetHttpTransport;
-import com.google.api.client.json.gson.GsonFactory;
 
 import Config.DatabaseConfig;
+import Config.Settings;
+import Entity.Profile;
 import Entity.User;
+import Security.GoogleTokenVerifier;
+import Security.PasswordHasher;
+import Security.SessionTokens;
 
-@WebServlet(urlPatterns = {"/login", "/google-login"})
+@WebServlet(urlPatterns = {"/login", "/google-login"}, asyncSupported = true)
 public class LoginServlet extends HttpServlet {
     
-    private static final String GOOGLE_CLIENT_ID = "561824674275-7j20qr69tlbaj51j2im43b6g99tq10a3.apps.googleusercontent.com";
-    
-    // Create verifier with proper configuration
-    private final GoogleIdTokenVerifier verifier = new GoogleIdTokenVerifier.Builder(
-        new NetHttpTransport(), new GsonFactory())
-        .setAudience(Collections.singletonList(GOOGLE_CLIENT_ID))
-        .build();
+    // Caches verified tokens and keeps Google's signing keys fresh in the background (google.* settings)
+    private final GoogleTokenVerifier verifier = GoogleTokenVerifier.get();
+
+    // Stored for accounts created through Google: the column is NOT NULL, and no password matches this
+    private static final String NO_PASSWORD = "!";
+
+    // Writes upgraded hashes, so that the hashing pool's threads never wait for a connection or the UPDATE.
+    // One thread and a bounded queue; past that upgrades are dropped and happen on a later login.
+    private static final Executor REHASH_WRITER = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1000), r -> {
+                Thread t = new Thread(r, "password-rehash");
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.DiscardPolicy());
 
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) 
         throws ServletException, IOException {
         
         // Set CORS headers
-        response.setContentType("application/json");
         response.setHeader("Access-Control-Allow-Origin", "*");
         response.setHeader("Access-Control-Allow-Methods", "POST, OPTIONS");
         response.setHeader("Access-Control-Allow-Headers", "Content-Type");
         
-        PrintWriter out = response.getWriter();
-        
         try {
             String path = request.getServletPath();
             
-            // Read JSON body
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = request.getReader().readLine()) != null) {
-                sb.append(line);
-            }
-            
-            if (sb.length() == 0) {
-                sendError(response, out, HttpServletResponse.SC_BAD_REQUEST, "Empty request body");
+            // Parse the JSON body straight from the request stream
+            LoginRequest json = request.getContentLength() == 0 ? null : Json.read(request, LoginRequest.class);
+            if (json == null) {
+                sendError(response, HttpServletResponse.SC_BAD_REQUEST, "Empty request body");
                 return;
             }
             
-            JSONObject json = new JSONObject(sb.toString());
-            System.out.println("Received JSON: " + json.toString());
-            
             if ("/google-login".equals(path)) {
-                handleGoogleLogin(json, response, out);
+                handleGoogleLogin(json, response);
             } else if ("/login".equals(path)) {
-                handleStandardLogin(json, response, out);
+                handleStandardLogin(json, request, response);
             } else {
-                sendError(response, out, HttpServletResponse.SC_NOT_FOUND, "Endpoint not found");
+                sendError(response, HttpServletResponse.SC_NOT_FOUND, "Endpoint not found");
             }
-        } catch (JSONException e) {
-            System.err.println("JSON parsing error: " + e.getMessage());
-            sendError(response, out, HttpServletResponse.SC_BAD_REQUEST, "Invalid JSON format");
+        } catch (JsonProcessingException e) {
+            System.err.println("JSON parsing error: " + e.getOriginalMessage());
+            sendError(response, HttpServletResponse.SC_BAD_REQUEST, "Invalid JSON format");
         } catch (Exception e) {
             System.err.println("Server error: " + e.getMessage());
             e.printStackTrace();
-            sendError(response, out, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Server error: " + e.getMessage());
+            sendError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Server error: " + e.getMessage());
         }
     }
 
@@ -90,31 +91,83 @@ public class LoginServlet extends HttpServlet {
         response.setStatus(HttpServletResponse.SC_OK);
     }
 
-    private void handleStandardLogin(JSONObject json, HttpServletResponse response, PrintWriter out) throws Exception {
-        String email = json.getString("email");
-        String password = json.getString("password");
+    private void handleStandardLogin(LoginRequest json, HttpServletRequest request, HttpServletResponse response) throws Exception {
+        String email = json.email;
+        String password = json.password;
+        if (email == null || password == null) {
+            sendError(response, HttpServletResponse.SC_BAD_REQUEST, "Email and password are required");
+            return;
+        }
 
+        User user;
         try (Session session = DatabaseConfig.getSessionFactory().openSession()) {
-            User user = session.createQuery(
-                "FROM User WHERE email = :email", User.class)
-                .setParameter("email", email)
-                .uniqueResult();
+            // email is the natural id, so a returning user is usually found without a query
+            user = session.bySimpleNaturalId(User.class).load(email);
+        }
 
-            if (user == null || !BCrypt.checkpw(password, user.getPassword())) {
-                sendError(response, out, HttpServletResponse.SC_UNAUTHORIZED, "Invalid email or password");
-                return;
+        if (user == null) {
+            sendError(response, HttpServletResponse.SC_UNAUTHORIZED, "Invalid email or password");
+            return;
+        }
+
+        // BCrypt runs on the hashing pool; this Tomcat thread is released until the check is done
+        PasswordHasher hasher = PasswordHasher.get();
+        AsyncAnswer answer = AsyncAnswer.start(request, response,
+                Settings.get().getLong("security.hash.asyncTimeoutMs", 30000));
+        CompletableFuture<Boolean> verified;
+        try {
+            verified = hasher.verify(password, user.getPassword());
+        } catch (RejectedExecutionException e) {
+            answer.busy();
+            return;
+        }
+
+        verified.whenComplete((ok, error) -> answer.answer(() -> {
+            if (error != null) {
+                System.err.println("Password check failed: " + error.getMessage());
+                sendError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Server error: " + error.getMessage());
+            } else if (!ok) {
+                sendError(response, HttpServletResponse.SC_UNAUTHORIZED, "Invalid email or password");
+            } else {
+                // Successful login: the token identifies the user on later requests
+                Json.write(response, new LoginResponse("Login successful", SessionTokens.get().issue(user.getId())));
+                if (hasher.needsRehash(user.getPassword())) {
+                    rehash(hasher, user, password);
+                }
             }
+        }, "Login"));
+    }
 
-            // Successful login
-            out.print("{\"success\":true,\"message\":\"Login successful\"}");
+    // Upgrades a hash made with an older cost factor, after the response is already on its way: hashed on
+    // the hashing pool, written by REHASH_WRITER. Best effort: if either is saturated the upgrade simply
+    // happens on a later login.
+    private void rehash(PasswordHasher hasher, User user, String password) {
+        try {
+            hasher.hash(password).thenAcceptAsync(newHash -> {
+                try (Session session = DatabaseConfig.getSessionFactory().openSession()) {
+                    Transaction tx = session.beginTransaction();
+                    // Only replace the hash we verified, in case the password changed meanwhile
+                    session.createMutationQuery(
+                        "UPDATE User SET password = :newHash WHERE id = :id AND password = :oldHash")
+                        .setParameter("newHash", newHash)
+                        .setParameter("id", user.getId())
+                        .setParameter("oldHash", user.getPassword())
+                        .executeUpdate();
+                    tx.commit();
+                } catch (Exception e) {
+                    System.err.println("Password rehash failed: " + e.getMessage());
+                }
+            }, REHASH_WRITER);
+        } catch (RejectedExecutionException e) {
+            // retried on the next login
         }
     }
 
-    private void handleGoogleLogin(JSONObject json, HttpServletResponse response, PrintWriter out) throws Exception {
+    private void handleGoogleLogin(LoginRequest json, HttpServletResponse response) throws Exception {
         // Extract the ID token from the request
-        String googleToken = json.optString("googleToken");
-        if (googleToken.isEmpty()) {
-            sendError(response, out, HttpServletResponse.SC_BAD_REQUEST, "Missing Google token");
+        String googleToken = json.googleToken;
+        if (googleToken == null || googleToken.isEmpty()) {
+            sendError(response, HttpServletResponse.SC_BAD_REQUEST, "Missing Google token");
             return;
         }
         
@@ -123,14 +176,21 @@ public class LoginServlet extends HttpServlet {
         
         try {
             // Verify the ID token
-            GoogleIdToken idToken = verifier.verify(googleToken);
-            if (idToken == null) {
-                sendError(response, out, HttpServletResponse.SC_UNAUTHORIZED, "Invalid Google token");
+            GoogleIdToken.Payload payload;
+            try {
+                payload = verifier.verify(googleToken);
+            } catch (GoogleTokenVerifier.KeysNotReadyException e) {
+                // The keys are being fetched in the background; they are usually there within a second
+                response.setHeader("Retry-After", "1");
+                sendError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Google sign-in is starting, please retry");
+                return;
+            }
+            if (payload == null) {
+                sendError(response, HttpServletResponse.SC_UNAUTHORIZED, "Invalid Google token");
                 return;
             }
             
             // Extract payload information
-            GoogleIdToken.Payload payload = idToken.getPayload();
             String googleId = payload.getSubject();
             String email = payload.getEmail();
             String name = (String) payload.get("name");
@@ -140,7 +200,7 @@ public class LoginServlet extends HttpServlet {
             
             // Ensure email is verified
             if (emailVerified == null || !emailVerified) {
-                sendError(response, out, HttpServletResponse.SC_UNAUTHORIZED, "Email not verified by Google");
+                sendError(response, HttpServletResponse.SC_UNAUTHORIZED, "Email not verified by Google");
                 return;
             }
             
@@ -161,8 +221,15 @@ public class LoginServlet extends HttpServlet {
                     user.setEmail(email);
                     user.setUsername(name != null ? name : email.split("@")[0]);
                     user.setGoogleId(googleId);
+                    user.setPassword(NO_PASSWORD);
                     user.setVerified(true);
                     session.persist(user);
+                    // Same empty profile as /register creates, so /profile works for Google accounts too
+                    Profile profile = new Profile();
+                    profile.setUser(user);
+                    profile.setPhone("");
+                    profile.setAdresse("");
+                    session.persist(profile);
                     System.out.println("Created new user with Google login: " + email);
                 } else {
                     // Update existing user if needed
@@ -177,22 +244,13 @@ public class LoginServlet extends HttpServlet {
                 session.getTransaction().commit();
                 
                 // Return success response
-                JSONObject successResponse = new JSONObject();
-                successResponse.put("success", true);
-                successResponse.put("message", "Google login successful");
-                
-                JSONObject userInfo = new JSONObject();
-                userInfo.put("email", email);
-                userInfo.put("name", name);
-                successResponse.put("user", userInfo);
-                
-                    out.print(successResponse.toString());
+                Json.write(response, new GoogleLoginResponse(email, name, SessionTokens.get().issue(user.getId())));
                 }
                 
             } catch (Exception e) {
                 System.err.println("Error during Google login: " + e.getMessage());
                 e.printStackTrace();
-                sendError(response, out, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, 
+                sendError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, 
                         "Error processing Google login: " + e.getMessage());
             }
         }
@@ -200,11 +258,51 @@ public class LoginServlet extends HttpServlet {
         // Ensure proper closing of the class and methods
     
         
-    private void sendError(HttpServletResponse response, PrintWriter out, int statusCode, String message) {
-        response.setStatus(statusCode);
-        JSONObject errorResponse = new JSONObject();
-        errorResponse.put("success", false);
-        errorResponse.put("message", message);
-        out.print(errorResponse.toString());
+    static void sendBusy(HttpServletResponse response) throws IOException {
+        response.setHeader("Retry-After", "1");
+        Json.failure(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Server busy, please retry");
+    }
+
+    private void sendError(HttpServletResponse response, int statusCode, String message) throws IOException {
+        Json.failure(response, statusCode, message);
+    }
+
+    // Body of both /login (email, password) and /google-login (googleToken)
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static final class LoginRequest {
+        public String email;
+        public String password;
+        public String googleToken;
+    }
+
+    // Send the token back as "Authorization: Bearer <token>"; expiresAt is in epoch seconds
+    public static class LoginResponse extends Json.Outcome {
+        public final String token;
+        public final long expiresAt;
+
+        LoginResponse(String message, SessionTokens.Issued session) {
+            super(true, message);
+            this.token = session.token;
+            this.expiresAt = session.expiresAt;
+        }
+    }
+
+    public static final class GoogleLoginResponse extends LoginResponse {
+        public final UserInfo user;
+
+        GoogleLoginResponse(String email, String name, SessionTokens.Issued session) {
+            super("Google login successful", session);
+            this.user = new UserInfo(email, name);
+        }
+    }
+
+    public static final class UserInfo {
+        public final String email;
+        public final String name;
+
+        UserInfo(String email, String name) {
+            this.email = email;
+            this.name = name;
+        }
     }
 }
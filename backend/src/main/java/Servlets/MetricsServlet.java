@@ -0,0 +1,373 @@
+package Servlets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.catalina.connector.Connector;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.ProtocolHandler;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.QueryStatistics;
+import org.hibernate.stat.Statistics;
+
+import Admission.AdmissionControl;
+import Admission.ConcurrencyLimit;
+import Config.DatabaseConfig;
+import Config.Startup;
+import Entity.BackfillProgress;
+import Index.AnalysisIndexes;
+import Index.ImageUriFilter;
+import Index.TagStore;
+import Ingest.TagBackfill;
+import Ingest.WriteBehindIngest;
+import Metrics.CacheMetrics;
+import Metrics.PoolMetrics;
+import Metrics.PrometheusText;
+import Metrics.RequestMetrics;
+import Security.GoogleTokenVerifier;
+import Security.PasswordHasher;
+import Security.SessionTokens;
+
+// GET /metrics: everything the server measures, in Prometheus text format.
+// Hibernate counters stay at zero unless hibernate.generate_statistics=true.
+public class MetricsServlet extends HttpServlet {
+
+    private final Connector connector;
+    private final ThreadPoolExecutor requestExecutor;
+    private final int slowestQueries;
+
+    // requestExecutor is the server.threads=async pool, or null
+    public MetricsServlet(Connector connector, ThreadPoolExecutor requestExecutor, int slowestQueries) {
+        this.connector = connector;
+        this.requestExecutor = requestExecutor;
+        this.slowestQueries = slowestQueries;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        PrometheusText out = new PrometheusText();
+        requests(out);
+        hibernate(out);
+        connectionPool(out);
+        threadPools(out);
+        admission(out);
+        indexes(out);
+        startup(out);
+        jvm(out);
+
+        byte[] body = out.toString().getBytes(StandardCharsets.UTF_8);
+        resp.setContentType(PrometheusText.CONTENT_TYPE);
+        resp.setContentLength(body.length);
+        try (OutputStream stream = resp.getOutputStream()) {
+            stream.write(body);
+        }
+    }
+
+    private static void requests(PrometheusText out) {
+        Map<String, RequestMetrics.Endpoint> endpoints = RequestMetrics.get().snapshot();
+        out.family("blinko_http_requests_total", "counter", "HTTP requests by endpoint, method and status");
+        for (Map.Entry<String, RequestMetrics.Endpoint> e : endpoints.entrySet()) {
+            String[] key = splitKey(e.getKey());
+            for (Map.Entry<Integer, Long> status : e.getValue().statuses().entrySet()) {
+                out.sample("blinko_http_requests_total", status.getValue(),
+                        "endpoint", key[0], "method", key[1], "status", status.getKey().toString());
+            }
+        }
+        out.family("blinko_http_request_duration_seconds", "histogram",
+                "Time from the request reaching the server until the response is complete");
+        for (Map.Entry<String, RequestMetrics.Endpoint> e : endpoints.entrySet()) {
+            String[] key = splitKey(e.getKey());
+            out.histogram("blinko_http_request_duration_seconds", e.getValue().latency(),
+                    "endpoint", key[0], "method", key[1]);
+        }
+    }
+
+    private static String[] splitKey(String key) {
+        int space = key.lastIndexOf(' ');
+        return new String[] {key.substring(0, space), key.substring(space + 1)};
+    }
+
+    private void hibernate(PrometheusText out) {
+        SessionFactory sessionFactory = DatabaseConfig.getSessionFactory();
+        if (sessionFactory == null) {
+            return;
+        }
+        Statistics stats = sessionFactory.getStatistics();
+        counter(out, "blinko_hibernate_sessions_opened_total", "Hibernate sessions opened", stats.getSessionOpenCount());
+        counter(out, "blinko_hibernate_transactions_total", "Transactions completed", stats.getTransactionCount());
+        counter(out, "blinko_hibernate_statements_prepared_total", "JDBC statements prepared",
+                stats.getPrepareStatementCount());
+        counter(out, "blinko_hibernate_flushes_total", "Session flushes", stats.getFlushCount());
+        counter(out, "blinko_hibernate_optimistic_failures_total", "Optimistic lock failures",
+                stats.getOptimisticFailureCount());
+
+        out.family("blinko_hibernate_entity_operations_total", "counter", "Entity loads, fetches and writes");
+        out.sample("blinko_hibernate_entity_operations_total", stats.getEntityLoadCount(), "operation", "load");
+        out.sample("blinko_hibernate_entity_operations_total", stats.getEntityFetchCount(), "operation", "fetch");
+        out.sample("blinko_hibernate_entity_operations_total", stats.getEntityInsertCount(), "operation", "insert");
+        out.sample("blinko_hibernate_entity_operations_total", stats.getEntityUpdateCount(), "operation", "update");
+        out.sample("blinko_hibernate_entity_operations_total", stats.getEntityDeleteCount(), "operation", "delete");
+        counter(out, "blinko_hibernate_collection_loads_total", "Collections loaded", stats.getCollectionLoadCount());
+
+        counter(out, "blinko_hibernate_queries_total", "HQL and native queries executed", stats.getQueryExecutionCount());
+        out.family("blinko_hibernate_query_max_seconds", "gauge", "Slowest execution of the slowest queries so far");
+        out.family("blinko_hibernate_query_executions_total", "counter", "Executions of the slowest queries so far");
+        out.family("blinko_hibernate_query_seconds_total", "counter", "Total execution time of the slowest queries so far");
+        for (String query : slowest(stats)) {
+            QueryStatistics q = stats.getQueryStatistics(query);
+            out.sample("blinko_hibernate_query_max_seconds", q.getExecutionMaxTime() / 1e3, "query", query);
+            out.sample("blinko_hibernate_query_executions_total", q.getExecutionCount(), "query", query);
+            out.sample("blinko_hibernate_query_seconds_total", q.getExecutionTotalTime() / 1e3, "query", query);
+        }
+
+        CacheMetrics cache = DatabaseConfig.getCacheMetrics();
+        if (cache != null) {
+            out.family("blinko_cache_requests_total", "counter", "Second-level cache lookups by region and result");
+            regionCounts(out, cache.getRegionHits(), "hit");
+            regionCounts(out, cache.getRegionMisses(), "miss");
+            out.family("blinko_cache_puts_total", "counter", "Second-level cache puts by region");
+            for (Map.Entry<String, Long> e : cache.getRegionPuts().entrySet()) {
+                out.sample("blinko_cache_puts_total", e.getValue(), "region", e.getKey());
+            }
+            out.family("blinko_cache_entries", "gauge", "Entries held by each cache region");
+            for (Map.Entry<String, Long> e : cache.getRegionSizes().entrySet()) {
+                out.sample("blinko_cache_entries", e.getValue(), "region", e.getKey());
+            }
+            out.family("blinko_cache_natural_id_requests_total", "counter", "Natural-id cache lookups by result");
+            out.sample("blinko_cache_natural_id_requests_total", cache.getNaturalIdHitCount(), "result", "hit");
+            out.sample("blinko_cache_natural_id_requests_total", cache.getNaturalIdMissCount(), "result", "miss");
+            out.family("blinko_cache_query_requests_total", "counter", "Query cache lookups by result");
+            out.sample("blinko_cache_query_requests_total", cache.getQueryHitCount(), "result", "hit");
+            out.sample("blinko_cache_query_requests_total", cache.getQueryMissCount(), "result", "miss");
+        }
+    }
+
+    private List<String> slowest(Statistics stats) {
+        List<String> queries = new ArrayList<>();
+        for (String query : stats.getQueries()) {
+            queries.add(query);
+        }
+        queries.sort((a, b) -> Long.compare(stats.getQueryStatistics(b).getExecutionMaxTime(),
+                stats.getQueryStatistics(a).getExecutionMaxTime()));
+        return queries.subList(0, Math.min(slowestQueries, queries.size()));
+    }
+
+    private static void regionCounts(PrometheusText out, Map<String, Long> counts, String result) {
+        for (Map.Entry<String, Long> e : counts.entrySet()) {
+            out.sample("blinko_cache_requests_total", e.getValue(), "region", e.getKey(), "result", result);
+        }
+    }
+
+    private static void connectionPool(PrometheusText out) {
+        PoolMetrics pool = DatabaseConfig.getPoolMetrics();
+        if (pool == null) {
+            return;
+        }
+        out.family("blinko_db_connections", "gauge", "Database connections by state");
+        out.sample("blinko_db_connections", pool.getActiveConnections(), "state", "active");
+        out.sample("blinko_db_connections", pool.getIdleConnections(), "state", "idle");
+        gauge(out, "blinko_db_connection_waiting_threads", "Threads waiting for a connection", pool.getPendingThreads());
+        counter(out, "blinko_db_connection_timeouts_total", "Connection requests that timed out",
+                pool.getConnectionTimeouts());
+        out.family("blinko_db_connection_acquire_seconds", "histogram", "Wait for a pooled connection");
+        out.histogram("blinko_db_connection_acquire_seconds", pool.acquireTimes());
+        out.family("blinko_db_connection_usage_seconds", "histogram", "Time a connection is held");
+        out.histogram("blinko_db_connection_usage_seconds", pool.usageTimes());
+    }
+
+    private void threadPools(PrometheusText out) {
+        out.family("blinko_threads_active", "gauge", "Busy threads per pool");
+        out.family("blinko_threads", "gauge", "Live threads per pool");
+        out.family("blinko_threads_max", "gauge", "Maximum threads per pool");
+        out.family("blinko_threads_queued", "gauge", "Tasks waiting for a thread per pool");
+        ProtocolHandler handler = connector.getProtocolHandler();
+        Executor http = handler.getExecutor();
+        if (http instanceof org.apache.tomcat.util.threads.ThreadPoolExecutor) {
+            org.apache.tomcat.util.threads.ThreadPoolExecutor pool = (org.apache.tomcat.util.threads.ThreadPoolExecutor) http;
+            poolSamples(out, "http", pool.getActiveCount(), pool.getPoolSize(), pool.getMaximumPoolSize(),
+                    pool.getQueue().size());
+        }
+        if (requestExecutor != null) {
+            poolSamples(out, "request", requestExecutor.getActiveCount(), requestExecutor.getPoolSize(),
+                    requestExecutor.getMaximumPoolSize(), requestExecutor.getQueue().size());
+        }
+        PasswordHasher hasher = PasswordHasher.get();
+        poolSamples(out, "bcrypt", hasher.getActiveHashes(), hasher.getThreads(), hasher.getThreads(),
+                hasher.getQueueDepth());
+        if (handler instanceof AbstractProtocol) {
+            gauge(out, "blinko_http_connections", "Open client connections",
+                    ((AbstractProtocol<?>) handler).getConnectionCount());
+        }
+        counter(out, "blinko_bcrypt_rejected_total", "Hashes refused because the queue was full", hasher.getRejected());
+        out.family("blinko_bcrypt_hash_seconds", "histogram", "Time to compute one BCrypt hash or check");
+        out.histogram("blinko_bcrypt_hash_seconds", hasher.hashTimes());
+        out.family("blinko_bcrypt_queue_wait_seconds", "histogram", "Wait for a hashing thread");
+        out.histogram("blinko_bcrypt_queue_wait_seconds", hasher.queueWaits());
+    }
+
+    private static void poolSamples(PrometheusText out, String pool, int active, int threads, int max, int queued) {
+        out.sample("blinko_threads_active", active, "pool", pool);
+        out.sample("blinko_threads", threads, "pool", pool);
+        out.sample("blinko_threads_max", max, "pool", pool);
+        out.sample("blinko_threads_queued", queued, "pool", pool);
+    }
+
+    private static void admission(PrometheusText out) {
+        AdmissionControl control = AdmissionControl.getIfStarted();
+        if (control == null) {
+            return;
+        }
+        ConcurrencyLimit concurrency = control.concurrency();
+        gauge(out, "blinko_admission_concurrency_limit", "Requests allowed in progress at once",
+                concurrency.getLimit());
+        gauge(out, "blinko_admission_in_flight", "Admitted requests in progress", concurrency.getInFlight());
+        gauge(out, "blinko_admission_slowdown", "Recent latency relative to each endpoint's usual",
+                concurrency.getSlowdown());
+        out.family("blinko_admission_rejected_total", "counter", "Requests refused before reaching a servlet");
+        for (AdmissionControl.Group group : AdmissionControl.Group.values()) {
+            out.sample("blinko_admission_rejected_total", control.getRateLimited(group),
+                    "reason", "rate", "group", group.name);
+        }
+        out.sample("blinko_admission_rejected_total", concurrency.getRejected(), "reason", "concurrency");
+        gauge(out, "blinko_admission_sketch_bytes", "Memory of the per-client rate limit buckets",
+                control.getSketchBytes());
+    }
+
+    private static void startup(PrometheusText out) {
+        gauge(out, "blinko_ready", "1 once the server is ready for traffic", Startup.isReady() ? 1 : 0);
+        if (Startup.isReady()) {
+            gauge(out, "blinko_startup_seconds", "Time from JVM start until ready", Startup.readyMillis() / 1000.0);
+        }
+        out.family("blinko_startup_phase_seconds", "gauge", "Duration of each startup phase");
+        for (Map.Entry<String, Long> phase : Startup.phases().entrySet()) {
+            out.sample("blinko_startup_phase_seconds", phase.getValue() / 1000.0, "phase", phase.getKey());
+        }
+    }
+
+    private static void indexes(PrometheusText out) {
+        ImageUriFilter filter = AnalysisIndexes.uris();
+        out.family("blinko_uri_filter_lookups_total", "counter", "imageUri checks by how the Bloom filter answered");
+        out.sample("blinko_uri_filter_lookups_total", filter.getDefiniteMisses(), "result", "definite_miss");
+        out.sample("blinko_uri_filter_lookups_total", filter.getDatabaseFallbacks(), "result", "database");
+        counter(out, "blinko_uri_filter_false_positives_total", "Database fallbacks that found nothing",
+                filter.getFalsePositives());
+        gauge(out, "blinko_uri_filter_insertions", "URIs in the Bloom filter", filter.getInsertions());
+        gauge(out, "blinko_uri_filter_capacity", "URIs the Bloom filter is sized for", filter.getCapacity());
+        BackfillProgress backfill = TagBackfill.progress();
+        if (backfill != null) {
+            gauge(out, "blinko_tag_backfill_last_id", "Highest analysis id the tag backfill has committed",
+                    backfill.getLastId());
+        }
+        gauge(out, "blinko_tag_tables_ready", "1 once tag queries can be answered from the tag tables",
+                TagStore.isReady() ? 1 : 0);
+
+        WriteBehindIngest ingest = WriteBehindIngest.get();
+        if (ingest != null) {
+            gauge(out, "blinko_ingest_journal_pending_records", "Journaled analyses not yet stored",
+                    ingest.getPendingRecords());
+            gauge(out, "blinko_ingest_journal_pending_bytes", "Bytes of journaled analyses not yet stored",
+                    ingest.getPendingBytes());
+            gauge(out, "blinko_ingest_journal_lag_seconds", "Age of the oldest journaled analysis not yet stored",
+                    ingest.getLagMillis() / 1000.0);
+            gauge(out, "blinko_ingest_journal_segments", "Journal segment files on disk", ingest.getSegments());
+            counter(out, "blinko_ingest_drained_total", "Journal records written to the database",
+                    ingest.getDrainedRecords());
+            counter(out, "blinko_ingest_created_total", "Analyses created by the journal drain (the rest existed)",
+                    ingest.getCreatedRecords());
+            counter(out, "blinko_ingest_drain_failures_total", "Drain batches that failed and were retried",
+                    ingest.getDrainFailures());
+            counter(out, "blinko_ingest_rejected_total", "Journal records the database refused and that were parked",
+                    ingest.getRejectedRecords());
+            out.family("blinko_ingest_drain_batch_seconds", "histogram", "Time to write one drained batch");
+            out.histogram("blinko_ingest_drain_batch_seconds", ingest.batchTimes());
+        }
+
+        SessionTokens sessions = SessionTokens.get();
+        out.family("blinko_session_tokens_total", "counter", "Session tokens issued and checked, by result");
+        out.sample("blinko_session_tokens_total", sessions.getIssued(), "result", "issued");
+        out.sample("blinko_session_tokens_total", sessions.getValid(), "result", "valid");
+        out.sample("blinko_session_tokens_total", sessions.getInvalid(), "result", "invalid");
+        out.sample("blinko_session_tokens_total", sessions.getExpired(), "result", "expired");
+
+        GoogleTokenVerifier google = GoogleTokenVerifier.get();
+        out.family("blinko_google_token_cache_requests_total", "counter", "Google ID token checks by cache result");
+        out.sample("blinko_google_token_cache_requests_total", google.getCacheHits(), "result", "hit");
+        out.sample("blinko_google_token_cache_requests_total", google.getCacheMisses(), "result", "miss");
+        counter(out, "blinko_google_key_refresh_failures_total", "Failed downloads of Google's signing keys",
+                google.getKeyRefreshFailures());
+    }
+
+    private static void jvm(PrometheusText out) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        out.family("jvm_memory_used_bytes", "gauge", "Used memory by area");
+        out.family("jvm_memory_committed_bytes", "gauge", "Committed memory by area");
+        out.family("jvm_memory_max_bytes", "gauge", "Maximum memory by area, -1 if unbounded");
+        memorySamples(out, "heap", memory.getHeapMemoryUsage());
+        memorySamples(out, "nonheap", memory.getNonHeapMemoryUsage());
+
+        out.family("jvm_memory_pool_used_bytes", "gauge", "Used memory by pool");
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage usage = pool.getUsage();
+            if (usage != null) {
+                out.sample("jvm_memory_pool_used_bytes", usage.getUsed(), "pool", pool.getName());
+            }
+        }
+
+        out.family("jvm_gc_collections_total", "counter", "Garbage collections by collector");
+        out.family("jvm_gc_collection_seconds_total", "counter", "Time spent in garbage collection by collector");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            out.sample("jvm_gc_collections_total", Math.max(0, gc.getCollectionCount()), "gc", gc.getName());
+            out.sample("jvm_gc_collection_seconds_total", Math.max(0, gc.getCollectionTime()) / 1e3, "gc", gc.getName());
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        gauge(out, "jvm_threads_live", "Live threads", threads.getThreadCount());
+        gauge(out, "jvm_threads_daemon", "Live daemon threads", threads.getDaemonThreadCount());
+        gauge(out, "jvm_threads_peak", "Peak live threads", threads.getPeakThreadCount());
+
+        ClassLoadingMXBean classes = ManagementFactory.getClassLoadingMXBean();
+        gauge(out, "jvm_classes_loaded", "Loaded classes", classes.getLoadedClassCount());
+
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        gauge(out, "process_available_processors", "Cores available to the JVM", os.getAvailableProcessors());
+        gauge(out, "system_load_average_1m", "System load average over the last minute", os.getSystemLoadAverage());
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            counter(out, "process_cpu_seconds_total", "CPU time used by the process",
+                    ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime() / 1e9);
+        }
+        gauge(out, "process_uptime_seconds", "Time since the JVM started",
+                ManagementFactory.getRuntimeMXBean().getUptime() / 1e3);
+    }
+
+    private static void memorySamples(PrometheusText out, String area, MemoryUsage usage) {
+        out.sample("jvm_memory_used_bytes", usage.getUsed(), "area", area);
+        out.sample("jvm_memory_committed_bytes", usage.getCommitted(), "area", area);
+        out.sample("jvm_memory_max_bytes", usage.getMax(), "area", area);
+    }
+
+    private static void counter(PrometheusText out, String name, String help, double value) {
+        out.family(name, "counter", help).sample(name, value);
+    }
+
+    private static void gauge(PrometheusText out, String name, String help, double value) {
+        out.family(name, "gauge", help).sample(name, value);
+    }
+}
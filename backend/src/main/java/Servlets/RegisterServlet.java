@@ -1,7 +1,7 @@
 package Servlets;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -10,58 +10,92 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.hibernate.Session;
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.mindrot.jbcrypt.BCrypt;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonProcessingException;
 
 import Config.DatabaseConfig;
+import Config.Settings;
 import Entity.Profile;
 import Entity.User;
+import Security.PasswordHasher;
 
-@WebServlet("/register")
+@WebServlet(urlPatterns = "/register", asyncSupported = true)
 public class RegisterServlet extends HttpServlet {
+
+    private static final Json.Outcome REGISTERED = new Json.Outcome(true, "User registered successfully");
+
    protected void doPost(HttpServletRequest request, HttpServletResponse response) 
     throws ServletException, IOException {
     
-    response.setContentType("application/json");
     response.setHeader("Access-Control-Allow-Origin", "*");
-    PrintWriter out = response.getWriter();
     
     try {
         // Parse JSON input
-        StringBuilder sb = new StringBuilder();
-        String line;
-        while ((line = request.getReader().readLine()) != null) {
-            sb.append(line);
-        }
-        JSONObject json = new JSONObject(sb.toString());
+        RegisterRequest json = Json.read(request, RegisterRequest.class);
 
         // Validate input
-        if (!json.has("username") || json.getString("username").trim().isEmpty()) {
-            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            out.print("{\"success\":false,\"message\":\"Username is required\"}");
+        if (json == null || json.username == null || json.username.trim().isEmpty()) {
+            Json.failure(response, HttpServletResponse.SC_BAD_REQUEST, "Username is required");
             return;
         }
+        if (json.password == null || json.email == null) {
+            Json.failure(response, HttpServletResponse.SC_BAD_REQUEST, "Password and email are required");
+            return;
+        }
+
+        String username = json.username;
+        String password = json.password;
+        String email = json.email;
 
-        // Database operations
+        // Check for existing user. Not a cached query: one that failed half-way (no connection within
+        // db.pool.acquireTimeoutMs) leaves "no row" in the query region, and the name would pass as free
         try (Session session = DatabaseConfig.getSessionFactory().openSession()) {
-            session.beginTransaction();
-            
-            // Check for existing user
             if (session.createQuery("FROM User WHERE username = :username", User.class)
-                      .setParameter("username", json.getString("username"))
+                      .setParameter("username", username)
                       .uniqueResult() != null) {
-                response.setStatus(HttpServletResponse.SC_CONFLICT);
-                out.print("{\"success\":false,\"message\":\"Username already exists\"}");
+                Json.failure(response, HttpServletResponse.SC_CONFLICT, "Username already exists");
                 return;
             }
+        }
+
+        // BCrypt runs on the hashing pool; this Tomcat thread is released until the hash is ready. After a
+        // timeout the client has been told to retry, so the user is not created.
+        AsyncAnswer answer = AsyncAnswer.start(request, response,
+                Settings.get().getLong("security.hash.asyncTimeoutMs", 30000));
+        try {
+            PasswordHasher.get().hash(password).whenComplete((hash, error) -> answer.answer(() -> {
+                try {
+                    if (error != null) {
+                        throw error;
+                    }
+                    createUser(username, hash, email);
+                    Json.write(response, REGISTERED);
+                } catch (IOException e) {
+                    throw e;
+                } catch (Throwable e) {
+                    Json.failure(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+                }
+            }, "Register"));
+        } catch (RejectedExecutionException e) {
+            answer.busy();
+        }
+    } catch (JsonProcessingException e) {
+        Json.failure(response, HttpServletResponse.SC_BAD_REQUEST, "Invalid JSON format");
+    } catch (Exception e) {
+        Json.failure(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+    }
+}
+
+    private void createUser(String username, String passwordHash, String email) {
+        try (Session session = DatabaseConfig.getSessionFactory().openSession()) {
+            session.beginTransaction();
 
             // Create new user
             User newUser = new User();
-            newUser.setUsername(json.getString("username"));
-            newUser.setPassword(BCrypt.hashpw(json.getString("password"), BCrypt.gensalt()));
-            newUser.setEmail(json.getString("email"));
-            
+            newUser.setUsername(username);
+            newUser.setPassword(passwordHash);
+            newUser.setEmail(email);
+
             session.persist(newUser);
 
             // Create and persist profile linked to the new user
@@ -73,15 +107,13 @@ public class RegisterServlet extends HttpServlet {
             session.persist(profile);
 
             session.getTransaction().commit();
-            
-            out.print("{\"success\":true,\"message\":\"User registered successfully\"}");
         }
-    } catch (JSONException e) {
-        response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-        out.print("{\"success\":false,\"message\":\"Invalid JSON format\"}");
-    } catch (Exception e) {
-        response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-        out.print("{\"success\":false,\"message\":\"" + e.getMessage() + "\"}");
     }
-}
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static final class RegisterRequest {
+        public String username;
+        public String password;
+        public String email;
+    }
 }
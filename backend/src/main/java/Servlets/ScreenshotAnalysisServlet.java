@@ -1,93 +1,882 @@
 package Servlets;
 
 import Config.DatabaseConfig;
+import Config.Settings;
 import Entity.ScreenshotAnalysis;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import Index.AnalysisIndexes;
+import Index.ImageUriFilter;
+import Index.TagIndex;
+import Index.TagStore;
+import Index.TextIndex;
+import Ingest.BulkAnalysisWriter;
+import Ingest.InsertFence;
+import Ingest.WriteBehindIngest;
+import Security.SessionTokenFilter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.SharedSessionContract;
+import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
+import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.query.Query;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class ScreenshotAnalysisServlet extends HttpServlet {
 
+    // URIs per IN (...) query; stays well below driver bind-parameter limits
+    private static final int LOOKUP_CHUNK_SIZE = 500;
+    private static final int MAX_LOOKUP_URIS = 5000;
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
+    private static final int MAX_SEARCH_LIMIT = 100;
+    private static final int DEFAULT_TAG_COUNT_LIMIT = 50;
+    private static final int MAX_TAG_COUNT_LIMIT = 1000;
+
+    private static final Map<String, Boolean> NOT_ANALYZED = java.util.Collections.singletonMap("alreadyAnalyzed", false);
+    // Streamed rows share one generator, which is flushed once when the response ends
+    private static final ObjectWriter ROW_WRITER = Json.writer(ScreenshotAnalysis.class)
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
     // POST: Save new analysis if it doesn't exist
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp)
             throws ServletException, IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        ScreenshotAnalysis newAnalysis = mapper.readValue(req.getReader(), ScreenshotAnalysis.class);
+        if ("/analyze/lookup".equals(req.getServletPath())) {
+            handleLookup(req, resp);
+            return;
+        }
+        if ("/analyze/bulk".equals(req.getServletPath())) {
+            handleBulk(req, resp);
+            return;
+        }
+
+        ScreenshotAnalysis newAnalysis = Json.read(req, ScreenshotAnalysis.class);
+        String invalid = BulkAnalysisWriter.invalidReason(newAnalysis);
+        if (invalid != null) {
+            Json.error(resp, 400, invalid);
+            return;
+        }
+        newAnalysis.setOwnerId(caller(req));
+        WriteBehindIngest ingest = WriteBehindIngest.get();
+        if (ingest != null) {
+            journal(ingest, newAnalysis, resp);
+            return;
+        }
 
         Session session = DatabaseConfig.getSessionFactory().openSession();
         Transaction tx = null;
         ScreenshotAnalysis existing;
+        boolean raced = false;
 
         try {
             tx = session.beginTransaction();
-            existing = session.createQuery("FROM ScreenshotAnalysis WHERE imageUri = :uri", ScreenshotAnalysis.class)
-                    .setParameter("uri", newAnalysis.getImageUri())
-                    .uniqueResult();
+            // A key the filter has never seen is not stored yet (see ImageUriFilter for several instances)
+            existing = AnalysisIndexes.uris().mightContain(newAnalysis.key())
+                    ? find(session, newAnalysis.getOwnerKey(), newAnalysis.getImageUri())
+                    : null;
 
             if (existing == null) {
-                session.save(newAnalysis);
-                tx.commit();
+                InsertFence.Ticket ticket = InsertFence.begin();
+                try {
+                    session.save(newAnalysis);
+                    TagStore.link(session, Collections.singletonMap(newAnalysis.getId(), newAnalysis));
+                    tx.commit();
+                } finally {
+                    ticket.end(newAnalysis.getId() == null ? 0 : newAnalysis.getId());
+                }
+                AnalysisIndexes.onSaved(newAnalysis);
             } else {
                 newAnalysis = existing; // already exists, don't save
             }
 
         } catch (Exception e) {
             if (tx != null) tx.rollback();
-            throw new ServletException(e);
+            if (!isConstraintViolation(e)) {
+                throw new ServletException(e);
+            }
+            raced = true;
         } finally {
             session.close();
         }
 
-        resp.setContentType("application/json");
-        mapper.writeValue(resp.getWriter(), newAnalysis);
+        if (raced) {
+            // Stored by a concurrent request since the lookup: answered with that row, as the lookup would have
+            try (Session retry = DatabaseConfig.getSessionFactory().openSession()) {
+                existing = find(retry, newAnalysis.getOwnerKey(), newAnalysis.getImageUri());
+            } catch (RuntimeException e) {
+                throw new ServletException(e);
+            }
+            if (existing == null) {
+                throw new ServletException("Analysis refused by a constraint other than its key");
+            }
+            AnalysisIndexes.uris().add(existing.key());
+            newAnalysis = existing;
+        }
+        Json.write(resp, newAnalysis);
+    }
+
+    private static boolean isConstraintViolation(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof ConstraintViolationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ingest.mode=journal: 202 once the analysis is journaled; the database write happens in the background.
+    // Only a URI the filter cannot rule out costs a lookup, to answer an already stored analysis as before.
+    // The analysis has been validated: the drain must never meet a record the database refuses.
+    private static void journal(WriteBehindIngest ingest, ScreenshotAnalysis analysis, HttpServletResponse resp)
+            throws ServletException, IOException {
+        if (AnalysisIndexes.uris().mightContain(analysis.key())) {
+            ScreenshotAnalysis existing;
+            try (Session session = DatabaseConfig.getSessionFactory().openSession()) {
+                existing = find(session, analysis.getOwnerKey(), analysis.getImageUri());
+            } catch (RuntimeException e) {
+                throw new ServletException(e);
+            }
+            if (existing != null) {
+                Json.write(resp, existing);
+                return;
+            }
+        }
+        switch (ingest.accept(analysis)) {
+            case FULL:
+                LoginServlet.sendBusy(resp);
+                break;
+            case PENDING:
+                Json.write(resp, HttpServletResponse.SC_ACCEPTED, ingest.pending(analysis.key()));
+                break;
+            default:
+                Json.write(resp, HttpServletResponse.SC_ACCEPTED, analysis);
+        }
     }
 
     // GET: Check if image URI has already been analyzed
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp)
             throws ServletException, IOException {
+        if ("/analyze/tags".equals(req.getServletPath())) {
+            tagCounts(req, resp);
+            return;
+        }
+        if (req.getParameter("since") != null) {
+            AnalysisSync.handle(req, resp, ScreenshotAnalysis.ownerKey(caller(req)));
+            return;
+        }
         String imageUri = req.getParameter("imageUri");
         String tag = req.getParameter("tag");
+        String tags = req.getParameter("tags");
+        String prefix = req.getParameter("prefix");
+        String query = req.getParameter("q");
+        long ownerKey = ScreenshotAnalysis.ownerKey(caller(req));
+
+        // Accepted by the journal but not stored yet: answered as analyzed, without an id
+        WriteBehindIngest ingest = WriteBehindIngest.get();
+        ScreenshotAnalysis journaled = ingest != null && imageUri != null
+                ? ingest.pending(ScreenshotAnalysis.key(ownerKey, imageUri))
+                : null;
+        if (journaled != null) {
+            Json.write(resp, journaled);
+            return;
+        }
+        // Most checks from a freshly synced device are for images never analyzed; the filter rules those out
+        // without opening a session
+        ImageUriFilter uris = AnalysisIndexes.uris();
+        if (imageUri != null && !uris.mightContain(ScreenshotAnalysis.key(ownerKey, imageUri))) {
+            Json.write(resp, NOT_ANALYZED);
+            return;
+        }
+        if (imageUri == null && query == null && (tag != null || tags != null || prefix != null)) {
+            // Only the rows being returned are loaded; which ones is answered by the tag tables or, until
+            // their backfill is done, by the in-memory index. Both open their own stateless session, so no
+            // other connection is held meanwhile.
+            if (fromTagTables()) {
+                listByTagFromTables(req, resp, ownerKey, tag, tags, prefix, req.getParameter("match"));
+            } else {
+                listByTag(req, resp, ownerKey, matchTags(tag, tags, prefix, req.getParameter("match")));
+            }
+            return;
+        }
 
         Session session = DatabaseConfig.getSessionFactory().openSession();
-        ObjectMapper mapper = new ObjectMapper();
 
         try {
-            resp.setContentType("application/json");
             if (imageUri != null) {
-                // Existing logic: fetch by imageUri
-                ScreenshotAnalysis analysis = session.createQuery(
-                    "FROM ScreenshotAnalysis WHERE imageUri = :uri", ScreenshotAnalysis.class)
-                    .setParameter("uri", imageUri)
-                    .uniqueResult();
+                // (owner, imageUri) is the natural id: repeated checks are answered from the second-level cache
+                ScreenshotAnalysis analysis = find(session, ownerKey, imageUri);
                 if (analysis == null) {
-                    mapper.writeValue(resp.getWriter(), java.util.Collections.singletonMap("alreadyAnalyzed", false));
-                } else {
-                    mapper.writeValue(resp.getWriter(), analysis);
+                    uris.recordFalsePositive();
+                    Json.write(resp, NOT_ANALYZED);
+                } else if (!HttpCaching.notModifiedImmutable(req, resp, "a", analysis.getId(),
+                        analysis.getOwnerKey() == ScreenshotAnalysis.NO_OWNER)) {
+                    Json.write(resp, analysis);
                 }
-            } else if (tag != null) {
-                // New logic: fetch all analyses where tags LIKE %tag%
-                String likePattern = "%" + tag.toLowerCase() + "%";
-                // Assuming tags are stored as comma-separated string
-                java.util.List<ScreenshotAnalysis> results = session.createQuery(
-                    "FROM ScreenshotAnalysis WHERE LOWER(tags) LIKE :tag", ScreenshotAnalysis.class)
-                    .setParameter("tag", likePattern)
-                    .getResultList();
-                mapper.writeValue(resp.getWriter(), results);
+            } else if (query != null) {
+                search(session, req, resp, ownerKey, query);
+            } else if (caller(req) != null) {
+                listOwned(session, req, resp, caller(req));
             } else {
-                // Optionally, return all analyses or an error
-                resp.setStatus(400);
-                mapper.writeValue(resp.getWriter(), java.util.Collections.singletonMap("error", "No search parameter provided"));
+                Json.error(resp, 400, "No search parameter provided");
             }
         } finally {
             session.close();
         }
     }
+
+    // The analysis the owner stored under imageUri, or null
+    private static ScreenshotAnalysis find(Session session, long ownerKey, String imageUri) {
+        return session.byNaturalId(ScreenshotAnalysis.class)
+                .using("ownerKey", ownerKey)
+                .using("imageUri", imageUri)
+                .load();
+    }
+
+    // q=...&limit=20&cursor=...: ranked full-text search over descriptions and tags. The index ranks every
+    // owner's analyses, and only the caller's are kept, so a page can hold fewer than limit results while
+    // nextCursor still leads on.
+    private static void search(Session session, HttpServletRequest req, HttpServletResponse resp,
+                               long ownerKey, String query) throws IOException {
+        int limit;
+        TextIndex.Hit after;
+        try {
+            String limitParam = req.getParameter("limit");
+            limit = limitParam == null ? DEFAULT_SEARCH_LIMIT : Integer.parseInt(limitParam);
+            String cursor = req.getParameter("cursor");
+            after = cursor == null || cursor.isEmpty() ? null : TextIndex.Hit.fromCursor(cursor);
+        } catch (IllegalArgumentException e) {
+            Json.error(resp, 400, "Invalid limit or cursor");
+            return;
+        }
+        limit = Math.max(1, Math.min(limit, MAX_SEARCH_LIMIT));
+
+        List<TextIndex.Hit> hits = AnalysisIndexes.text().search(query, limit, after);
+        boolean hasMore = hits.size() > limit;
+        if (hasMore) {
+            hits = hits.subList(0, limit);
+        }
+
+        long[] ids = new long[hits.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = hits.get(i).id;
+        }
+        java.util.Arrays.sort(ids);
+        Map<Long, ScreenshotAnalysis> byId = new HashMap<>();
+        for (ScreenshotAnalysis analysis : findByIds(session, ownerKey, ids)) {
+            byId.put(analysis.getId(), analysis);
+        }
+
+        List<SearchResult> results = new ArrayList<>(hits.size());
+        for (TextIndex.Hit hit : hits) {
+            ScreenshotAnalysis analysis = byId.get(hit.id);
+            if (analysis != null) {
+                results.add(new SearchResult(hit.score, analysis));
+            }
+        }
+        Json.write(resp, new SearchPage(results, hasMore ? hits.get(hits.size() - 1).cursor() : null));
+    }
+
+    // tag / tags=a,b (match=all|any, default all) / prefix=ca; several parameters are ANDed together
+    static TagIndex.Matches matchTags(String tag, String tags, String prefix, String match) {
+        TagIndex index = AnalysisIndexes.tags();
+        List<String> wanted = new ArrayList<>();
+        if (tag != null) {
+            wanted.add(tag);
+        }
+        if (tags != null) {
+            wanted.addAll(TagIndex.tokens(tags));
+        }
+
+        TagIndex.Matches matches = null;
+        if (!wanted.isEmpty()) {
+            matches = "any".equalsIgnoreCase(match) ? index.any(wanted) : index.all(wanted);
+        }
+        if (prefix != null) {
+            TagIndex.Matches prefixed = index.prefix(prefix);
+            matches = matches == null ? prefixed : TagIndex.intersect(matches, prefixed);
+        }
+        return matches;
+    }
+
+    // Newest first by (creationTime, id). Without limit the whole result is streamed as a plain JSON array
+    // (the shape the app has always read); with limit=N a page plus nextCursor is returned. Matches are
+    // counted over every owner's analyses and only the caller's are written, so a page can come back short.
+    private static void listByTag(HttpServletRequest req, HttpServletResponse resp, long ownerKey,
+                                  TagIndex.Matches matches) throws IOException {
+        Integer limit = null;
+        int end = matches.size();
+        try {
+            String limitParam = req.getParameter("limit");
+            if (limitParam != null) {
+                limit = Math.max(1, Math.min(Integer.parseInt(limitParam), MAX_SEARCH_LIMIT));
+            }
+            long[] after = parseCursor(req.getParameter("cursor"));
+            if (after != null) {
+                end = matches.countBefore(after[0], after[1]);
+            }
+        } catch (RuntimeException e) {
+            Json.error(resp, 400, "Invalid limit or cursor");
+            return;
+        }
+        int start = limit == null ? 0 : Math.max(0, end - limit);
+
+        try (StatelessSession session = DatabaseConfig.getSessionFactory().openStatelessSession();
+             JsonGenerator out = Json.generator(resp)) {
+            if (limit != null) {
+                out.writeStartObject();
+                out.writeArrayFieldStart("results");
+            } else {
+                out.writeStartArray();
+            }
+            // Walk the matches backwards one chunk at a time; each chunk is scrolled row by row, so heap use
+            // is bounded by the chunk size however many analyses match
+            List<Long> chunk = new ArrayList<>(LOOKUP_CHUNK_SIZE);
+            for (int high = end; high > start; high -= LOOKUP_CHUNK_SIZE) {
+                chunk.clear();
+                for (int i = Math.max(start, high - LOOKUP_CHUNK_SIZE); i < high; i++) {
+                    chunk.add(matches.id(i));
+                }
+                writeRows(session, out, ownerKey, chunk);
+            }
+            if (limit != null) {
+                out.writeEndArray();
+                out.writeStringField("nextCursor", start > 0 ? cursor(matches.time(start), matches.id(start)) : null);
+                out.writeEndObject();
+            } else {
+                out.writeEndArray();
+            }
+        }
+    }
+
+    // The tables see every instance's analyses; the in-memory index only this one's until its next refresh
+    private static boolean fromTagTables() {
+        return TagStore.isReady() && (!AnalysisIndexes.complete()
+                || "database".equalsIgnoreCase(Settings.get().get("tags.source", "database")));
+    }
+
+    // Same parameters as matchTags, as groups of tag ids of which an analysis needs one each.
+    // A requested tag that does not exist yields an empty group, so nothing matches.
+    static List<List<Long>> tagGroups(SharedSessionContract session, String tag, String tags, String prefix, String match) {
+        List<String> wanted = new ArrayList<>();
+        if (tag != null) {
+            wanted.add(tag);
+        }
+        if (tags != null) {
+            wanted.addAll(TagIndex.tokens(tags));
+        }
+
+        List<List<Long>> groups = new ArrayList<>();
+        if (!wanted.isEmpty()) {
+            if ("any".equalsIgnoreCase(match)) {
+                groups.add(TagStore.exactIds(session, wanted));
+            } else {
+                for (String name : wanted) {
+                    groups.add(TagStore.exactIds(session, Collections.singletonList(name)));
+                }
+            }
+        }
+        if (prefix != null) {
+            groups.add(TagStore.prefixIds(session, prefix));
+        }
+        // Rarest group first: it drives the index scan, the others are only probed
+        groups.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        return groups;
+    }
+
+    // listByTag over analysis_tag: keyset pages of idx_analysis_tag_listing, same order, cursors and shapes.
+    // The tag ids are resolved on the same connection that pages the rows.
+    private static void listByTagFromTables(HttpServletRequest req, HttpServletResponse resp, long ownerKey,
+                                            String tag, String tags, String prefix, String match)
+            throws IOException {
+        Integer limit = null;
+        long[] after;
+        try {
+            String limitParam = req.getParameter("limit");
+            if (limitParam != null) {
+                limit = Math.max(1, Math.min(Integer.parseInt(limitParam), MAX_SEARCH_LIMIT));
+            }
+            after = parseCursor(req.getParameter("cursor"));
+        } catch (RuntimeException e) {
+            Json.error(resp, 400, "Invalid limit or cursor");
+            return;
+        }
+
+        try (StatelessSession session = DatabaseConfig.getSessionFactory().openStatelessSession();
+             JsonGenerator out = Json.generator(resp)) {
+            if (limit != null) {
+                out.writeStartObject();
+                out.writeArrayFieldStart("results");
+            } else {
+                out.writeStartArray();
+            }
+            List<List<Long>> groups = tagGroups(session, tag, tags, prefix, match);
+            int pageSize = limit != null ? limit : LOOKUP_CHUNK_SIZE;
+            List<Long> chunk = new ArrayList<>(pageSize);
+            long[] last = null;
+            boolean hasMore;
+            do {
+                // One extra row tells whether another page follows
+                List<long[]> page = TagStore.page(session, groups, after, pageSize + 1);
+                hasMore = page.size() > pageSize;
+                if (hasMore) {
+                    page = page.subList(0, pageSize);
+                }
+                chunk.clear();
+                for (long[] row : page) {
+                    chunk.add(row[1]);
+                }
+                writeRows(session, out, ownerKey, chunk);
+                if (!page.isEmpty()) {
+                    last = page.get(page.size() - 1);
+                    after = last;
+                }
+            } while (hasMore && limit == null);
+
+            if (limit != null) {
+                out.writeEndArray();
+                out.writeStringField("nextCursor", hasMore ? cursor(last[0], last[1]) : null);
+                out.writeEndObject();
+            } else {
+                out.writeEndArray();
+            }
+        }
+    }
+
+    // The user of the request's session token, if it carried one
+    private static Long caller(HttpServletRequest req) {
+        return (Long) req.getAttribute(SessionTokenFilter.USER_ID);
+    }
+
+    // GET /analyze with a session token: the caller's analyses, newest first by (creationTime, id), from
+    // idx_analysis_key_time. from / to (epoch millis) bound creationTime, from inclusive and to exclusive;
+    // limit=20 (at most 100) per page plus a keyset nextCursor. Without a range, analyses that have no
+    // creationTime follow the dated ones, by id, under "n-<id36>" cursors.
+    private static void listOwned(Session session, HttpServletRequest req, HttpServletResponse resp, long owner)
+            throws IOException {
+        int limit;
+        Long from;
+        Long to;
+        long[] after = null;
+        Long undatedBefore = null;
+        try {
+            String limitParam = req.getParameter("limit");
+            limit = limitParam == null ? DEFAULT_SEARCH_LIMIT : Integer.parseInt(limitParam);
+            from = longParameter(req, "from");
+            to = longParameter(req, "to");
+            String cursor = req.getParameter("cursor");
+            if (cursor != null && cursor.startsWith("n-")) {
+                undatedBefore = Long.parseLong(cursor.substring(2), 36);
+            } else {
+                after = parseCursor(cursor);
+            }
+        } catch (RuntimeException e) {
+            Json.error(resp, 400, "Invalid limit, range or cursor");
+            return;
+        }
+        limit = Math.max(1, Math.min(limit, MAX_SEARCH_LIMIT));
+        boolean ranged = from != null || to != null;
+        if (ranged && undatedBefore != null) {
+            Json.error(resp, 400, "Invalid limit, range or cursor");
+            return;
+        }
+
+        // One extra row tells whether another page follows
+        List<ScreenshotAnalysis> rows = new ArrayList<>(limit + 1);
+        if (undatedBefore == null) {
+            rows.addAll(ownedPage(session, owner, from, to, after, limit + 1));
+        }
+        if (rows.size() <= limit && !ranged) {
+            rows.addAll(undatedPage(session, owner, undatedBefore, limit + 1 - rows.size()));
+        }
+        String nextCursor = null;
+        if (rows.size() > limit) {
+            rows = rows.subList(0, limit);
+            ScreenshotAnalysis last = rows.get(limit - 1);
+            nextCursor = last.getCreationTime() == null
+                    ? "n-" + Long.toString(last.getId(), 36)
+                    : cursor(last.getCreationTime(), last.getId());
+        }
+        Json.write(resp, new OwnedPage(rows, nextCursor));
+    }
+
+    private static List<ScreenshotAnalysis> ownedPage(Session session, long owner, Long from, Long to,
+                                                      long[] after, int limit) {
+        StringBuilder hql = new StringBuilder(
+                "FROM ScreenshotAnalysis a WHERE a.ownerKey = :owner AND a.creationTime IS NOT NULL");
+        if (from != null) {
+            hql.append(" AND a.creationTime >= :from");
+        }
+        if (to != null) {
+            hql.append(" AND a.creationTime < :to");
+        }
+        if (after != null) {
+            hql.append(" AND a.creationTime <= :time AND (a.creationTime < :time OR a.id < :id)");
+        }
+        hql.append(" ORDER BY a.creationTime DESC, a.id DESC");
+
+        Query<ScreenshotAnalysis> query = session.createQuery(hql.toString(), ScreenshotAnalysis.class)
+                .setParameter("owner", owner);
+        if (from != null) {
+            query.setParameter("from", from);
+        }
+        if (to != null) {
+            query.setParameter("to", to);
+        }
+        if (after != null) {
+            query.setParameter("time", after[0]);
+            query.setParameter("id", after[1]);
+        }
+        return query.setMaxResults(limit).setReadOnly(true).getResultList();
+    }
+
+    private static List<ScreenshotAnalysis> undatedPage(Session session, long owner, Long before, int limit) {
+        Query<ScreenshotAnalysis> query = session.createQuery(
+                "FROM ScreenshotAnalysis a WHERE a.ownerKey = :owner AND a.creationTime IS NULL"
+                + (before == null ? "" : " AND a.id < :id") + " ORDER BY a.id DESC", ScreenshotAnalysis.class)
+                .setParameter("owner", owner);
+        if (before != null) {
+            query.setParameter("id", before);
+        }
+        return query.setMaxResults(limit).setReadOnly(true).getResultList();
+    }
+
+    private static Long longParameter(HttpServletRequest req, String name) {
+        String value = req.getParameter(name);
+        return value == null || value.isEmpty() ? null : Long.valueOf(value);
+    }
+
+    // The owner's rows of one chunk of ids, newest first, scrolled one by one into the response
+    private static void writeRows(StatelessSession session, JsonGenerator out, long ownerKey, List<Long> ids)
+            throws IOException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        try (ScrollableResults<ScreenshotAnalysis> rows = session.createQuery(
+                "FROM ScreenshotAnalysis a WHERE a.id IN (:ids) AND a.ownerKey = :owner"
+                + " ORDER BY COALESCE(a.creationTime, 0) DESC, a.id DESC", ScreenshotAnalysis.class)
+                .setParameterList("ids", ids)
+                .setParameter("owner", ownerKey)
+                .setReadOnly(true)
+                .setFetchSize(LOOKUP_CHUNK_SIZE)
+                .scroll(ScrollMode.FORWARD_ONLY)) {
+            while (rows.next()) {
+                ROW_WRITER.writeValue(out, rows.get());
+            }
+        }
+    }
+
+    // "time36-id36" of the last analysis on the previous page, or null for the first page
+    private static long[] parseCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        int dash = cursor.indexOf('-', 1);
+        return new long[] {Long.parseLong(cursor.substring(0, dash), 36), Long.parseLong(cursor.substring(dash + 1), 36)};
+    }
+
+    private static String cursor(long time, long id) {
+        return Long.toString(time, 36) + "-" + Long.toString(id, 36);
+    }
+
+    // GET /analyze/tags?prefix=ca&limit=50: {"tag": count, ...}, most used first
+    private static void tagCounts(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        int limit;
+        try {
+            String limitParam = req.getParameter("limit");
+            limit = limitParam == null ? DEFAULT_TAG_COUNT_LIMIT : Integer.parseInt(limitParam);
+        } catch (NumberFormatException e) {
+            Json.error(resp, 400, "Invalid limit");
+            return;
+        }
+        limit = Math.max(1, Math.min(limit, MAX_TAG_COUNT_LIMIT));
+        String prefix = req.getParameter("prefix");
+
+        if (!fromTagTables()) {
+            Json.write(resp, AnalysisIndexes.tags().counts(prefix, limit));
+            return;
+        }
+        try (StatelessSession session = DatabaseConfig.getSessionFactory().openStatelessSession()) {
+            Json.write(resp, TagStore.counts(session, prefix, limit));
+        } catch (RuntimeException e) {
+            throw new ServletException(e);
+        }
+    }
+
+    // Loads the owner's analyses by id, in id order, one IN (...) query per chunk
+    public static List<ScreenshotAnalysis> findByIds(Session session, long ownerKey, long[] ids) {
+        List<ScreenshotAnalysis> results = new ArrayList<>(ids.length);
+        List<Long> chunk = new ArrayList<>(Math.min(ids.length, LOOKUP_CHUNK_SIZE));
+        for (int i = 0; i < ids.length; i++) {
+            chunk.add(ids[i]);
+            if (chunk.size() == LOOKUP_CHUNK_SIZE || i == ids.length - 1) {
+                results.addAll(session.createQuery(
+                        "FROM ScreenshotAnalysis WHERE id IN (:ids) AND ownerKey = :owner ORDER BY id",
+                        ScreenshotAnalysis.class)
+                        .setParameterList("ids", chunk)
+                        .setParameter("owner", ownerKey)
+                        .setReadOnly(true)
+                        .getResultList());
+                chunk.clear();
+            }
+        }
+        return results;
+    }
+
+    // POST /analyze/lookup: {"imageUris": [...]} -> which ones are already analyzed, in one round trip
+    private void handleLookup(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+        JsonNode uris = Json.readTree(req).path("imageUris");
+        if (!uris.isArray()) {
+            Json.error(resp, 400, "imageUris array is required");
+            return;
+        }
+        if (uris.size() > MAX_LOOKUP_URIS) {
+            Json.error(resp, 413, "At most " + MAX_LOOKUP_URIS + " imageUris per lookup");
+            return;
+        }
+
+        long ownerKey = ScreenshotAnalysis.ownerKey(caller(req));
+        ImageUriFilter filter = AnalysisIndexes.uris();
+        LinkedHashSet<String> requested = new LinkedHashSet<>();
+        List<String> candidates = new ArrayList<>();
+        for (JsonNode uri : uris) {
+            if (uri.isTextual() && requested.add(uri.asText())
+                    && filter.mightContain(ScreenshotAnalysis.key(ownerKey, uri.asText()))) {
+                candidates.add(uri.asText());
+            }
+        }
+
+        // Only URIs the filter could not rule out are looked up
+        Map<String, ScreenshotAnalysis> found;
+        if (candidates.isEmpty()) {
+            found = new HashMap<>();
+        } else {
+            try (Session session = DatabaseConfig.getSessionFactory().openSession()) {
+                found = findByImageUris(session, ownerKey, candidates);
+            } catch (Exception e) {
+                throw new ServletException(e);
+            }
+        }
+        for (int i = found.size(); i < candidates.size(); i++) {
+            filter.recordFalsePositive();
+        }
+
+        Map<String, ScreenshotAnalysis> analyzed = new LinkedHashMap<>();
+        List<String> notAnalyzed = new ArrayList<>();
+        WriteBehindIngest ingest = WriteBehindIngest.get();
+        for (String uri : requested) {
+            ScreenshotAnalysis analysis = found.get(uri);
+            if (analysis == null && ingest != null) {
+                analysis = ingest.pending(ScreenshotAnalysis.key(ownerKey, uri));
+            }
+            if (analysis != null) {
+                analyzed.put(uri, analysis);
+            } else {
+                notAnalyzed.add(uri);
+            }
+        }
+
+        Json.write(resp, new LookupResult(analyzed, notAnalyzed));
+    }
+
+    // POST /analyze/bulk: JSON array (or whitespace/newline separated objects) of analyses.
+    // Items are read one by one from the request stream, written in batches with one transaction each,
+    // and every item gets a created / existing / invalid status in request order.
+    private void handleBulk(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+        int created = 0;
+        int existing = 0;
+        int invalid = 0;
+        try (MappingIterator<ScreenshotAnalysis> items = Json.reader(ScreenshotAnalysis.class).readValues(req.getInputStream());
+             Session session = DatabaseConfig.getSessionFactory().openSession();
+             JsonGenerator out = Json.generator(resp)) {
+            out.writeStartObject();
+            out.writeArrayFieldStart("results");
+
+            Long owner = caller(req);
+            List<ScreenshotAnalysis> batch = new ArrayList<>(BulkAnalysisWriter.BATCH_SIZE);
+            while (items.hasNextValue()) {
+                ScreenshotAnalysis item = items.nextValue();
+                if (item != null) {
+                    item.setOwnerId(owner);
+                }
+                batch.add(item);
+                if (batch.size() == BulkAnalysisWriter.BATCH_SIZE) {
+                    int[] counts = writeBulkBatch(session, batch, out);
+                    created += counts[0];
+                    existing += counts[1];
+                    invalid += counts[2];
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                int[] counts = writeBulkBatch(session, batch, out);
+                created += counts[0];
+                existing += counts[1];
+                invalid += counts[2];
+            }
+
+            out.writeEndArray();
+            out.writeNumberField("created", created);
+            out.writeNumberField("existing", existing);
+            out.writeNumberField("invalid", invalid);
+            out.writeEndObject();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ServletException(e);
+        }
+    }
+
+    // Returns {created, existing, invalid} for the batch after writing its per-item results
+    private static int[] writeBulkBatch(Session session, List<ScreenshotAnalysis> batch, JsonGenerator out)
+            throws IOException {
+        List<ScreenshotAnalysis> valid = new ArrayList<>(batch.size());
+        for (ScreenshotAnalysis analysis : batch) {
+            if (BulkAnalysisWriter.invalidReason(analysis) == null) {
+                valid.add(analysis);
+            }
+        }
+
+        Map<String, Long> createdIds;
+        Map<Long, ScreenshotAnalysis> createdRows = new LinkedHashMap<>();
+        Transaction tx = session.beginTransaction();
+        InsertFence.Ticket ticket = InsertFence.begin();
+        try {
+            createdIds = BulkAnalysisWriter.insertIgnoringExisting(session, valid);
+            for (ScreenshotAnalysis analysis : valid) {
+                Long id = createdIds.get(analysis.key());
+                if (id != null) {
+                    createdRows.putIfAbsent(id, analysis);
+                }
+            }
+            TagStore.link(session, createdRows);
+            tx.commit();
+        } catch (RuntimeException e) {
+            tx.rollback();
+            throw e;
+        } finally {
+            ticket.end(createdRows.isEmpty() ? 0 : Collections.max(createdRows.keySet()));
+        }
+        // The rows went in over plain JDBC, behind Hibernate's back: drop cached query results that could
+        // predate them. Entity and imageUri caches only ever hold rows that already existed, so they stay valid.
+        session.getSessionFactory().getCache().evictQueryRegions();
+        AnalysisIndexes.onSaved(createdRows);
+
+        int[] counts = new int[3];
+        Set<String> reported = new HashSet<>();
+        for (ScreenshotAnalysis analysis : batch) {
+            out.writeStartObject();
+            if (BulkAnalysisWriter.invalidReason(analysis) != null) {
+                out.writeStringField("status", "invalid");
+                counts[2]++;
+            } else {
+                out.writeStringField("imageUri", analysis.getImageUri());
+                Long id = createdIds.get(analysis.key());
+                // A URI repeated inside the request is only created once
+                if (id != null && reported.add(analysis.key())) {
+                    out.writeStringField("status", "created");
+                    out.writeNumberField("id", id);
+                    counts[0]++;
+                } else {
+                    out.writeStringField("status", "existing");
+                    counts[1]++;
+                }
+            }
+            out.writeEndObject();
+        }
+        return counts;
+    }
+
+    // The owner's analyses by imageUri, one set-based query per chunk instead of one query per URI
+    public static Map<String, ScreenshotAnalysis> findByImageUris(Session session, long ownerKey,
+                                                                  Collection<String> imageUris) {
+        Map<String, ScreenshotAnalysis> found = new HashMap<>();
+        List<String> chunk = new ArrayList<>(Math.min(imageUris.size(), LOOKUP_CHUNK_SIZE));
+        for (String uri : imageUris) {
+            chunk.add(uri);
+            if (chunk.size() == LOOKUP_CHUNK_SIZE) {
+                collectChunk(session, ownerKey, chunk, found);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            collectChunk(session, ownerKey, chunk, found);
+        }
+        return found;
+    }
+
+    private static void collectChunk(Session session, long ownerKey, List<String> chunk,
+                                     Map<String, ScreenshotAnalysis> found) {
+        List<ScreenshotAnalysis> rows = session.createQuery(
+                "FROM ScreenshotAnalysis WHERE ownerKey = :owner AND imageUri IN (:uris)", ScreenshotAnalysis.class)
+                .setParameter("owner", ownerKey)
+                .setParameterList("uris", chunk)
+                .setReadOnly(true)
+                .getResultList();
+        for (ScreenshotAnalysis row : rows) {
+            found.put(row.getImageUri(), row);
+        }
+    }
+
+    public static final class SearchResult {
+        public final float score;
+        public final ScreenshotAnalysis analysis;
+
+        SearchResult(float score, ScreenshotAnalysis analysis) {
+            this.score = score;
+            this.analysis = analysis;
+        }
+    }
+
+    public static final class SearchPage {
+        public final List<SearchResult> results;
+        public final String nextCursor;
+
+        SearchPage(List<SearchResult> results, String nextCursor) {
+            this.results = results;
+            this.nextCursor = nextCursor;
+        }
+    }
+
+    public static final class OwnedPage {
+        public final List<ScreenshotAnalysis> results;
+        public final String nextCursor;
+
+        OwnedPage(List<ScreenshotAnalysis> results, String nextCursor) {
+            this.results = results;
+            this.nextCursor = nextCursor;
+        }
+    }
+
+    public static final class LookupResult {
+        public final Map<String, ScreenshotAnalysis> analyzed;
+        public final List<String> notAnalyzed;
+
+        LookupResult(Map<String, ScreenshotAnalysis> analyzed, List<String> notAnalyzed) {
+            this.analyzed = analyzed;
+            this.notAnalyzed = notAnalyzed;
+        }
+    }
 }
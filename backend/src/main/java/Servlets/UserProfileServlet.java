@@ -1,57 +1,60 @@
 package Servlets;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.HashMap;
-import java.util.Map;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
 
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.HttpSession;
 
 import org.hibernate.Session;
 import org.hibernate.Transaction;
+import org.hibernate.query.MutationQuery;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.JsonNode;
 
 import Config.DatabaseConfig;
 import Entity.Profile;
 import Entity.User;
+import Security.SessionTokenFilter;
 
 
 @WebServlet("/profile")
 public class UserProfileServlet extends HttpServlet {
 
+    private static final Json.Outcome PROFILE_UPDATED = new Json.Outcome(true, "Profile updated successfully");
+
+    // Profile fields a client may change; the key is also the name of the Profile attribute
+    private static final String[] EDITABLE = {"phone", "birthday", "adresse"};
+
+    // HttpServlet knows nothing of PATCH and would answer 501
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        if ("PATCH".equals(request.getMethod())) {
+            doPatch(request, response);
+        } else {
+            super.service(request, response);
+        }
+    }
+
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-        response.setContentType("application/json");
-        response.setCharacterEncoding("UTF-8");
         response.setHeader("Access-Control-Allow-Origin", "*"); // Allow React Native access
 
-        PrintWriter out = response.getWriter();
-
-        // Get user ID from session (if available)
-        HttpSession session = request.getSession(false);
-        Long userId = (session != null) ? (Long) session.getAttribute("userId") : 1L; // fallback to ID = 1
+        // Set by SessionTokenFilter from the bearer token
+        Long userId = (Long) request.getAttribute(SessionTokenFilter.USER_ID);
 
         try (Session hibernateSession = DatabaseConfig.getSessionFactory().openSession()) {
-            User user = hibernateSession.get(User.class, userId);
-
-            if (user != null && user.getProfile() != null) {
-                Profile profile = user.getProfile();
-                ObjectMapper mapper = new ObjectMapper();
-                Map<String, Object> data = new HashMap<>();
-                data.put("id", user.getId());
-                data.put("username", user.getUsername());
-                data.put("email", user.getEmail());
-                data.put("phone", profile.getPhone());
-                data.put("birthday", profile.getBirthday() != null ? profile.getBirthday().toString() : "");
-                data.put("adresse", profile.getAdresse());
-                out.write(mapper.writeValueAsString(data));
-                out.flush();
+            ProfileView view = find(hibernateSession, userId);
+
+            if (view != null) {
+                // Unchanged profiles are answered with 304 and no body
+                HttpCaching.writeRevalidated(request, response, view);
             } else {
                 response.sendError(HttpServletResponse.SC_NOT_FOUND, "User not found");
             }
@@ -61,65 +64,139 @@ public class UserProfileServlet extends HttpServlet {
         }
     }
 
+    // Same as PATCH: the fields present in the body are changed, the others are left alone
     @Override
     protected void doPut(HttpServletRequest request, HttpServletResponse response) throws IOException {
-        response.setContentType("application/json");
-        response.setCharacterEncoding("UTF-8");
-        response.setHeader("Access-Control-Allow-Origin", "*"); // Allow React Native access
-        response.setHeader("Access-Control-Allow-Methods", "PUT, OPTIONS");
-        response.setHeader("Access-Control-Allow-Headers", "Content-Type");
+        doPatch(request, response);
+    }
 
-        PrintWriter out = response.getWriter();
+    // One UPDATE of the columns present in the body, keyed by the user, without loading either entity;
+    // a field sent as null is cleared
+    protected void doPatch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setHeader("Access-Control-Allow-Origin", "*"); // Allow React Native access
+        response.setHeader("Access-Control-Allow-Methods", "PUT, PATCH, OPTIONS");
+        response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization");
+
+        // Set by SessionTokenFilter from the bearer token
+        Long userId = (Long) request.getAttribute(SessionTokenFilter.USER_ID);
+
+        JsonNode updates;
+        try {
+            updates = Json.readTree(request);
+        } catch (IOException e) {
+            Json.failure(response, HttpServletResponse.SC_BAD_REQUEST, "Invalid JSON body");
+            return;
+        }
+        if (updates == null || !updates.isObject()) {
+            Json.failure(response, HttpServletResponse.SC_BAD_REQUEST, "Expected a JSON object");
+            return;
+        }
+        for (Iterator<String> names = updates.fieldNames(); names.hasNext(); ) {
+            String name = names.next();
+            if (!editable(name)) {
+                Json.failure(response, HttpServletResponse.SC_BAD_REQUEST, "Unknown profile field: " + name);
+                return;
+            }
+        }
+        if (updates.size() == 0) {
+            // Nothing to write
+            Json.write(response, PROFILE_UPDATED);
+            return;
+        }
 
-        // Get user ID from session
-        HttpSession session = request.getSession(false);
-        Long userId = (session != null) ? (Long) session.getAttribute("userId") : 1L; // fallback to ID = 1
+        // "" is what GET answers for no birthday, so it clears it as null does
+        LocalDate birthday = null;
+        JsonNode birthdayNode = updates.get("birthday");
+        if (birthdayNode != null && !birthdayNode.isNull() && !birthdayNode.asText().isEmpty()) {
+            try {
+                birthday = LocalDate.parse(birthdayNode.asText());
+            } catch (DateTimeParseException e) {
+                Json.failure(response, HttpServletResponse.SC_BAD_REQUEST, "Invalid birthday, expected YYYY-MM-DD");
+                return;
+            }
+        }
 
-        // Parse JSON input
-        StringBuilder sb = new StringBuilder();
-        BufferedReader reader = request.getReader();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            sb.append(line);
+        StringBuilder hql = new StringBuilder("UPDATE Profile SET ");
+        for (String name : EDITABLE) {
+            if (updates.has(name)) {
+                hql.append(hql.length() > "UPDATE Profile SET ".length() ? ", " : "")
+                        .append(name).append(" = :").append(name);
+            }
         }
-        String jsonInput = sb.toString();
+        hql.append(" WHERE user.id = :userId");
 
         try (Session hibernateSession = DatabaseConfig.getSessionFactory().openSession()) {
             Transaction tx = hibernateSession.beginTransaction();
-
-            // Fetch user and profile
-            User user = hibernateSession.get(User.class, userId);
-            if (user == null || user.getProfile() == null) {
-                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                out.print("{\"success\":false,\"message\":\"User or profile not found\"}");
-                return;
+            try {
+                MutationQuery update = hibernateSession.createMutationQuery(hql.toString())
+                        .setParameter("userId", userId);
+                if (updates.has("phone")) {
+                    update.setParameter("phone", text(updates.get("phone")));
+                }
+                if (updates.has("birthday")) {
+                    update.setParameter("birthday", birthday, LocalDate.class);
+                }
+                if (updates.has("adresse")) {
+                    update.setParameter("adresse", text(updates.get("adresse")));
+                }
+                int updated = update.executeUpdate();
+                tx.commit();
+
+                if (updated == 0) {
+                    Json.failure(response, HttpServletResponse.SC_NOT_FOUND, "User or profile not found");
+                    return;
+                }
+                Json.write(response, PROFILE_UPDATED);
+            } catch (RuntimeException e) {
+                if (tx.isActive()) {
+                    tx.rollback();
+                }
+                throw e;
             }
+        } catch (Exception e) {
+            Json.failure(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+            e.printStackTrace();
+        }
+    }
 
-            Profile profile = user.getProfile();
-
-            // Update profile fields
-            ObjectMapper mapper = new ObjectMapper();
-            Map<String, String> updates = mapper.readValue(jsonInput, Map.class);
+    // The profile of a user, or null if there is none. Read through the profileUsers natural id cache and the
+    // profiles and users entity caches, so a repeated read does not reach the database. Only rows actually
+    // loaded are cached there: unlike a cached query, a read that fails half-way (no connection within
+    // db.pool.acquireTimeoutMs) leaves nothing behind. The bulk UPDATE of doPatch evicts the profile regions.
+    public static ProfileView find(Session session, long userId) {
+        Profile profile = session.bySimpleNaturalId(Profile.class).load(session.getReference(User.class, userId));
+        return profile == null ? null : new ProfileView(profile);
+    }
 
-            if (updates.containsKey("phone")) {
-                profile.setPhone(updates.get("phone"));
-            }
-            if (updates.containsKey("birthday")) {
-                profile.setBirthday(updates.get("birthday") != null ? java.time.LocalDate.parse(updates.get("birthday")) : null);
-            }
-            if (updates.containsKey("adresse")) {
-                profile.setAdresse(updates.get("adresse"));
+    private static boolean editable(String name) {
+        for (String field : EDITABLE) {
+            if (field.equals(name)) {
+                return true;
             }
+        }
+        return false;
+    }
 
-            // Save changes
-            hibernateSession.update(profile);
-            tx.commit();
+    private static String text(JsonNode node) {
+        return node == null || node.isNull() ? null : node.asText();
+    }
 
-            out.print("{\"success\":true,\"message\":\"Profile updated successfully\"}");
-        } catch (Exception e) {
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            out.print("{\"success\":false,\"message\":\"" + e.getMessage() + "\"}");
-            e.printStackTrace();
+    public static final class ProfileView {
+        public final Long id;
+        public final String username;
+        public final String email;
+        public final String phone;
+        public final String birthday;
+        public final String adresse;
+
+        ProfileView(Profile profile) {
+            User user = profile.getUser();
+            this.id = user.getId();
+            this.username = user.getUsername();
+            this.email = user.getEmail();
+            this.phone = profile.getPhone();
+            this.birthday = profile.getBirthday() != null ? profile.getBirthday().toString() : "";
+            this.adresse = profile.getAdresse();
         }
     }
-}
\ No newline at end of file
+}